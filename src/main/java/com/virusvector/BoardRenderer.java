@@ -0,0 +1,363 @@
+package com.virusvector;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Draws the board of a {@link GameState} into a cached image, redrawing only the tiles
+ * the game reports as changed. Needs no display, so the game panel and the offscreen
+ * {@link FrameExporter} share it.
+ */
+final class BoardRenderer {
+    static final int TILE_SIZE = 40;
+    private static final Color PLAYER_GLOW = new Color(0, 255, 0, 100);
+    private static final Font MESSAGE_FONT = new Font("Monospaced", Font.BOLD, 24);
+    private static final Color FOG = new Color(12, 12, 18);
+    private static final Color[] HEAT = new Color[16]; // danger overlay, by danger / HEAT_STEP
+    private static final int HEAT_STEP = 2;
+
+    static {
+        for (int i = 0; i < HEAT.length; i++) {
+            HEAT[i] = new Color(255, 40, 0, i * 10);
+        }
+    }
+
+    // Board tiles drawn so far; only cells the game reports as changed are redrawn
+    private BufferedImage boardLayer;
+    private Object boardSource; // the state or frame exchange the image shows
+    private long[] dirtyTiles;
+    private final Point boardPlayer = new Point();
+    private byte[] boardCells; // row-major cell values drawn from snapshots
+    private long boardSequence;
+    private long[] boardVisible; // visibility drawn from snapshots, null without fog
+    private RenderQuality.Tier quality = RenderQuality.Tier.FULL;
+    private boolean threatOverlay;
+    private ThreatMap threats; // danger of the drawn snapshot cells, null while the overlay is off
+
+    /**
+     * Marks every cell the state reports as changed for redrawing. Call before the
+     * state's changes are cleared.
+     */
+    void collectChangedTiles(GameState state) {
+        if (dirtyTiles != null && boardSource == state) {
+            for (int i = 0; i < state.getChangedCellCount(); i++) {
+                int cell = state.getChangedCell(i);
+                dirtyTiles[cell >>> 6] |= 1L << cell;
+            }
+        }
+    }
+
+    /**
+     * Brings the cached board image up to date by redrawing only the dirty tiles.
+     * Tiles are redrawn in the same column order as a full redraw, and the player's
+     * neighbourhood is redrawn as a whole, so the glow overlaps exactly as before.
+     *
+     * @return the board image, valid until the next call
+     */
+    BufferedImage syncBoardLayer(GameState state) {
+        EntityType[][] grid = state.getGrid();
+        int width = grid.length;
+        int height = grid[0].length;
+        prepareLayer(state, width, height);
+        collectChangedTiles(state);
+        markPlayer(state.getPlayerPos().x, state.getPlayerPos().y, width, height);
+
+        Graphics2D g2d = boardLayer.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+            quality.antialiasing() ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                int cell = y * width + x;
+                if ((dirtyTiles[cell >>> 6] & (1L << cell)) != 0) {
+                    drawTile(g2d, x, y, grid[x][y]);
+                }
+            }
+        }
+        g2d.dispose();
+        Arrays.fill(dirtyTiles, 0L);
+        return boardLayer;
+    }
+
+    /**
+     * Like {@link #syncBoardLayer(GameState)}, but draws a published snapshot and never
+     * touches the live state. Uses the snapshot's changed cells when it directly follows
+     * the one drawn last, and compares whole boards when snapshots were skipped.
+     */
+    BufferedImage syncBoardLayer(FrameExchange exchange, FrameExchange.Snapshot snapshot) {
+        StateFrame frame = snapshot.getFrame();
+        int width = frame.width;
+        int height = frame.height;
+        byte[] cells = frame.cells;
+        if (prepareLayer(exchange, width, height) || boardCells == null || boardCells.length != cells.length) {
+            boardCells = cells.clone();
+            threats = null;
+        } else if (snapshot.getSequence() == boardSequence + 1 && snapshot.getChangedCellCount() >= 0) {
+            for (int i = 0; i < snapshot.getChangedCellCount(); i++) {
+                int cell = snapshot.getChangedCell(i);
+                dirtyTiles[cell >>> 6] |= 1L << cell;
+                updateThreat(cell, cells[cell], width, height);
+                boardCells[cell] = cells[cell];
+            }
+        } else if (snapshot.getSequence() != boardSequence) {
+            for (int cell = 0; cell < cells.length; cell++) {
+                if (boardCells[cell] != cells[cell]) {
+                    dirtyTiles[cell >>> 6] |= 1L << cell;
+                    updateThreat(cell, cells[cell], width, height);
+                    boardCells[cell] = cells[cell];
+                }
+            }
+        }
+        if (threatOverlay && threats == null) {
+            loadThreats(width, height);
+        }
+        boardSequence = snapshot.getSequence();
+        markVisibilityChanges(snapshot, width);
+        markPlayer(frame.playerX, frame.playerY, width, height);
+
+        Graphics2D g2d = boardLayer.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+            quality.antialiasing() ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                int cell = y * width + x;
+                if ((dirtyTiles[cell >>> 6] & (1L << cell)) == 0) continue;
+                if (snapshot.isVisible(x, y)) {
+                    drawTile(g2d, x, y, EntityType.fromValue(cells[cell]));
+                    if (threats != null) {
+                        drawHeat(g2d, x, y, threats.getDanger(x, y));
+                    }
+                } else {
+                    drawHiddenTile(g2d, x, y);
+                }
+            }
+        }
+        g2d.dispose();
+        Arrays.fill(dirtyTiles, 0L);
+        return boardLayer;
+    }
+
+    // An enemy that came or went changes the danger, and so the tint, of the square around it
+    private void updateThreat(int cell, byte value, int width, int height) {
+        if (threats == null) return;
+        int x = cell % width;
+        int y = cell / width;
+        if (threats.cellChanged(x, y, EntityType.fromValue(boardCells[cell]), EntityType.fromValue(value))) {
+            markDirtyAround(x, y, ThreatMap.RADIUS, width, height);
+        }
+    }
+
+    private void loadThreats(int width, int height) {
+        threats = new ThreatMap(width, height);
+        for (int cell = 0; cell < boardCells.length; cell++) {
+            threats.cellChanged(cell % width, cell / width, EntityType.EMPTY, EntityType.fromValue(boardCells[cell]));
+        }
+        Arrays.fill(dirtyTiles, -1L);
+    }
+
+    // Tiles that came into view or went out of it are redrawn, found a word of the plane at a time
+    private void markVisibilityChanges(FrameExchange.Snapshot snapshot, int width) {
+        long[] visible = snapshot.hasFog() ? snapshot.visible : null;
+        if (visible == null && boardVisible == null) return;
+        if (visible == null || boardVisible == null || boardVisible.length != visible.length) {
+            Arrays.fill(dirtyTiles, -1L);
+            boardVisible = visible == null ? null : visible.clone();
+            return;
+        }
+        int words = (width + 63) >>> 6;
+        for (int i = 0; i < visible.length; i++) {
+            long flipped = visible[i] ^ boardVisible[i];
+            if (flipped == 0) continue;
+            boardVisible[i] = visible[i];
+            int y = i / words;
+            int x0 = (i % words) << 6;
+            for (; flipped != 0; flipped &= flipped - 1) {
+                int cell = y * width + x0 + Long.numberOfTrailingZeros(flipped);
+                dirtyTiles[cell >>> 6] |= 1L << cell;
+            }
+        }
+    }
+
+    // Starts a fresh image with every tile dirty when the source or board size changes
+    private boolean prepareLayer(Object source, int width, int height) {
+        if (boardLayer != null && boardSource == source
+                && boardLayer.getWidth() == width * TILE_SIZE && boardLayer.getHeight() == height * TILE_SIZE) {
+            return false;
+        }
+        boardLayer = new BufferedImage(width * TILE_SIZE, height * TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        dirtyTiles = new long[(width * height + 63) >>> 6];
+        Arrays.fill(dirtyTiles, -1L);
+        boardSource = source;
+        return true;
+    }
+
+    // The glow spills into neighbouring tiles, so the player's old and new neighbourhoods are redrawn whole
+    private void markPlayer(int px, int py, int width, int height) {
+        if (px != boardPlayer.x || py != boardPlayer.y || anyDirtyAround(boardPlayer.x, boardPlayer.y, width, height)
+                || anyDirtyAround(px, py, width, height)) {
+            markDirtyAround(boardPlayer.x, boardPlayer.y, 1, width, height);
+            markDirtyAround(px, py, 1, width, height);
+            boardPlayer.setLocation(px, py);
+        }
+    }
+
+    /**
+     * Sets what tiles are drawn with; a change redraws every tile on the next sync.
+     */
+    void setQuality(RenderQuality.Tier tier) {
+        if (tier == quality) return;
+        quality = tier;
+        if (dirtyTiles != null) {
+            Arrays.fill(dirtyTiles, -1L);
+        }
+    }
+
+    /**
+     * Turns the danger overlay on published snapshots on or off; visible tiles near
+     * antivirus and spawners are tinted by how dangerous they are.
+     */
+    void setThreatOverlay(boolean enabled) {
+        if (enabled == threatOverlay) return;
+        threatOverlay = enabled;
+        if (!enabled && threats != null) {
+            threats = null;
+            Arrays.fill(dirtyTiles, -1L);
+        }
+    }
+
+    boolean isThreatOverlay() { return threatOverlay; }
+
+    /**
+     * Frees the cached board image; the next sync redraws every tile.
+     */
+    void dispose() {
+        boardLayer = null;
+        boardSource = null;
+        dirtyTiles = null;
+        boardCells = null;
+        boardVisible = null;
+        threats = null;
+    }
+
+    /**
+     * Draws the board followed by the game over or level complete banner.
+     */
+    void render(Graphics2D g2d, GameState state, int width, int height) {
+        g2d.drawImage(syncBoardLayer(state), 0, 0, null);
+        drawBanner(g2d, state, width, height);
+    }
+
+    /**
+     * Draws the game over or level complete message, if either applies.
+     */
+    static void drawBanner(Graphics2D g2d, GameState state, int width, int height) {
+        drawBanner(g2d, state.isGameOver(), state.isLevelComplete(), width, height);
+    }
+
+    static void drawBanner(Graphics2D g2d, boolean gameOver, boolean levelComplete, int width, int height) {
+        if (gameOver) {
+            drawCenteredMessage(g2d, "GAME OVER - Press R to restart", width, height);
+        } else if (levelComplete) {
+            drawCenteredMessage(g2d, "LEVEL COMPLETE! - Press N for next level", width, height);
+        }
+    }
+
+    private void drawTile(Graphics2D g2d, int x, int y, EntityType type) {
+        g2d.setColor(type.getColor());
+        g2d.fillRect(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+
+        // Draw special icons for new enemies and spawners
+        if (quality.enemyIcons()) {
+            drawEnemyIcon(g2d, x, y, type);
+        }
+
+        // Draw grid lines
+        if (quality.gridLines()) {
+            g2d.setColor(Color.BLACK);
+            g2d.drawRect(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+        }
+
+        // Draw special effects
+        if (type == EntityType.PLAYER && quality.glow()) {
+            // Draw player glow
+            g2d.setColor(PLAYER_GLOW);
+            g2d.fillOval(
+                x * TILE_SIZE - 5,
+                y * TILE_SIZE - 5,
+                TILE_SIZE + 10,
+                TILE_SIZE + 10
+            );
+        }
+    }
+
+    private static void drawEnemyIcon(Graphics2D g2d, int x, int y, EntityType type) {
+        if (type == EntityType.PATROLLING_ANTIVIRUS) {
+            g2d.setColor(Color.ORANGE);
+            g2d.drawLine(x * TILE_SIZE + 5, y * TILE_SIZE + TILE_SIZE/2, x * TILE_SIZE + TILE_SIZE - 5, y * TILE_SIZE + TILE_SIZE/2);
+        } else if (type == EntityType.CHASING_ANTIVIRUS) {
+            g2d.setColor(Color.MAGENTA);
+            g2d.fillOval(x * TILE_SIZE + 10, y * TILE_SIZE + 10, TILE_SIZE - 20, TILE_SIZE - 20);
+        } else if (type == EntityType.RANDOM_ANTIVIRUS) {
+            g2d.setColor(Color.CYAN);
+            g2d.drawRect(x * TILE_SIZE + 10, y * TILE_SIZE + 10, TILE_SIZE - 20, TILE_SIZE - 20);
+        } else if (type == EntityType.ENEMY_SPAWNER) {
+            g2d.setColor(Color.YELLOW);
+            g2d.fillRect(x * TILE_SIZE + 12, y * TILE_SIZE + 12, TILE_SIZE - 24, TILE_SIZE - 24);
+            g2d.setColor(Color.RED);
+            g2d.drawOval(x * TILE_SIZE + 8, y * TILE_SIZE + 8, TILE_SIZE - 16, TILE_SIZE - 16);
+        }
+    }
+
+    private static void drawHeat(Graphics2D g2d, int x, int y, int danger) {
+        if (danger <= 0) return;
+        g2d.setColor(HEAT[Math.min(HEAT.length - 1, danger / HEAT_STEP)]);
+        g2d.fillRect(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+    }
+
+    private void drawHiddenTile(Graphics2D g2d, int x, int y) {
+        g2d.setColor(FOG);
+        g2d.fillRect(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+        if (quality.gridLines()) {
+            g2d.setColor(Color.BLACK);
+            g2d.drawRect(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+        }
+    }
+
+    private boolean anyDirtyAround(int px, int py, int width, int height) {
+        for (int x = Math.max(0, px - 1); x <= Math.min(width - 1, px + 1); x++) {
+            for (int y = Math.max(0, py - 1); y <= Math.min(height - 1, py + 1); y++) {
+                int cell = y * width + x;
+                if ((dirtyTiles[cell >>> 6] & (1L << cell)) != 0) return true;
+            }
+        }
+        return false;
+    }
+
+    private void markDirtyAround(int px, int py, int radius, int width, int height) {
+        for (int x = Math.max(0, px - radius); x <= Math.min(width - 1, px + radius); x++) {
+            for (int y = Math.max(0, py - radius); y <= Math.min(height - 1, py + radius); y++) {
+                int cell = y * width + x;
+                dirtyTiles[cell >>> 6] |= 1L << cell;
+            }
+        }
+    }
+
+    /**
+     * Draws a shadowed line of text centred on an area of the given size.
+     */
+    static void drawCenteredMessage(Graphics2D g2d, String msg, int width, int height) {
+        g2d.setFont(MESSAGE_FONT);
+
+        // Draw shadow
+        g2d.setColor(Color.BLACK);
+        FontMetrics fm = g2d.getFontMetrics();
+        int x = (width - fm.stringWidth(msg)) / 2;
+        int y = height / 2;
+
+        g2d.drawString(msg, x + 2, y + 2);
+
+        // Draw main text
+        g2d.setColor(Color.WHITE);
+        g2d.drawString(msg, x, y);
+    }
+}
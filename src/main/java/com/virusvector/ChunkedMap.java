@@ -0,0 +1,212 @@
+package com.virusvector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads a binary map written by {@link MapFile#writeBinary} through memory mapping.
+ * Opening maps only the header, spawn table and chunk index, so it takes the same time
+ * for any map size. Each chunk of cells is mapped on first use and kept in a small
+ * least-recently-used set, so the address space and page cache in use follow the area
+ * being played rather than the size of the map. Chunks holding a single value are not
+ * stored in the file at all.
+ *
+ * Not thread-safe: use one instance per thread.
+ */
+public final class ChunkedMap implements LevelMap {
+    static final int DEFAULT_CACHED_CHUNKS = 256;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int chunkSize;
+    private final int chunksX;
+    private final int roomWidth;
+    private final int roomHeight;
+    private final int spawnCount;
+    private final MappedByteBuffer table; // spawn table followed by the chunk index
+    private final int indexStart;
+
+    private final Map<Integer, MappedByteBuffer> chunks;
+    private int lastChunk = -1;
+    private ByteBuffer lastData; // null when the last chunk is uniform
+    private byte lastValue;
+    private long chunkLoads;
+
+    public ChunkedMap(Path file) throws IOException {
+        this(file, DEFAULT_CACHED_CHUNKS);
+    }
+
+    /**
+     * @param cachedChunks how many chunks stay mapped at once; should cover the area
+     *                     played plus whatever is prefetched around it
+     */
+    public ChunkedMap(Path file, int cachedChunks) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(MapFile.BINARY_HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            if (header.remaining() < MapFile.BINARY_HEADER_SIZE || header.getInt() != MapFile.BINARY_MAGIC) {
+                throw new IOException(file + " is not a binary map");
+            }
+            width = header.getInt();
+            height = header.getInt();
+            chunkSize = header.getInt();
+            roomWidth = header.getInt();
+            roomHeight = header.getInt();
+            spawnCount = header.getInt();
+            if (width < 3 || height < 3 || chunkSize < 1 || spawnCount < 0) {
+                throw new IOException(file + " has an invalid map header");
+            }
+            chunksX = (width + chunkSize - 1) / chunkSize;
+            int chunksY = (height + chunkSize - 1) / chunkSize;
+            indexStart = spawnCount * 12;
+            table = channel.map(FileChannel.MapMode.READ_ONLY, MapFile.BINARY_HEADER_SIZE,
+                indexStart + (long) chunksX * chunksY * 8);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        int capacity = Math.max(1, cachedChunks);
+        chunks = new LinkedHashMap<>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, MappedByteBuffer> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public int getWidth() { return width; }
+
+    @Override
+    public int getHeight() { return height; }
+
+    @Override
+    public int getRoomWidth() { return roomWidth; }
+
+    @Override
+    public int getRoomHeight() { return roomHeight; }
+
+    public int getChunkSize() { return chunkSize; }
+
+    /** @return how many chunks are mapped right now */
+    public int getMappedChunks() { return chunks.size(); }
+
+    /** @return how many times a chunk has been mapped, counting chunks mapped again after eviction */
+    public long getChunkLoads() { return chunkLoads; }
+
+    @Override
+    public EntityType get(int x, int y) {
+        int chunk = (y / chunkSize) * chunksX + x / chunkSize;
+        if (chunk != lastChunk) {
+            selectChunk(chunk);
+        }
+        if (lastData == null) {
+            return EntityType.fromValue(lastValue);
+        }
+        return EntityType.fromValue(lastData.get((y % chunkSize) * chunkSize + x % chunkSize));
+    }
+
+    private void selectChunk(int chunk) {
+        long entry = table.getLong(indexStart + chunk * 8);
+        if (entry < 0) {
+            lastData = null;
+            lastValue = (byte) ~entry;
+        } else {
+            lastData = mapChunk(chunk, entry);
+        }
+        lastChunk = chunk;
+    }
+
+    private MappedByteBuffer mapChunk(int chunk, long offset) {
+        MappedByteBuffer data = chunks.get(chunk);
+        if (data == null) {
+            try {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) chunkSize * chunkSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not map a chunk of " + file, e);
+            }
+            chunks.put(chunk, data);
+            chunkLoads++;
+        }
+        return data;
+    }
+
+    /**
+     * Maps every chunk overlapping the area and asks the OS to read it in.
+     */
+    @Override
+    public void prefetch(int x, int y, int areaWidth, int areaHeight) {
+        int x0 = Math.max(0, x) / chunkSize;
+        int y0 = Math.max(0, y) / chunkSize;
+        int x1 = (Math.min(width, x + areaWidth) - 1) / chunkSize;
+        int y1 = (Math.min(height, y + areaHeight) - 1) / chunkSize;
+        for (int cy = y0; cy <= y1; cy++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                int chunk = cy * chunksX + cx;
+                long entry = table.getLong(indexStart + chunk * 8);
+                if (entry >= 0) {
+                    mapChunk(chunk, entry).load();
+                }
+            }
+        }
+        lastChunk = -1; // the memoised chunk may have been evicted
+    }
+
+    @Override
+    public int getSpawnArg(int x, int y) {
+        // The spawn table is sorted by row-major cell, so binary search it in place
+        long key = (long) y * width + x;
+        int lo = 0;
+        int hi = spawnCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long cell = (long) getSpawnY(mid) * width + getSpawnX(mid);
+            if (cell < key) {
+                lo = mid + 1;
+            } else if (cell > key) {
+                hi = mid - 1;
+            } else {
+                return getSpawnArg(mid);
+            }
+        }
+        return NO_SPAWN_ARG;
+    }
+
+    @Override
+    public int getSpawnCount() { return spawnCount; }
+
+    @Override
+    public int getSpawnX(int i) { return table.getInt(i * 12); }
+
+    @Override
+    public int getSpawnY(int i) { return table.getInt(i * 12 + 4); }
+
+    @Override
+    public int getSpawnArg(int i) { return table.getInt(i * 12 + 8); }
+
+    @Override
+    public void close() {
+        chunks.clear();
+        lastChunk = -1;
+        lastData = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.virusvector;
+
+import java.util.Arrays;
+
+/**
+ * Positions of one kind of moving enemy or spawner, kept in parallel primitive arrays
+ * so the list can be copied and restored without allocating a Point per entry.
+ * Each entry carries one long of per-kind data (patrol direction, last spawn time).
+ */
+final class EnemyList {
+    private int size;
+    private int[] xs = new int[8];
+    private int[] ys = new int[8];
+    private long[] data = new long[8];
+
+    int size() { return size; }
+    int x(int i) { return xs[i]; }
+    int y(int i) { return ys[i]; }
+    long data(int i) { return data[i]; }
+
+    void set(int i, int x, int y) {
+        xs[i] = x;
+        ys[i] = y;
+    }
+
+    void setData(int i, long value) {
+        data[i] = value;
+    }
+
+    void add(int x, int y, long value) {
+        if (size == xs.length) {
+            int capacity = size * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            data = Arrays.copyOf(data, capacity);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        data[size] = value;
+        size++;
+    }
+
+    int indexOf(int x, int y) {
+        for (int i = 0; i < size; i++) {
+            if (xs[i] == x && ys[i] == y) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Removes an entry, keeping the remaining entries in order so enemies keep moving in the same sequence.
+     */
+    void removeAt(int i) {
+        int tail = size - i - 1;
+        if (tail > 0) {
+            System.arraycopy(xs, i + 1, xs, i, tail);
+            System.arraycopy(ys, i + 1, ys, i, tail);
+            System.arraycopy(data, i + 1, data, i, tail);
+        }
+        size--;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void copyFrom(EnemyList other) {
+        if (xs.length < other.size) {
+            xs = new int[other.xs.length];
+            ys = new int[other.xs.length];
+            data = new long[other.xs.length];
+        }
+        System.arraycopy(other.xs, 0, xs, 0, other.size);
+        System.arraycopy(other.ys, 0, ys, 0, other.size);
+        System.arraycopy(other.data, 0, data, 0, other.size);
+        size = other.size;
+    }
+}
@@ -0,0 +1,365 @@
+package com.virusvector;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Drives {@link GameState} headlessly through long sessions and synthetic extremes and
+ * checks how it holds up: tick-time percentiles, bytes allocated per tick, GC pauses
+ * and the live heap after full collections, sampled through each run so a leak shows
+ * up as growth. Every metric goes into a CSV report, one row per scenario and metric,
+ * with its limit and result; any metric over its limit fails the run with exit status 1.
+ *
+ * Limits can be changed per run with {@code -Dvirusvector.soak.<scenario>.<metric>=<limit>},
+ * for example {@code -Dvirusvector.soak.huge.tick_p99_us=20000} on a slow machine.
+ */
+public final class EngineSoak {
+    static final String LIMIT_PROPERTY_PREFIX = "virusvector.soak.";
+    private static final int HEAP_SAMPLES = 8;
+    private static final int[] DX = {-1, 1, 0, 0};
+    private static final int[] DY = {0, 0, -1, 1};
+
+    /**
+     * A board to play, with the limits its metrics are held to.
+     */
+    private enum Scenario {
+        /** Ordinary generated levels, played, lost and restarted for as long as the run lasts. */
+        SESSION("session", 50, 64, 200, 1_024) {
+            @Override
+            GameState create(long seed) {
+                return new GameState(seed);
+            }
+        },
+        /** Thousands of spawners on an open board, filling it with enemies. */
+        SPAWNERS("spawners", 2_000, 256, 200, 1_024) {
+            @Override
+            GameState create(long seed) {
+                Random random = new Random(seed);
+                byte[] cells = openBoard(256, 256);
+                for (int i = 0; i < 4_000; i++) {
+                    cells[(1 + random.nextInt(254)) * 256 + 1 + random.nextInt(254)] =
+                        (byte) EntityType.ENEMY_SPAWNER.getValue();
+                }
+                return play(256, 256, cells, seed);
+            }
+        },
+        /** Every cell but the player's taken by an enemy, so the player keeps dying and restarting. */
+        PACKED("packed", 5_000, 64, 200, 1_024) {
+            @Override
+            GameState create(long seed) {
+                EntityType[] enemies = {EntityType.ANTIVIRUS, EntityType.PATROLLING_ANTIVIRUS,
+                    EntityType.CHASING_ANTIVIRUS, EntityType.RANDOM_ANTIVIRUS};
+                byte[] cells = openBoard(128, 128);
+                for (int y = 1; y < 127; y++) {
+                    for (int x = 1; x < 127; x++) {
+                        cells[y * 128 + x] = (byte) enemies[(x + y) % enemies.length].getValue();
+                    }
+                }
+                return play(128, 128, cells, seed);
+            }
+        },
+        /** A large open board strewn with upgrades, so the player always infects at the largest range. */
+        MAX_RANGE("max_range", 50, 64, 200, 1_024) {
+            @Override
+            GameState create(long seed) {
+                byte[] cells = openBoard(512, 512);
+                for (int y = 1; y < 511; y++) {
+                    for (int x = 1; x < 511; x++) {
+                        if ((x + y) % 3 == 0) cells[y * 512 + x] = (byte) EntityType.INFECT_UPGRADE.getValue();
+                    }
+                }
+                return play(512, 512, cells, seed);
+            }
+        },
+        /** A generated level on a 2048x2048 board with outbreak mode spreading infection over all of it. */
+        HUGE("huge", 5_000, 64, 200, 1_024) {
+            @Override
+            GameState create(long seed) {
+                GameState state = new GameState(2048, 2048, seed);
+                state.setOutbreakMode(OutbreakAutomaton.Rules.DEFAULT);
+                return state;
+            }
+        };
+
+        final String id;
+        final String[] limitedMetrics = {"tick_p99_us", "alloc_bytes_per_tick", "gc_pause_ms_per_min",
+            "live_heap_growth_kb_per_min"};
+        final double[] limits;
+
+        Scenario(String id, double tickP99Micros, double allocBytesPerTick, double gcMillisPerMinute,
+                 double heapGrowthKbPerMinute) {
+            this.id = id;
+            this.limits = new double[] {tickP99Micros, allocBytesPerTick, gcMillisPerMinute, heapGrowthKbPerMinute};
+        }
+
+        abstract GameState create(long seed);
+
+        /** @return the limit for a metric, or NaN when it is only reported */
+        double limit(String metric) {
+            String override = System.getProperty(LIMIT_PROPERTY_PREFIX + id + "." + metric);
+            if (override != null) return Double.parseDouble(override);
+            for (int i = 0; i < limitedMetrics.length; i++) {
+                if (limitedMetrics[i].equals(metric)) return limits[i];
+            }
+            return Double.NaN;
+        }
+    }
+
+    // Row-major cell values with a wall round the edge and the player in the middle
+    private static byte[] openBoard(int width, int height) {
+        byte[] cells = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean edge = x == 0 || y == 0 || x == width - 1 || y == height - 1;
+                cells[y * width + x] = (byte) (edge ? EntityType.WALL : EntityType.EMPTY).getValue();
+            }
+        }
+        cells[height / 2 * width + width / 2] = (byte) EntityType.PLAYER.getValue();
+        return cells;
+    }
+
+    // A one-room map, so restarts and new levels load the same board again
+    private static GameState play(int width, int height, byte[] cells, long seed) {
+        cells[height / 2 * width + width / 2] = (byte) EntityType.PLAYER.getValue();
+        return new GameState(new MapFile.GridMap(width, height, width, height, cells, new int[0]), seed);
+    }
+
+    /**
+     * Tick times in buckets of 1/32 of a power of two, so percentiles are within about
+     * 3% without keeping every sample or allocating while the run is measured.
+     */
+    private static final class Histogram {
+        private final long[] counts = new long[64 + 58 * 32];
+        private long total;
+        private long max;
+
+        void record(long nanos) {
+            counts[bucket(nanos)]++;
+            total++;
+            max = Math.max(max, nanos);
+        }
+
+        private static int bucket(long v) {
+            if (v < 64) return (int) Math.max(v, 0);
+            int exponent = 63 - Long.numberOfLeadingZeros(v);
+            return 64 + (exponent - 6) * 32 + (int) ((v >>> (exponent - 5)) & 31);
+        }
+
+        private static long lowerBound(int bucket) {
+            if (bucket < 64) return bucket;
+            int exponent = (bucket - 64) / 32 + 6;
+            return (32L + (bucket - 64) % 32) << (exponent - 5);
+        }
+
+        long percentile(double p) {
+            long rank = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return Math.min(lowerBound(i), max);
+            }
+            return max;
+        }
+    }
+
+    private static final class Row {
+        final String scenario;
+        final String metric;
+        final double value;
+        final double limit; // NaN when the metric is only reported
+
+        Row(String scenario, String metric, double value, double limit) {
+            this.scenario = scenario;
+            this.metric = metric;
+            this.value = value;
+            this.limit = limit;
+        }
+
+        boolean failed() {
+            return !Double.isNaN(limit) && value > limit;
+        }
+    }
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final List<Row> rows = new ArrayList<>();
+
+    private long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean counting && counting.isThreadAllocatedMemoryEnabled()) {
+            return counting.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    private long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(0, collector.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static void step(GameState state, Random random, long tick) {
+        if (state.isGameOver()) {
+            state.startNewGame();
+        } else if (state.isLevelComplete()) {
+            state.nextLevel();
+        }
+        int move = random.nextInt(5);
+        if (move < DX.length) {
+            state.movePlayer(DX[move], DY[move]);
+        }
+        state.tick(GameServer.tickMillis(tick));
+    }
+
+    /**
+     * Plays one scenario for a while after a warm-up, then adds its rows to the report.
+     * The collections forced to sample the live heap are left out of the GC figures.
+     */
+    private void run(Scenario scenario, long seconds) {
+        long setupStart = System.nanoTime();
+        GameState state = scenario.create(1);
+        double setupMillis = (System.nanoTime() - setupStart) / 1e6;
+        Random random = new Random(2);
+        long warmUpEnd = System.nanoTime() + Math.max(1, seconds / 5) * 1_000_000_000L;
+        long played = 0;
+        while (System.nanoTime() < warmUpEnd) {
+            step(state, random, played++);
+        }
+
+        Histogram ticks = new Histogram();
+        long[] heapSamples = new long[HEAP_SAMPLES];
+        double[] sampleMinutes = new double[HEAP_SAMPLES];
+        long forcedGcMillis = 0;
+        long forcedGcCount = 0;
+        long gcMillisStart = gcMillis();
+        long gcCountStart = gcCount();
+        long allocatedStart = allocatedBytes();
+        long start = System.nanoTime();
+        long duration = seconds * 1_000_000_000L;
+        int samples = 0;
+        long now = start;
+        while (samples < HEAP_SAMPLES) {
+            if (now - start >= duration * samples / (HEAP_SAMPLES - 1)) {
+                long gcBefore = gcMillis();
+                long countBefore = gcCount();
+                System.gc();
+                heapSamples[samples] = memory.getHeapMemoryUsage().getUsed();
+                sampleMinutes[samples++] = (now - start) / 6e10;
+                forcedGcMillis += gcMillis() - gcBefore;
+                forcedGcCount += gcCount() - countBefore;
+                if (samples == HEAP_SAMPLES) break;
+            }
+            long tickStart = System.nanoTime();
+            step(state, random, played++);
+            now = System.nanoTime();
+            ticks.record(now - tickStart);
+        }
+        double minutes = (now - start) / 6e10;
+        long allocated = allocatedStart < 0 ? -1 : allocatedBytes() - allocatedStart;
+        long gcPauseMillis = gcMillis() - gcMillisStart - forcedGcMillis;
+        long gcCollections = gcCount() - gcCountStart - forcedGcCount;
+
+        // Least-squares slope of the live heap, from the second sample on since the
+        // first still holds what setting up and warming up left behind
+        double meanX = 0, meanY = 0;
+        for (int i = 1; i < samples; i++) {
+            meanX += sampleMinutes[i] / (samples - 1);
+            meanY += heapSamples[i] / 1024.0 / (samples - 1);
+        }
+        double covariance = 0, variance = 0;
+        for (int i = 1; i < samples; i++) {
+            covariance += (sampleMinutes[i] - meanX) * (heapSamples[i] / 1024.0 - meanY);
+            variance += (sampleMinutes[i] - meanX) * (sampleMinutes[i] - meanX);
+        }
+
+        add(scenario, "setup_ms", setupMillis);
+        add(scenario, "ticks", ticks.total);
+        add(scenario, "ticks_per_s", ticks.total / (minutes * 60));
+        add(scenario, "tick_p50_us", ticks.percentile(0.50) / 1e3);
+        add(scenario, "tick_p90_us", ticks.percentile(0.90) / 1e3);
+        add(scenario, "tick_p99_us", ticks.percentile(0.99) / 1e3);
+        add(scenario, "tick_p999_us", ticks.percentile(0.999) / 1e3);
+        add(scenario, "tick_max_us", ticks.max / 1e3);
+        if (allocated >= 0) {
+            add(scenario, "alloc_bytes_per_tick", allocated / (double) ticks.total);
+            add(scenario, "alloc_mb_per_s", allocated / 1048576.0 / (minutes * 60));
+        }
+        add(scenario, "gc_collections", gcCollections);
+        add(scenario, "gc_pause_ms", gcPauseMillis);
+        add(scenario, "gc_pause_ms_per_min", gcPauseMillis / minutes);
+        add(scenario, "live_heap_start_mb", heapSamples[0] / 1048576.0);
+        add(scenario, "live_heap_end_mb", heapSamples[samples - 1] / 1048576.0);
+        add(scenario, "live_heap_growth_kb_per_min", variance > 0 ? covariance / variance : 0);
+    }
+
+    private void add(Scenario scenario, String metric, double value) {
+        Row row = new Row(scenario.id, metric, value, scenario.limit(metric));
+        rows.add(row);
+        System.out.printf(Locale.ROOT, "%-10s %-28s %14.2f %12s  %s%n", row.scenario, metric, value,
+            Double.isNaN(row.limit) ? "" : String.format(Locale.ROOT, "%.0f", row.limit),
+            Double.isNaN(row.limit) ? "" : row.failed() ? "FAIL" : "ok");
+    }
+
+    private void writeReport(Path file) throws IOException {
+        try (BufferedWriter csv = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            csv.write("scenario,metric,value,limit,result\n");
+            for (Row row : rows) {
+                csv.write(String.format(Locale.ROOT, "%s,%s,%.3f,%s,%s%n", row.scenario, row.metric, row.value,
+                    Double.isNaN(row.limit) ? "" : String.format(Locale.ROOT, "%.3f", row.limit),
+                    Double.isNaN(row.limit) ? "" : row.failed() ? "fail" : "pass"));
+            }
+        }
+    }
+
+    /**
+     * Usage: {@code EngineSoak [seconds per scenario] [report.csv] [scenario...]}, running
+     * every scenario when none are named. Exits with status 1 if any limit is exceeded.
+     */
+    public static void main(String[] args) throws IOException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 60;
+        Path report = Path.of(args.length > 1 ? args[1] : "soak-report.csv");
+        List<Scenario> scenarios = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            for (Scenario scenario : Scenario.values()) {
+                if (scenario.id.equals(args[i])) scenarios.add(scenario);
+            }
+        }
+        if (scenarios.isEmpty()) {
+            scenarios.addAll(List.of(Scenario.values()));
+        }
+
+        EngineSoak soak = new EngineSoak();
+        System.out.printf("%-10s %-28s %14s %12s  %s%n", "scenario", "metric", "value", "limit", "result");
+        for (Scenario scenario : scenarios) {
+            soak.run(scenario, seconds);
+        }
+        soak.writeReport(report);
+        long failures = soak.rows.stream().filter(Row::failed).count();
+        System.out.println(failures == 0 ? "All limits held; report in " + report
+            : failures + " limit(s) exceeded; report in " + report);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+}
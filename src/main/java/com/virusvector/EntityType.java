@@ -44,12 +44,30 @@ public enum EntityType {
     public Color getColor() {
         return color;
     }
+
+    /** @return true for antivirus enemies and spawners */
+    public boolean isThreat() {
+        return switch (this) {
+            case ANTIVIRUS, PATROLLING_ANTIVIRUS, CHASING_ANTIVIRUS, RANDOM_ANTIVIRUS, ENEMY_SPAWNER -> true;
+            default -> false;
+        };
+    }
+
+    /** @return true for pickups */
+    public boolean isPowerUp() {
+        return this == INFECT_UPGRADE || this == SHIELD || this == TIME_EXTENSION;
+    }
     
-    public static EntityType fromValue(int value) {
+    private static final EntityType[] BY_VALUE = new EntityType[16];
+    static {
         for (EntityType type : values()) {
-            if (type.value == value) {
-                return type;
-            }
+            BY_VALUE[type.value] = type;
+        }
+    }
+
+    public static EntityType fromValue(int value) {
+        if (value >= 0 && value < BY_VALUE.length && BY_VALUE[value] != null) {
+            return BY_VALUE[value];
         }
         return EMPTY;
     }
@@ -0,0 +1,153 @@
+package com.virusvector;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Serves a {@link VectorEnv} to one training client at a time over a local TCP port
+ * or a Unix-domain socket. The batch buffers are written straight from their direct
+ * memory with a gathering write, so nothing is copied on the Java side.
+ *
+ * Protocol, all integers little-endian:
+ * <pre>
+ *   client: 'I'                  server: int envs, int planes, int height, int width, int actions
+ *   client: 'R'                  server: observations, rewards, dones
+ *   client: 'S' + envs action bytes   server: observations, rewards, dones
+ *   client: 'Q'                  server closes the connection
+ * </pre>
+ * Observations are envs * planes * height * width bytes, rewards envs floats, dones envs bytes.
+ */
+public final class EnvServer {
+    private final VectorEnv env;
+    private final ByteBuffer command = ByteBuffer.allocateDirect(1);
+    private final ByteBuffer actionBytes;
+    private final int[] actions;
+    private final ByteBuffer info = ByteBuffer.allocateDirect(5 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer[] batch;
+
+    public EnvServer(VectorEnv env) {
+        this.env = env;
+        actionBytes = ByteBuffer.allocateDirect(env.getEnvCount());
+        actions = new int[env.getEnvCount()];
+        batch = new ByteBuffer[] {
+            env.getObservations().duplicate(),
+            env.getRewards().duplicate(),
+            env.getDones().duplicate()
+        };
+    }
+
+    /**
+     * Accepts clients one after another until the thread is interrupted. A client that
+     * sends a bad request or whose connection fails is dropped and the next one accepted.
+     */
+    public void serve(SocketAddress address) throws IOException {
+        boolean unix = address instanceof UnixDomainSocketAddress;
+        if (unix) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+        try (ServerSocketChannel server = unix
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open()) {
+            server.bind(address);
+            System.out.println("Environment server listening on " + address);
+            while (!Thread.currentThread().isInterrupted()) {
+                SocketChannel accepted = server.accept(); // a failure here stops the server
+                try (SocketChannel client = accepted) {
+                    if (!unix) {
+                        client.socket().setTcpNoDelay(true);
+                    }
+                    handle(client);
+                } catch (EOFException e) {
+                    // Client went away mid-request, wait for the next one
+                } catch (IOException e) {
+                    // A bad request or a reset connection only ends that client
+                    System.err.println("Environment client dropped: " + e);
+                }
+            }
+        }
+    }
+
+    private void handle(SocketChannel client) throws IOException {
+        while (true) {
+            command.clear();
+            readFully(client, command);
+            switch (command.get(0)) {
+                case 'I' -> {
+                    info.clear();
+                    info.putInt(env.getEnvCount()).putInt(VectorEnv.PLANES)
+                        .putInt(env.getHeight()).putInt(env.getWidth()).putInt(VectorEnv.ACTIONS);
+                    info.flip();
+                    writeFully(client, info);
+                }
+                case 'R' -> {
+                    env.reset();
+                    writeBatch(client);
+                }
+                case 'S' -> {
+                    actionBytes.clear();
+                    readFully(client, actionBytes);
+                    for (int i = 0; i < actions.length; i++) {
+                        actions[i] = actionBytes.get(i);
+                    }
+                    env.step(actions);
+                    writeBatch(client);
+                }
+                case 'Q' -> {
+                    return;
+                }
+                default -> throw new IOException("Unknown command " + command.get(0));
+            }
+        }
+    }
+
+    private void writeBatch(SocketChannel client) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer b : batch) {
+            b.clear();
+            remaining += b.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= client.write(batch);
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Usage: {@code EnvServer [envs] [port | unix:/path/to/socket] [seed]}
+     */
+    public static void main(String[] args) throws IOException {
+        int envs = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        String where = args.length > 1 ? args[1] : "5555";
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1L;
+        SocketAddress address = where.startsWith("unix:")
+            ? UnixDomainSocketAddress.of(Path.of(where.substring("unix:".length())))
+            : new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(where));
+        try (VectorEnv env = new VectorEnv(envs, seed)) {
+            new EnvServer(env).serve(address);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.virusvector;
+
+import java.util.Random;
+
+/**
+ * What the player can see in fog-of-war mode: every cell within a radius that has a
+ * clear line from the player through walls and firewalls, found with recursive
+ * shadowcasting over the eight octants. Walls and firewalls are kept in a bit plane
+ * (bit x of row y) that follows every cell change, and the result is a plane of the
+ * same layout. A recomputation only clears and scans the square around the view, so
+ * its cost depends on the radius and not on the size of the board.
+ */
+public final class FieldOfView {
+    // Octant transforms: row and column offsets map to dx = col * xx + row * xy, dy = col * yx + row * yy
+    private static final int[] XX = {1, 0, 0, -1, -1, 0, 0, 1};
+    private static final int[] XY = {0, 1, -1, 0, 0, -1, 1, 0};
+    private static final int[] YX = {0, 1, 1, 0, 0, -1, -1, 0};
+    private static final int[] YY = {1, 0, 0, 1, -1, 0, 0, -1};
+
+    private final int width;
+    private final int height;
+    private final int words; // longs per row
+    private final long[] visible;
+    private final long[] opaque;
+
+    private int originX = -1;
+    private int originY = -1;
+    private int radius;
+    private boolean computed;
+
+    public FieldOfView(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.words = (width + 63) >>> 6;
+        this.visible = new long[words * height];
+        this.opaque = new long[words * height];
+    }
+
+    /** @return true for cells that block sight */
+    public static boolean isOpaque(EntityType type) {
+        return type == EntityType.WALL || type == EntityType.FIREWALL;
+    }
+
+    /**
+     * Reads which cells block sight from a whole grid, indexed {@code [x][y]}.
+     */
+    public void load(EntityType[][] grid) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int word = y * words + (x >>> 6);
+                if (isOpaque(grid[x][y])) {
+                    opaque[word] |= 1L << x;
+                } else {
+                    opaque[word] &= ~(1L << x);
+                }
+            }
+        }
+        computed = false;
+    }
+
+    /**
+     * Records the new type of a cell.
+     *
+     * @return whether it started or stopped blocking sight close enough to the last
+     * origin to change what is visible from there
+     */
+    public boolean cellChanged(int x, int y, EntityType type) {
+        int word = y * words + (x >>> 6);
+        long bit = 1L << x;
+        boolean now = isOpaque(type);
+        if (((opaque[word] & bit) != 0) == now) return false;
+        opaque[word] ^= bit;
+        return !computed || Math.abs(x - originX) <= radius && Math.abs(y - originY) <= radius;
+    }
+
+    /**
+     * Recomputes what is visible from a cell.
+     */
+    public void compute(int x, int y, int radius) {
+        if (computed) {
+            clear(originX, originY, this.radius);
+        }
+        this.originX = x;
+        this.originY = y;
+        this.radius = radius;
+        computed = true;
+        if (x < 0 || x >= width || y < 0 || y >= height) return;
+        set(x, y);
+        for (int octant = 0; octant < 8; octant++) {
+            castLight(1, 1.0, 0.0, XX[octant], XY[octant], YX[octant], YY[octant]);
+        }
+    }
+
+    public boolean isComputedFrom(int x, int y, int radius) {
+        return computed && x == originX && y == originY && radius == this.radius;
+    }
+
+    public boolean isVisible(int x, int y) {
+        return (visible[y * words + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /** @return the plane, row-major with {@link #getWordsPerRow()} longs per row */
+    public long[] getBits() { return visible; }
+
+    public int getWordsPerRow() { return words; }
+
+    /**
+     * Reads a cell of a plane laid out like {@link #getBits()}.
+     */
+    public static boolean isVisible(long[] bits, int wordsPerRow, int x, int y) {
+        return (bits[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    private void set(int x, int y) {
+        visible[y * words + (x >>> 6)] |= 1L << x;
+    }
+
+    // Everything visible lies in the square around the origin, so only its rows are wiped
+    private void clear(int x, int y, int r) {
+        int fromWord = Math.max(0, x - r) >>> 6;
+        int toWord = Math.min(width - 1, Math.max(0, x + r)) >>> 6;
+        for (int row = Math.max(0, y - r); row <= Math.min(height - 1, y + r); row++) {
+            for (int w = fromWord; w <= toWord; w++) {
+                visible[row * words + w] = 0;
+            }
+        }
+    }
+
+    /**
+     * Scans one octant row by row outwards, between a start and end slope, lighting
+     * cells and recursing past every run of opaque cells to light what lies beside it.
+     */
+    private void castLight(int row, double start, double end, int xx, int xy, int yx, int yy) {
+        if (start < end) return;
+        int radiusSquared = radius * radius;
+        double newStart = 0;
+        for (int distance = row; distance <= radius; distance++) {
+            boolean blocked = false;
+            int dy = -distance;
+            double toLeft = 1 / (dy + 0.5);
+            double toRight = 1 / (dy - 0.5);
+            // Start at the first cell whose right edge is inside the start slope
+            int firstDx = Math.max(-distance, (int) Math.ceil(start * (dy - 0.5) - 0.5) - 1);
+            for (int dx = firstDx; dx <= 0; dx++) {
+                double leftSlope = (dx - 0.5) * toLeft;
+                double rightSlope = (dx + 0.5) * toRight;
+                if (start < rightSlope) continue;
+                if (end > leftSlope) break;
+
+                int x = originX + dx * xx + dy * xy;
+                int y = originY + dx * yx + dy * yy;
+                boolean inside = x >= 0 && x < width && y >= 0 && y < height;
+                if (inside && dx * dx + dy * dy <= radiusSquared) {
+                    set(x, y);
+                }
+                boolean wall = !inside || (opaque[y * words + (x >>> 6)] & (1L << x)) != 0;
+                if (blocked) {
+                    if (wall) {
+                        newStart = rightSlope;
+                    } else {
+                        blocked = false;
+                        start = newStart;
+                    }
+                } else if (wall && distance < radius) {
+                    blocked = true;
+                    castLight(distance + 1, start, leftSlope, xx, xy, yx, yy);
+                    newStart = rightSlope;
+                }
+            }
+            if (blocked) break;
+        }
+    }
+
+    /**
+     * Times recomputations from random cells of a large board for a few radii, on an
+     * open board and on one with scattered walls.
+     */
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        Random random = new Random(42);
+        EntityType[][] grid = new EntityType[size][size];
+        FieldOfView view = new FieldOfView(size, size);
+        for (int walls : new int[] {0, 15}) {
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    grid[x][y] = random.nextInt(100) < walls ? EntityType.WALL : EntityType.EMPTY;
+                }
+            }
+            view.load(grid);
+            for (int radius : new int[] {8, 32, 128}) {
+                if (2 * radius >= size) continue;
+                long seen = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < repeats; i++) {
+                    int x = radius + random.nextInt(size - 2 * radius);
+                    int y = radius + random.nextInt(size - 2 * radius);
+                    view.compute(x, y, radius);
+                    for (int row = y - radius; row <= y + radius; row++) {
+                        for (int w = (x - radius) >>> 6; w <= (x + radius) >>> 6; w++) {
+                            seen += Long.bitCount(view.visible[row * view.words + w]);
+                        }
+                    }
+                }
+                long nanos = System.nanoTime() - start;
+                System.out.printf("%d%% walls, radius %3d: %8.1f us per move, %,d cells in view on average%n",
+                    walls, radius, nanos / 1e3 / repeats, seen / repeats);
+            }
+        }
+    }
+}
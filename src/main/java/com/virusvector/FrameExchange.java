@@ -0,0 +1,207 @@
+package com.virusvector;
+
+import java.awt.Point;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands finished frames from the simulation to the renderer through three pooled
+ * {@link Snapshot}s: the producer fills its back snapshot and swaps it with the latest
+ * one in a single atomic exchange, and the renderer swaps its front snapshot for the
+ * latest when a newer one is there. Neither side waits for the other, neither sees a
+ * snapshot the other is writing, and nothing is allocated per frame once the board
+ * size is known.
+ *
+ * Each snapshot carries the whole board, row by row like a {@link StateFrame}, the
+ * HUD values, the cells that changed since the previous snapshot and, with fog of war,
+ * the plane of visible cells. A renderer that
+ * skipped snapshots can tell from the sequence numbers and compare whole boards instead.
+ */
+public final class FrameExchange {
+    /**
+     * One published frame. Its contents stay fixed while the renderer holds it.
+     */
+    public static final class Snapshot {
+        final StateFrame frame = new StateFrame();
+        // Volatile because acquire() reads it from the latest snapshot, which the producer
+        // may already have swapped back out and started refilling
+        volatile long sequence;
+        int[] changed = new int[64];
+        int changedCount; // -1 when every cell should be treated as changed
+        long[] visible = new long[0];
+        boolean fog;
+
+        public StateFrame getFrame() { return frame; }
+
+        /** @return whether fog of war hides cells outside {@link #isVisible} */
+        public boolean hasFog() { return fog; }
+
+        public boolean isVisible(int x, int y) {
+            return !fog || FieldOfView.isVisible(visible, (frame.width + 63) >>> 6, x, y);
+        }
+
+        /** @return the number of the publish that filled this snapshot, from 1 */
+        public long getSequence() { return sequence; }
+
+        /** @return the number of cells changed since the previous snapshot, or -1 for all */
+        public int getChangedCellCount() { return changedCount; }
+
+        /** @return a row-major cell index ({@code y * width + x}) */
+        public int getChangedCell(int i) { return changed[i]; }
+    }
+
+    private final AtomicReference<Snapshot> latest = new AtomicReference<>(new Snapshot());
+    private Snapshot back = new Snapshot(); // owned by the producer
+    private Snapshot front = new Snapshot(); // owned by the consumer
+
+    // Producer side: the board as of the last publish, kept up to date from the changed cells
+    private GameState source;
+    private byte[] cells;
+    private long published;
+
+    /**
+     * Copies the state into the back snapshot and makes it the latest. Reads the cells
+     * the state tracks as changed, so call before they are cleared; a state seen for the
+     * first time, or one with change tracking off, is copied whole.
+     */
+    public void publish(GameState state) {
+        int width = state.getWidth();
+        int height = state.getHeight();
+        Snapshot s = back;
+        StateFrame f = s.frame;
+        boolean whole = state != source || cells == null || cells.length != width * height
+            || !state.isChangeTracking();
+        EntityType[][] grid = state.getGrid();
+        if (whole) {
+            source = state;
+            if (cells == null || cells.length != width * height) {
+                cells = new byte[width * height];
+            }
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    cells[y * width + x] = (byte) grid[x][y].getValue();
+                }
+            }
+            s.changedCount = -1;
+        } else {
+            int count = state.getChangedCellCount();
+            if (s.changed.length < count) {
+                s.changed = new int[Math.max(count, s.changed.length * 2)];
+            }
+            for (int i = 0; i < count; i++) {
+                int cell = state.getChangedCell(i);
+                cells[cell] = (byte) grid[cell % width][cell / width].getValue();
+                s.changed[i] = cell;
+            }
+            s.changedCount = count;
+        }
+        if (f.cells == null || f.cells.length != cells.length) {
+            f.cells = new byte[cells.length];
+        }
+        System.arraycopy(cells, 0, f.cells, 0, cells.length);
+        f.width = width;
+        f.height = height;
+        Point player = state.getPlayerPos();
+        f.playerX = player.x;
+        f.playerY = player.y;
+        f.score = state.getScore();
+        f.level = state.getLevel();
+        f.lives = state.getLives();
+        f.timeLeftMillis = state.getTimeLeftMillis();
+        f.gameOver = state.isGameOver();
+        f.levelComplete = state.isLevelComplete();
+        f.shield = state.hasShield();
+        f.boost = state.getInfectionRange() > 1;
+        FieldOfView view = state.getFieldOfView();
+        s.fog = view != null;
+        if (view != null) {
+            long[] bits = view.getBits();
+            if (s.visible.length != bits.length) {
+                s.visible = new long[bits.length];
+            }
+            System.arraycopy(bits, 0, s.visible, 0, bits.length);
+        }
+        s.sequence = ++published;
+        back = latest.getAndSet(s);
+    }
+
+    /**
+     * Takes the latest snapshot if it is newer than the one held.
+     *
+     * @return the newest snapshot available, which stays valid until the next call;
+     * before the first publish its sequence is 0 and its frame is empty
+     */
+    public Snapshot acquire() {
+        // Only a hint: the swap below returns whichever snapshot is latest by then, and
+        // that one was fully published by the producer's own swap
+        if (latest.get().sequence > front.sequence) {
+            front = latest.getAndSet(front);
+        }
+        return front;
+    }
+
+    /**
+     * Forgets the producer's copy of the board, so the next publish sends it whole.
+     */
+    public void reset() {
+        source = null;
+        cells = null;
+    }
+
+    /**
+     * Publishes from one thread while another acquires and checks every snapshot for
+     * torn boards, then reports the publish and acquire rates.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 3000;
+        FrameExchange exchange = new FrameExchange();
+        GameState state = new GameState(1);
+        state.setChangeTracking(true);
+        long[] checks = new long[2];
+        boolean[] torn = new boolean[1];
+        Thread renderer = new Thread(() -> {
+            long last = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                Snapshot s = exchange.acquire();
+                if (s.sequence == last) {
+                    Thread.yield();
+                    continue;
+                }
+                // A whole snapshot has the player in its cell and nowhere else
+                StateFrame f = s.frame;
+                int players = 0;
+                for (byte cell : f.cells) {
+                    if (cell == EntityType.PLAYER.getValue()) players++;
+                }
+                if (players != 1 || f.getCell(f.playerX, f.playerY) != EntityType.PLAYER.getValue()) {
+                    torn[0] = true;
+                }
+                checks[0]++;
+                checks[1] += s.sequence - last - 1;
+                last = s.sequence;
+            }
+        }, "renderer");
+        renderer.start();
+        Random random = new Random(3);
+        long start = System.nanoTime();
+        long frames = 0;
+        while (System.nanoTime() - start < millis * 1_000_000L) {
+            if (state.isGameOver()) {
+                state = new GameState(frames);
+                state.setChangeTracking(true);
+            } else if (state.isLevelComplete()) {
+                state.nextLevel();
+            }
+            state.movePlayer(random.nextInt(3) - 1, random.nextInt(3) - 1);
+            state.tick(GameServer.tickMillis(frames));
+            exchange.publish(state);
+            state.clearChangedCells();
+            frames++;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        renderer.interrupt();
+        renderer.join();
+        System.out.printf("published %,.0f frames/s, acquired %,.0f/s, skipped %,d, torn %s%n",
+            frames / seconds, checks[0] / seconds, checks[1], torn[0]);
+    }
+}
@@ -0,0 +1,361 @@
+package com.virusvector;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Streaming aggregate of {@link GameEventListener} events: a counter per cell for each
+ * heat layer and per-level statistics, all in flat long arrays sized up front, so an
+ * event costs one or two increments and never allocates. Instances are single-threaded;
+ * parallel simulations keep one per thread and {@link #merge} them.
+ *
+ * {@link #write} stores everything in {@code analytics.vva}, varint-coded since most
+ * counters are small, plus {@code levels.csv} and one heatmap PNG per layer.
+ */
+public final class GameAnalytics implements GameEventListener {
+    public static final int LAYER_DEATHS = 0;
+    public static final int LAYER_KILLS = 1;
+    public static final int LAYER_PICKUPS = 2;
+    public static final int LAYER_INFECTIONS = 3;
+    public static final int LAYER_ENEMIES = 4;
+    public static final int LAYERS = 5;
+    private static final String[] LAYER_NAMES = {"deaths", "kills", "pickups", "infections", "enemies"};
+
+    // Per-level statistics; deeper levels are counted in the last row
+    public static final int MAX_LEVEL = 32;
+    public static final int STAT_LIVES_LOST = 0;
+    public static final int STAT_KILLS = 1;
+    public static final int STAT_SPAWNERS = 2;
+    public static final int STAT_RANGE_PICKUPS = 3;
+    public static final int STAT_SHIELD_PICKUPS = 4;
+    public static final int STAT_TIME_PICKUPS = 5;
+    public static final int STAT_INFECTED = 6;
+    public static final int STAT_DEATH_TIME = 7; // first of the histogram buckets
+    public static final int DEATH_BUCKET_MILLIS = 10_000;
+    public static final int DEATH_BUCKETS = 13; // 10 s each, the last one open-ended
+    public static final int STATS = STAT_DEATH_TIME + DEATH_BUCKETS;
+    private static final String[] STAT_NAMES = {"lives_lost", "kills", "spawners", "range_pickups",
+        "shield_pickups", "time_pickups", "cells_infected"};
+
+    static final int MAGIC = 0x56564131; // "VVA1"
+    private static final int HEATMAP_CELL_PIXELS = 24;
+
+    private final int width;
+    private final int height;
+    private final long[] cells; // [layer][y][x]
+    private final long[] levels; // [level - 1][stat]
+    private long lastWrite = System.nanoTime();
+
+    public GameAnalytics(int width, int height) {
+        this.width = width;
+        this.height = height;
+        cells = new long[LAYERS * width * height];
+        levels = new long[MAX_LEVEL * STATS];
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /** @return the count in a heat layer for a cell */
+    public long getCell(int layer, int x, int y) {
+        return cells[(layer * height + y) * width + x];
+    }
+
+    /** @return a statistic of a level; levels past {@link #MAX_LEVEL} share the last row */
+    public long getLevelStat(int level, int stat) {
+        return levels[levelRow(level) + stat];
+    }
+
+    private void countCell(int layer, int x, int y, int amount) {
+        if (x >= 0 && x < width && y >= 0 && y < height) {
+            cells[(layer * height + y) * width + x] += amount;
+        }
+    }
+
+    private static int levelRow(int level) {
+        return (Math.min(Math.max(level, 1), MAX_LEVEL) - 1) * STATS;
+    }
+
+    @Override
+    public void lifeLost(int level, int x, int y, long millisIntoLevel) {
+        countCell(LAYER_DEATHS, x, y, 1);
+        int row = levelRow(level);
+        levels[row + STAT_LIVES_LOST]++;
+        levels[row + STAT_DEATH_TIME + (int) Math.min(DEATH_BUCKETS - 1, millisIntoLevel / DEATH_BUCKET_MILLIS)]++;
+    }
+
+    @Override
+    public void enemyKilled(int level, int x, int y, EntityType enemy) {
+        countCell(LAYER_KILLS, x, y, 1);
+        levels[levelRow(level) + STAT_KILLS]++;
+    }
+
+    @Override
+    public void spawnerDestroyed(int level, int x, int y) {
+        countCell(LAYER_KILLS, x, y, 1);
+        levels[levelRow(level) + STAT_SPAWNERS]++;
+    }
+
+    @Override
+    public void pickedUp(int level, int x, int y, EntityType powerUp) {
+        countCell(LAYER_PICKUPS, x, y, 1);
+        int stat = switch (powerUp) {
+            case INFECT_UPGRADE -> STAT_RANGE_PICKUPS;
+            case SHIELD -> STAT_SHIELD_PICKUPS;
+            default -> STAT_TIME_PICKUPS;
+        };
+        levels[levelRow(level) + stat]++;
+    }
+
+    @Override
+    public void cellsInfected(int level, int x, int y, int count) {
+        countCell(LAYER_INFECTIONS, x, y, count);
+        levels[levelRow(level) + STAT_INFECTED] += count;
+    }
+
+    @Override
+    public void enemySeen(int level, int x, int y) {
+        countCell(LAYER_ENEMIES, x, y, 1);
+    }
+
+    /**
+     * Adds another aggregate of the same grid size into this one.
+     */
+    public void merge(GameAnalytics other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Cannot merge " + other.width + "x" + other.height
+                + " analytics into " + width + "x" + height);
+        }
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] += other.cells[i];
+        }
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] += other.levels[i];
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(cells, 0);
+        Arrays.fill(levels, 0);
+    }
+
+    /**
+     * Writes the files if at least the given time has passed since the last write.
+     *
+     * @return whether the files were written
+     */
+    public boolean writeIfDue(Path directory, long intervalMillis) throws IOException {
+        if (!isWriteDue(intervalMillis)) return false;
+        write(directory);
+        return true;
+    }
+
+    /** @return whether at least the given time has passed since the last write or snapshot */
+    public boolean isWriteDue(long intervalMillis) {
+        return System.nanoTime() - lastWrite >= intervalMillis * 1_000_000L;
+    }
+
+    /**
+     * Copies the counters so another thread can write them while this aggregate keeps
+     * counting. Counts as a write for {@link #isWriteDue}.
+     */
+    public GameAnalytics snapshot() {
+        GameAnalytics copy = new GameAnalytics(width, height);
+        copy.merge(this);
+        lastWrite = System.nanoTime();
+        return copy;
+    }
+
+    /**
+     * Writes the counters, the per-level table and the heatmaps into the directory,
+     * replacing each file as a whole so readers never see one half written.
+     */
+    public void write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        lastWrite = System.nanoTime();
+
+        ByteBuffer out = ByteBuffer.allocate(16 + (cells.length + levels.length) * 10);
+        out.putInt(MAGIC).putInt(width).putInt(height).putInt(MAX_LEVEL);
+        for (long count : cells) {
+            putVarlong(out, count);
+        }
+        for (long count : levels) {
+            putVarlong(out, count);
+        }
+        Path data = directory.resolve("analytics.vva");
+        Path temp = data.resolveSibling("analytics.vva.tmp");
+        Files.write(temp, Arrays.copyOf(out.array(), out.position()));
+        Files.move(temp, data, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        temp = directory.resolve("levels.csv.tmp");
+        try (BufferedWriter csv = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            csv.write("level," + String.join(",", STAT_NAMES));
+            for (int b = 0; b < DEATH_BUCKETS; b++) {
+                csv.write(",deaths_" + b * DEATH_BUCKET_MILLIS / 1000 + "s");
+            }
+            csv.write("\n");
+            for (int level = 1; level <= MAX_LEVEL; level++) {
+                int row = levelRow(level);
+                if (levels[row + STAT_LIVES_LOST] == 0 && levels[row + STAT_INFECTED] == 0) continue;
+                csv.write(level == MAX_LEVEL ? MAX_LEVEL + "+" : Integer.toString(level));
+                for (int stat = 0; stat < STATS; stat++) {
+                    csv.write("," + levels[row + stat]);
+                }
+                csv.write("\n");
+            }
+        }
+        Files.move(temp, directory.resolve("levels.csv"), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+
+        FrameExporter.PngEncoder png = new FrameExporter.PngEncoder();
+        BufferedImage image = new BufferedImage(width * HEATMAP_CELL_PIXELS, height * HEATMAP_CELL_PIXELS,
+            BufferedImage.TYPE_INT_RGB);
+        for (int layer = 0; layer < LAYERS; layer++) {
+            renderHeatmap(layer, image);
+            temp = directory.resolve("heat-" + LAYER_NAMES[layer] + ".png.tmp");
+            try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                png.write(image, stream);
+            }
+            Files.move(temp, directory.resolve("heat-" + LAYER_NAMES[layer] + ".png"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Colours each cell from black through red and yellow to white by the logarithm of
+     * its count relative to the busiest cell of the layer.
+     */
+    private void renderHeatmap(int layer, BufferedImage image) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int base = layer * width * height;
+        long max = 0;
+        for (int i = 0; i < width * height; i++) {
+            max = Math.max(max, cells[base + i]);
+        }
+        double scale = max == 0 ? 0 : 1.0 / Math.log1p(max);
+        int stride = image.getWidth();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double t = Math.log1p(cells[base + y * width + x]) * scale;
+                int r = (int) Math.min(255, t * 3 * 255);
+                int g = (int) Math.min(255, Math.max(0, t * 3 - 1) * 255);
+                int b = (int) Math.min(255, Math.max(0, t * 3 - 2) * 255);
+                int rgb = r << 16 | g << 8 | b;
+                for (int py = 0; py < HEATMAP_CELL_PIXELS; py++) {
+                    int o = (y * HEATMAP_CELL_PIXELS + py) * stride + x * HEATMAP_CELL_PIXELS;
+                    Arrays.fill(pixels, o, o + HEATMAP_CELL_PIXELS - 1, rgb);
+                    pixels[o + HEATMAP_CELL_PIXELS - 1] = 0x202020; // cell outline
+                }
+            }
+        }
+        for (int y = HEATMAP_CELL_PIXELS - 1; y < image.getHeight(); y += HEATMAP_CELL_PIXELS) {
+            Arrays.fill(pixels, y * stride, y * stride + stride, 0x202020);
+        }
+    }
+
+    /**
+     * Reads back the counters written by {@link #write}, for example to keep adding to them.
+     */
+    public static GameAnalytics read(Path directory) throws IOException {
+        Path data = directory.resolve("analytics.vva");
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(data));
+        if (in.remaining() < 16 || in.getInt() != MAGIC) {
+            throw new IOException(data + " is not an analytics file");
+        }
+        GameAnalytics analytics = new GameAnalytics(in.getInt(), in.getInt());
+        if (in.getInt() != MAX_LEVEL) {
+            throw new IOException(data + " was written with a different level count");
+        }
+        try {
+            for (int i = 0; i < analytics.cells.length; i++) {
+                analytics.cells[i] = getVarlong(in);
+            }
+            for (int i = 0; i < analytics.levels.length; i++) {
+                analytics.levels[i] = getVarlong(in);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException(data + " is truncated", e);
+        }
+        return analytics;
+    }
+
+    private static void putVarlong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long getVarlong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    /**
+     * Usage: {@code GameAnalytics <output directory> [environments] [steps]}. Plays random
+     * moves in a {@link VectorEnv} with and without analytics, reports the cost and
+     * writes the aggregate.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: GameAnalytics <output directory> [environments] [steps]");
+            return;
+        }
+        System.setProperty("java.awt.headless", "true");
+        Path directory = Path.of(args[0]);
+        int envs = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+
+        GameAnalytics total = null;
+        for (int round = 0; round < 4; round++) {
+            boolean enabled = round % 2 == 1; // alternate so warm-up affects both the same way
+            try (VectorEnv env = new VectorEnv(envs, 42)) {
+                if (enabled) env.enableAnalytics();
+                Random random = new Random(7);
+                int[] actions = new int[envs];
+                env.reset();
+                long start = System.nanoTime();
+                for (int step = 0; step < steps; step++) {
+                    for (int i = 0; i < envs; i++) {
+                        actions[i] = random.nextInt(VectorEnv.ACTIONS);
+                    }
+                    env.step(actions);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("analytics %-3s %,.0f env steps/s%n", enabled ? "on" : "off",
+                    (double) envs * steps / seconds);
+                if (enabled) {
+                    total = new GameAnalytics(env.getWidth(), env.getHeight());
+                    env.drainAnalytics(total);
+                }
+            }
+        }
+        long start = System.nanoTime();
+        total.write(directory);
+        System.out.printf("wrote %s in %.1f ms (analytics.vva %d bytes)%n", directory,
+            (System.nanoTime() - start) / 1e6, Files.size(directory.resolve("analytics.vva")));
+        for (int level = 1; level <= 3; level++) {
+            System.out.printf("level %d: lives lost %d, kills %d, pickups %d/%d/%d, infected %d%n", level,
+                total.getLevelStat(level, STAT_LIVES_LOST), total.getLevelStat(level, STAT_KILLS),
+                total.getLevelStat(level, STAT_RANGE_PICKUPS), total.getLevelStat(level, STAT_SHIELD_PICKUPS),
+                total.getLevelStat(level, STAT_TIME_PICKUPS), total.getLevelStat(level, STAT_INFECTED));
+        }
+    }
+}
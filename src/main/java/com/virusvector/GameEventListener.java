@@ -0,0 +1,37 @@
+package com.virusvector;
+
+/**
+ * Receives gameplay events from a {@link GameState} as they happen. Every argument is
+ * a primitive or an enum constant, so reporting an event allocates nothing and a
+ * listener can keep up with headless simulation. Cells are grid coordinates of the
+ * level being played. Moves and ticks applied with make/unmake are not reported.
+ */
+public interface GameEventListener {
+    /**
+     * The player lost a life at the cell: the enemy it ran into, or where it stood when
+     * the time ran out.
+     */
+    default void lifeLost(int level, int x, int y, long millisIntoLevel) {
+    }
+
+    /** A shielded player destroyed an enemy. */
+    default void enemyKilled(int level, int x, int y, EntityType enemy) {
+    }
+
+    default void spawnerDestroyed(int level, int x, int y) {
+    }
+
+    default void pickedUp(int level, int x, int y, EntityType powerUp) {
+    }
+
+    /**
+     * Cells were infected together, by a player move at the given cell or, with x and y
+     * of -1, by an outbreak generation.
+     */
+    default void cellsInfected(int level, int x, int y, int count) {
+    }
+
+    /** Reported for every enemy and spawner after each tick, to show where they gather. */
+    default void enemySeen(int level, int x, int y) {
+    }
+}
@@ -3,23 +3,109 @@ package com.virusvector;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 
-public class GamePanel extends JPanel implements ActionListener, KeyListener {
-    private static final int TILE_SIZE = 40;
+/**
+ * The in-game screen. Everything that runs on its behalf is a Swing timer owned by the
+ * panel, started on {@link #attach()} and stopped on {@link #dispose()}, or the analytics
+ * writer thread, which dispose shuts down once its last write is done, so a panel the
+ * window has switched away from costs nothing and can be collected.
+ */
+public class GamePanel extends JPanel implements ActionListener, KeyListener, Screen {
+    private static final int TILE_SIZE = BoardRenderer.TILE_SIZE;
     private static final int INFO_PANEL_HEIGHT = 80;
     private static final int ANIMATION_DELAY = 16; // ~60 FPS
+    private static final int FOG_RADIUS = 6;
+    private static final int TICKS_PER_SECOND = 1000 / ANIMATION_DELAY;
+    private static final int REWIND_HISTORY_SECONDS = 60;
+    private static final int REWIND_SECONDS = 3;
+    private static final int REWIND_CHARGES = 3;
+    private static final String REPLAY_DIR_PROPERTY = "virusvector.replayDir";
+    private static final String MAP_PROPERTY = "virusvector.map";
+    private static final String SCORE_DIR_PROPERTY = "virusvector.scoreDir";
+    private static final String ANALYTICS_DIR_PROPERTY = "virusvector.analyticsDir";
+    private static final String PROFILER_PROPERTY = "virusvector.profiler";
+    private static final String REWIND_DEBUG_PROPERTY = "virusvector.rewindDebug";
+    private static final String SHARED_STATE_PROPERTY = "virusvector.sharedState";
+    private static final int SHARED_ENTITY_CAPACITY = 4096;
+    private static final Font PROFILER_FONT = new Font("Monospaced", Font.PLAIN, 12);
+    private static final int ANALYTICS_WRITE_MILLIS = 30_000;
     
     private final GameWindow window;
     private final Timer gameTimer;
+    private final Timer moveTimer;
+    private boolean attached;
+    private boolean gameTimerPaused; // whether pause() stopped a running game timer
+    private final NetworkGame remote; // null when the game is simulated locally
+    private final boolean validateLevels; // whether generated levels are checked with the solver
     private GameState gameState;
     private boolean showMessage;
     private String message;
     private long messageEndTime;
+
+    private final BoardRenderer board = new BoardRenderer();
+    private final FrameExchange frames = new FrameExchange(); // painting reads only these snapshots
+
+    // HUD labels change only when the game publishes a change
+    private final HudEvents hudEvents = new HudEvents();
+    private JLabel scoreLabel;
+    private JLabel levelLabel;
+    private JLabel statusLabel;
+    private int hudTime;
+    private int hudLives;
+    private boolean hudShield;
+    private int hudBoost;
+
+    // Effects for cells that changed: infection sparks, destroyed enemies and pickups
+    private static final int PARTICLE_CAPACITY = 50_000;
+    private static final EntityType[] TYPES = EntityType.values();
+    private final ParticleSystem particles = new ParticleSystem(PARTICLE_CAPACITY);
+    private final int infectionRamp = particles.addRamp(new Color(120, 255, 120));
+    private final int killRamp = particles.addRamp(Color.ORANGE);
+    private final int pickupRamp = particles.addRamp(Color.CYAN);
+    private byte[] shownTypes; // ordinal of every row-major cell as of the last tick
+    private GameState shownState;
+    private ReplayWriter replay;
+    private SharedStateFile.Writer sharedState; // mirrors every tick when -Dvirusvector.sharedState=<file> is given
+    private LevelMap levelMap; // opened on the first local game when -Dvirusvector.map=<file> is given
+    private GameAnalytics analytics; // kept across games when -Dvirusvector.analyticsDir=<dir> is given
+    private ExecutorService analyticsWriter; // writes analytics snapshots off the EDT, shut down on dispose
+    private boolean painted;
+    private final RenderQuality quality = new RenderQuality(ANIMATION_DELAY);
+    private boolean showProfiler = Boolean.getBoolean(PROFILER_PROPERTY);
+
+    // Local games keep the last minute of ticks to rewind to, null for remote games
+    private RewindBuffer rewind;
+    private int rewindsLeft;
+    private long scrubTick = -1; // the tick shown while scrubbing history, -1 while playing
+    private final boolean rewindDebug = Boolean.getBoolean(REWIND_DEBUG_PROPERTY);
     
     public GamePanel(GameWindow window) {
+        this(window, null);
+    }
+
+    /**
+     * Creates a panel that renders a game hosted by a {@link GameServer} instead of simulating one.
+     */
+    public GamePanel(GameWindow window, NetworkGame remote) {
+        this(window, remote, true);
+    }
+
+    /**
+     * Like {@link #GamePanel(GameWindow, NetworkGame)}, optionally without checking that
+     * generated levels are winnable, for tools that measure the panel rather than the solver.
+     */
+    GamePanel(GameWindow window, NetworkGame remote, boolean validateLevels) {
         this.window = window;
-        this.gameState = new GameState();
+        this.remote = remote;
+        this.validateLevels = validateLevels;
         this.gameTimer = new Timer(ANIMATION_DELAY, this);
+        this.moveTimer = new Timer(FRAME_DELAY, this);
         
         setFocusable(true);
         setRequestFocusEnabled(true);
@@ -40,7 +126,6 @@ public class GamePanel extends JPanel implements ActionListener, KeyListener {
         setBackground(Color.BLACK);
         setFocusable(true);
         setFocusTraversalKeysEnabled(false);
-        addKeyListener(this);
         
         // Game panel for the grid
         JPanel gameGridPanel = new JPanel() {
@@ -58,10 +143,8 @@ public class GamePanel extends JPanel implements ActionListener, KeyListener {
             
             @Override
             public Dimension getPreferredSize() {
-                return new Dimension(
-                    gameState.getGrid().length * TILE_SIZE,
-                    gameState.getGrid()[0].length * TILE_SIZE
-                );
+                StateFrame frame = frames.acquire().getFrame();
+                return new Dimension(frame.getWidth() * TILE_SIZE, frame.getHeight() * TILE_SIZE);
             }
         };
         
@@ -72,18 +155,18 @@ public class GamePanel extends JPanel implements ActionListener, KeyListener {
         infoPanel.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
         
         // Score display
-        JLabel scoreLabel = new JLabel("Score: 0");
+        scoreLabel = new JLabel("Score: 0");
         scoreLabel.setForeground(Color.WHITE);
         scoreLabel.setFont(new Font("Monospaced", Font.BOLD, 16));
         
         // Level and lives display
-        JLabel levelLabel = new JLabel("Level: 1");
+        levelLabel = new JLabel("Level: 1");
         levelLabel.setForeground(Color.WHITE);
         levelLabel.setFont(new Font("Monospaced", Font.BOLD, 16));
         levelLabel.setHorizontalAlignment(SwingConstants.CENTER);
         
         // Time and power-ups display
-        JLabel statusLabel = new JLabel("Time: 120s | Lives: 10");
+        statusLabel = new JLabel("Time: 120s | Lives: 10");
         statusLabel.setForeground(Color.WHITE);
         statusLabel.setFont(new Font("Monospaced", Font.BOLD, 16));
         statusLabel.setHorizontalAlignment(SwingConstants.RIGHT);
@@ -94,25 +177,99 @@ public class GamePanel extends JPanel implements ActionListener, KeyListener {
         
         add(gameGridPanel, BorderLayout.CENTER);
         add(infoPanel, BorderLayout.SOUTH);
-        
-        // Update info panel periodically
-        Timer infoUpdateTimer = new Timer(100, _ -> {
-            scoreLabel.setText(String.format("Score: %,d", gameState.getScore()));
-            levelLabel.setText(String.format("Level: %d", gameState.getLevel()));
-            String shieldStatus = gameState.hasShield() ? "SHIELD" : "";
-            String rangeStatus = gameState.getInfectionRange() > 1 ? "BOOST" : "";
-            statusLabel.setText(String.format("Time: %ds | Lives: %d %s %s", 
-                gameState.getTimeLeft(), 
-                gameState.getLives(),
-                shieldStatus,
-                rangeStatus));
-        });
-        infoUpdateTimer.start();
+    }
+
+    /**
+     * Applies the HUD events queued since the last frame, rebuilding only the labels
+     * whose values changed and showing the messages for pickups.
+     */
+    private void drainHud() {
+        if (hudEvents.takeOverflow()) {
+            hudEvents.reset(); // some changes were dropped, so send every value again
+            hudEvents.publish(gameState);
+        }
+        boolean statusChanged = false;
+        for (long event = hudEvents.poll(); event != HudEvents.NONE; event = hudEvents.poll()) {
+            int value = HudEvents.value(event);
+            switch (HudEvents.type(event)) {
+                case HudEvents.SCORE -> scoreLabel.setText(String.format("Score: %,d", value));
+                case HudEvents.LEVEL -> levelLabel.setText("Level: " + value);
+                case HudEvents.TIME -> {
+                    hudTime = value;
+                    statusChanged = true;
+                }
+                case HudEvents.LIVES -> {
+                    hudLives = value;
+                    statusChanged = true;
+                }
+                case HudEvents.SHIELD -> {
+                    // A replica does not run the moves, so its pickups show up as value changes
+                    if (remote != null && value == 1 && hudTime > 0) {
+                        showMessage("Shield Activated!");
+                    }
+                    hudShield = value == 1;
+                    statusChanged = true;
+                }
+                case HudEvents.BOOST -> {
+                    if (remote != null && value > 1 && hudTime > 0) {
+                        showMessage("Range Boosted!");
+                    }
+                    hudBoost = value;
+                    statusChanged = true;
+                }
+                case HudEvents.PICKUP -> {
+                    switch (TYPES[value]) {
+                        case INFECT_UPGRADE -> showMessage("Range Boosted!");
+                        case SHIELD -> showMessage("Shield Activated!");
+                        case TIME_EXTENSION -> showMessage("+30 Seconds!");
+                        default -> { }
+                    }
+                }
+                case HudEvents.FIREWALL_BREACHED -> showMessage("Firewall Breached! Shielded!");
+                default -> { } // level complete and game over are drawn from the state's banner
+            }
+        }
+        if (statusChanged) {
+            statusLabel.setText(String.format("Time: %ds | Lives: %d %s %s",
+                hudTime,
+                hudLives,
+                hudShield ? "SHIELD" : "",
+                hudBoost > 1 ? "BOOST" : ""));
+        }
     }
     
     private void startNewGame() {
-        gameState = new GameState();
-        gameTimer.start();
+        if (remote != null) {
+            gameState = remote.getState();
+        } else if (openMap()) {
+            gameState = new GameState(levelMap, System.nanoTime());
+        } else {
+            gameState = new GameState(ThreadLocalRandom.current().nextLong(), validateLevels ? new LevelSolver() : null);
+        }
+        gameState.setChangeTracking(true);
+        hudEvents.reset();
+        hudTime = 0;
+        hudShield = false;
+        hudBoost = 0;
+        if (remote == null) {
+            startAnalytics();
+            gameState.setHudEvents(hudEvents);
+            if (rewind == null) {
+                rewind = new RewindBuffer(REWIND_HISTORY_SECONDS * TICKS_PER_SECOND, TICKS_PER_SECOND);
+            }
+            rewind.clear();
+            rewindsLeft = REWIND_CHARGES;
+            scrubTick = -1;
+        } else {
+            hudEvents.publish(gameState);
+        }
+        drainHud();
+        openSharedState();
+        publishFrame(false);
+        startRecording();
+        if (attached) {
+            gameTimer.start();
+        }
         showMessage("Infect 70% of the grid to win!");
         requestFocusInWindow();
     }
@@ -124,93 +281,368 @@ public class GamePanel extends JPanel implements ActionListener, KeyListener {
     }
     
     private void renderGame(Graphics g) {
+        quality.beginFrame();
+        RenderQuality.Tier tier = quality.getTier();
         Graphics2D g2d = (Graphics2D) g;
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+            tier.antialiasing() ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
         
         // Draw grid
-        EntityType[][] grid = gameState.getGrid();
-        for (int x = 0; x < grid.length; x++) {
-            for (int y = 0; y < grid[0].length; y++) {
-                EntityType type = grid[x][y];
-                g2d.setColor(type.getColor());
-                g2d.fillRect(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
-
-                // Draw special icons for new enemies and spawners
-                if (type == EntityType.PATROLLING_ANTIVIRUS) {
-                    g2d.setColor(Color.ORANGE);
-                    g2d.drawLine(x * TILE_SIZE + 5, y * TILE_SIZE + TILE_SIZE/2, x * TILE_SIZE + TILE_SIZE - 5, y * TILE_SIZE + TILE_SIZE/2);
-                } else if (type == EntityType.CHASING_ANTIVIRUS) {
-                    g2d.setColor(Color.MAGENTA);
-                    g2d.fillOval(x * TILE_SIZE + 10, y * TILE_SIZE + 10, TILE_SIZE - 20, TILE_SIZE - 20);
-                } else if (type == EntityType.RANDOM_ANTIVIRUS) {
-                    g2d.setColor(Color.CYAN);
-                    g2d.drawRect(x * TILE_SIZE + 10, y * TILE_SIZE + 10, TILE_SIZE - 20, TILE_SIZE - 20);
-                } else if (type == EntityType.ENEMY_SPAWNER) {
-                    g2d.setColor(Color.YELLOW);
-                    g2d.fillRect(x * TILE_SIZE + 12, y * TILE_SIZE + 12, TILE_SIZE - 24, TILE_SIZE - 24);
-                    g2d.setColor(Color.RED);
-                    g2d.drawOval(x * TILE_SIZE + 8, y * TILE_SIZE + 8, TILE_SIZE - 16, TILE_SIZE - 16);
-                }
-                
-                // Draw grid lines
-                g2d.setColor(Color.BLACK);
-                g2d.drawRect(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
-                
-                // Draw special effects
-                if (type == EntityType.PLAYER) {
-                    // Draw player glow
-                    g2d.setColor(new Color(0, 255, 0, 100));
-                    g2d.fillOval(
-                        x * TILE_SIZE - 5, 
-                        y * TILE_SIZE - 5, 
-                        TILE_SIZE + 10, 
-                        TILE_SIZE + 10
-                    );
-                }
-            }
-        }
+        FrameExchange.Snapshot snapshot = frames.acquire();
+        StateFrame frame = snapshot.getFrame();
+        board.setQuality(tier);
+        g2d.drawImage(board.syncBoardLayer(frames, snapshot), 0, 0, null);
+        particles.draw(g2d, frame.getWidth() * TILE_SIZE, frame.getHeight() * TILE_SIZE);
         
         // Draw message if any
         if (showMessage && System.currentTimeMillis() < messageEndTime) {
-            drawCenteredMessage(g2d, message);
+            BoardRenderer.drawCenteredMessage(g2d, message, getWidth(), getHeight());
         } else {
             showMessage = false;
         }
         
         // Draw game over or level complete message
-        if (gameState.isGameOver()) {
-            drawCenteredMessage(g2d, "GAME OVER - Press R to restart");
-        } else if (gameState.isLevelComplete()) {
-            drawCenteredMessage(g2d, "LEVEL COMPLETE! - Press N for next level");
+        BoardRenderer.drawBanner(g2d, frame.gameOver, frame.levelComplete, getWidth(), getHeight());
+        if (showProfiler) {
+            g2d.setFont(PROFILER_FONT);
+            g2d.setColor(Color.BLACK);
+            g2d.drawString(quality.describe(), 7, 15);
+            g2d.setColor(Color.YELLOW);
+            g2d.drawString(quality.describe(), 6, 14);
+        }
+        quality.endFrame();
+        if (!painted) {
+            painted = true;
+            Startup.mark(Startup.GAME_FRAME);
         }
     }
     
-    private void drawCenteredMessage(Graphics2D g2d, String msg) {
-        Font font = new Font("Monospaced", Font.BOLD, 24);
-        g2d.setFont(font);
-        
-        // Draw shadow
-        g2d.setColor(Color.BLACK);
-        FontMetrics fm = g2d.getFontMetrics();
-        int x = (getWidth() - fm.stringWidth(msg)) / 2;
-        int y = getHeight() / 2;
-        
-        g2d.drawString(msg, x + 2, y + 2);
-        
-        // Draw main text
-        g2d.setColor(Color.WHITE);
-        g2d.drawString(msg, x, y);
+    /**
+     * Publishes the state for painting, and on a tick boundary starts the effects for
+     * the changed cells and records them to the replay and rewind history before
+     * clearing them.
+     */
+    private void publishFrame(boolean endOfTick) {
+        frames.publish(gameState);
+        if (endOfTick) {
+            spawnEffects();
+            recordTick();
+            exportState();
+            if (rewind != null && scrubTick < 0) {
+                rewind.record(gameState);
+            }
+            gameState.clearChangedCells();
+        }
     }
-    
+
+    /**
+     * Stops play and shows a tick from the rewind history. The history after it is kept
+     * until play resumes, so scrubbing can go forwards again.
+     */
+    private void scrubTo(long tick) {
+        if (rewind.getNewestTick() < 0) return;
+        if (scrubTick < 0) {
+            gameTimer.stop();
+        }
+        scrubTick = Math.max(rewind.getOldestTick(), Math.min(rewind.getNewestTick(), tick));
+        rewind.seek(scrubTick, gameState);
+        publishFrame(true); // the restored cells burst like changed ones, and the replay jumps with them
+        hudEvents.publish(gameState);
+        drainHud();
+        repaint();
+    }
+
+    /**
+     * Carries on playing from the tick being shown, dropping the history after it.
+     */
+    private void resumeFromScrub() {
+        rewind.truncate(scrubTick);
+        scrubTick = -1;
+        if (!gameState.isGameOver() && !gameState.isLevelComplete()) {
+            gameTimer.start();
+        }
+    }
+
+    /**
+     * The rewind power-up: takes play back a few seconds, even from a lost game.
+     */
+    private void rewindPlay() {
+        if (rewind.getNewestTick() < 0) return;
+        if (rewindsLeft == 0 && !rewindDebug) {
+            showMessage("No rewinds left");
+            return;
+        }
+        scrubTo(rewind.getNewestTick() - REWIND_SECONDS * TICKS_PER_SECOND);
+        resumeFromScrub();
+        if (!rewindDebug) {
+            rewindsLeft--;
+        }
+        showMessage(rewindDebug ? "Rewound " + REWIND_SECONDS + " seconds"
+            : "Rewound " + REWIND_SECONDS + " seconds (" + rewindsLeft + " left)");
+    }
+
+    /**
+     * Starts particle effects for the cells that changed this tick, telling infection,
+     * a destroyed enemy and a pickup apart by what the cell held before.
+     */
+    private void spawnEffects() {
+        int width = gameState.getWidth();
+        int height = gameState.getHeight();
+        EntityType[][] grid = gameState.getGrid();
+        if (shownState != gameState || shownTypes.length != width * height) {
+            shownTypes = new byte[width * height];
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    shownTypes[y * width + x] = (byte) grid[x][y].ordinal();
+                }
+            }
+            shownState = gameState;
+            particles.clear();
+            return;
+        }
+        for (int i = 0; i < gameState.getChangedCellCount(); i++) {
+            int cell = gameState.getChangedCell(i);
+            int x = cell % width;
+            int y = cell / width;
+            EntityType now = grid[x][y];
+            EntityType before = TYPES[shownTypes[cell]];
+            shownTypes[cell] = (byte) now.ordinal();
+            float cx = x * TILE_SIZE + TILE_SIZE / 2f;
+            float cy = y * TILE_SIZE + TILE_SIZE / 2f;
+            if (now == EntityType.INFECTED && before == EntityType.EMPTY) {
+                particles.burst(cx, cy, quality.getTier().particles(6), 0.5f, 1.5f, 0f, 0.04f, infectionRamp, 3);
+            } else if (now == EntityType.PLAYER && before.isThreat()) {
+                particles.burst(cx, cy, quality.getTier().particles(40), 1.5f, 4f, 0f, 0.02f, killRamp, 5);
+            } else if (now == EntityType.PLAYER && before.isPowerUp()) {
+                particles.burst(cx, cy, quality.getTier().particles(30), 1f, 3f, -0.5f, 0.025f, pickupRamp, 4);
+            }
+        }
+    }
+
+    private boolean openMap() {
+        String file = System.getProperty(MAP_PROPERTY);
+        if (levelMap == null && file != null) {
+            try {
+                levelMap = MapFile.open(Path.of(file));
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Could not load map, generating levels instead: " + e.getMessage());
+                System.clearProperty(MAP_PROPERTY);
+            }
+        }
+        return levelMap != null;
+    }
+
+    // Finished local games go to the leaderboard in -Dvirusvector.scoreDir, by default ~/.virusvector/scores
+    private void recordScore() {
+        Path dir = Path.of(System.getProperty(SCORE_DIR_PROPERTY,
+            Path.of(System.getProperty("user.home"), ".virusvector", "scores").toString()));
+        try (Leaderboard leaderboard = new Leaderboard(dir)) {
+            leaderboard.record(gameState);
+            window.updateTitle(String.format("Game Over - #%,d of %,d, #%,d on level %d",
+                leaderboard.rank(gameState.getScore()), leaderboard.size(),
+                leaderboard.rank(gameState.getLevel(), gameState.getScore()), gameState.getLevel()));
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not record score: " + e.getMessage());
+        }
+    }
+
+    // Local games feed one aggregate, continued from the files already in the directory
+    private void startAnalytics() {
+        String dir = System.getProperty(ANALYTICS_DIR_PROPERTY);
+        if (dir == null) return;
+        if (analytics == null || analytics.getWidth() != gameState.getWidth()
+                || analytics.getHeight() != gameState.getHeight()) {
+            analytics = new GameAnalytics(gameState.getWidth(), gameState.getHeight());
+            try {
+                if (Files.exists(Path.of(dir, "analytics.vva"))) {
+                    GameAnalytics saved = GameAnalytics.read(Path.of(dir));
+                    if (saved.getWidth() == analytics.getWidth() && saved.getHeight() == analytics.getHeight()) {
+                        analytics.merge(saved);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Could not load analytics, starting over: " + e.getMessage());
+            }
+        }
+        gameState.setEventListener(analytics);
+    }
+
+    // The counters are copied here and the heatmaps encoded and written on the writer thread,
+    // one snapshot after another so an older one never lands over a newer one
+    private void saveAnalytics() {
+        if (analytics == null) return;
+        GameAnalytics snapshot = analytics.snapshot();
+        Path dir = Path.of(System.getProperty(ANALYTICS_DIR_PROPERTY));
+        if (analyticsWriter == null) {
+            analyticsWriter = Executors.newSingleThreadExecutor(r -> new Thread(r, "analytics-writer"));
+        }
+        analyticsWriter.execute(() -> {
+            try {
+                snapshot.write(dir);
+            } catch (IOException e) {
+                System.out.println("Could not write analytics: " + e.getMessage());
+            }
+        });
+    }
+
+    private void saveAnalyticsIfDue() {
+        if (analytics != null && analytics.isWriteDue(ANALYTICS_WRITE_MILLIS)) {
+            saveAnalytics();
+        }
+    }
+
+    // Replays are written only when -Dvirusvector.replayDir=<dir> is given
+    private void startRecording() {
+        stopRecording();
+        String dir = System.getProperty(REPLAY_DIR_PROPERTY);
+        if (dir == null) return;
+        try {
+            Path folder = Files.createDirectories(Path.of(dir));
+            replay = new ReplayWriter(folder.resolve("virus-vector-" + System.currentTimeMillis() + ".vvr"));
+        } catch (IOException e) {
+            System.out.println("Could not start replay recording: " + e.getMessage());
+        }
+    }
+
+    private void recordTick() {
+        if (replay == null) return;
+        try {
+            replay.record(gameState);
+        } catch (IOException e) {
+            System.out.println("Replay recording stopped: " + e.getMessage());
+            stopRecording();
+        }
+    }
+
+    private void openSharedState() {
+        String file = System.getProperty(SHARED_STATE_PROPERTY);
+        if (file == null || sharedState != null) return;
+        try {
+            sharedState = new SharedStateFile.Writer(Path.of(file), SHARED_ENTITY_CAPACITY);
+        } catch (IOException e) {
+            System.out.println("Could not open shared state file: " + e.getMessage());
+        }
+    }
+
+    private void exportState() {
+        if (sharedState == null) return;
+        try {
+            sharedState.publish(gameState);
+        } catch (IOException e) {
+            System.out.println("Shared state export stopped: " + e.getMessage());
+            closeSharedState();
+        }
+    }
+
+    private void closeSharedState() {
+        if (sharedState == null) return;
+        try {
+            sharedState.close();
+        } catch (IOException e) {
+            System.out.println("Could not close shared state file: " + e.getMessage());
+        }
+        sharedState = null;
+    }
+
+    private void stopRecording() {
+        if (replay == null) return;
+        try {
+            replay.close();
+        } catch (IOException e) {
+            System.out.println("Could not finish replay: " + e.getMessage());
+        }
+        replay = null;
+    }
+
+    @Override
+    public void attach() {
+        attached = true;
+        gameTimer.start();
+    }
+
+    @Override
+    public void pause() {
+        gameTimerPaused = gameTimer.isRunning();
+        gameTimer.stop();
+        if (moveTimer.isRunning()) {
+            moveTimer.stop();
+            finishMove();
+        }
+    }
+
+    @Override
+    public void resume() {
+        if (!attached) return;
+        if (gameTimerPaused) {
+            if (remote == null) {
+                gameState.resetClock(); // the minimised time is not played
+            }
+            gameTimer.start();
+        }
+    }
+
+    /**
+     * Stops every timer, closes the server connection, map file and shared state file,
+     * finishes any replay being recorded and frees the board and particle images.
+     */
+    @Override
+    public void dispose() {
+        attached = false;
+        gameTimer.stop();
+        moveTimer.stop();
+        removeKeyListener(this);
+        stopRecording();
+        closeSharedState();
+        saveAnalytics();
+        if (analyticsWriter != null) {
+            analyticsWriter.shutdown(); // the last snapshot is still written
+            analyticsWriter = null;
+        }
+        if (remote != null) {
+            remote.close();
+        }
+        if (levelMap != null) {
+            levelMap.close();
+        }
+        board.dispose();
+        particles.dispose();
+    }
+
     @Override
     public void actionPerformed(ActionEvent e) {
-        if (e.getSource() == gameTimer) {
+        if (e.getSource() == moveTimer) {
+            stepMove();
+        } else if (e.getSource() == gameTimer && remote != null) {
+            // The server owns the simulation; keep polling so restarts and new levels show up
+            particles.update();
+            boolean ticked = remote.poll();
+            if (ticked) {
+                if (remote.getState() != gameState) {
+                    gameState = remote.getState(); // a predicting client resynchronised
+                    gameState.setChangeTracking(true);
+                }
+                hudEvents.publish(gameState);
+                drainHud();
+                publishFrame(true); // only game ticks reach the replay, not frames that just animate particles
+            }
+            if (ticked || !remote.isConnected() || particles.size() > 0) {
+                repaint();
+            }
+        } else if (e.getSource() == gameTimer) {
             gameState.update();
+            publishFrame(true);
+            particles.update();
             
             // Check game over or level complete
             if (gameState.isGameOver() || gameState.isLevelComplete()) {
                 gameTimer.stop();
+                if (gameState.isGameOver()) {
+                    recordScore();
+                    saveAnalytics();
+                }
             }
+            drainHud();
+            saveAnalyticsIfDue();
             
             repaint();
         }
@@ -221,20 +653,49 @@ public class GamePanel extends JPanel implements ActionListener, KeyListener {
     private static final int MOVE_SPEED = 8; // Pixels per frame for smoother movement
     private static final int FRAME_DELAY = 16; // ~60 FPS
     private final int[] currentMove = {0, 0}; // [dx, dy] of current move
+    private final Point moveFrom = new Point();
+    private final Point moveTo = new Point();
+    private int moveStep;
     
     @Override
     public void keyPressed(KeyEvent e) {
         if (isMoving) return; // Prevent new movement while already moving
         
+        // A lost game is final: its score and analytics are already recorded, so it cannot be rewound
+        if (rewind != null && !gameState.isGameOver()) {
+            int key = e.getKeyCode();
+            if (rewindDebug && (key == KeyEvent.VK_OPEN_BRACKET || key == KeyEvent.VK_CLOSE_BRACKET)) {
+                // Developer scrubbing: a second per press, a tick with shift
+                long step = (e.isShiftDown() ? 1 : TICKS_PER_SECOND) * (key == KeyEvent.VK_OPEN_BRACKET ? -1 : 1);
+                scrubTo((scrubTick >= 0 ? scrubTick : rewind.getNewestTick()) + step);
+                showMessage("Tick " + scrubTick + " of " + rewind.getOldestTick() + "-" + rewind.getNewestTick());
+                return;
+            }
+            if (scrubTick >= 0) {
+                resumeFromScrub(); // any other key plays on from the tick shown
+            }
+            if (key == KeyEvent.VK_BACK_SPACE) {
+                rewindPlay();
+                return;
+            }
+        }
+        
         if (gameState.isGameOver()) {
             if (e.getKeyCode() == KeyEvent.VK_R) {
-                startNewGame();
+                if (remote != null) {
+                    remote.sendRestart();
+                } else {
+                    startNewGame();
+                }
             }
             return;
         }
         
         if (gameState.isLevelComplete()) {
-            if (e.getKeyCode() == KeyEvent.VK_N) {
+            if (e.getKeyCode() == KeyEvent.VK_N && remote != null) {
+                remote.sendNextLevel();
+                showMessage("Next level requested...");
+            } else if (e.getKeyCode() == KeyEvent.VK_N) {
                 gameState.nextLevel();
                 window.updateTitle("Level " + gameState.getLevel());
                 gameTimer.start();
@@ -253,6 +714,36 @@ public class GamePanel extends JPanel implements ActionListener, KeyListener {
             case KeyEvent.VK_UP -> currentMove[1] = -1;
             case KeyEvent.VK_DOWN -> currentMove[1] = 1;
             case KeyEvent.VK_ESCAPE -> { window.showHomeScreen(); return; }
+            case KeyEvent.VK_O -> {
+                if (remote != null) return; // the server decides the rules
+                gameState.setOutbreakMode(gameState.isOutbreakMode() ? null : OutbreakAutomaton.Rules.DEFAULT);
+                showMessage(gameState.isOutbreakMode() ? "Outbreak! Infection spreads on its own" : "Outbreak contained");
+                return;
+            }
+            case KeyEvent.VK_F3 -> {
+                showProfiler = !showProfiler;
+                repaint();
+                return;
+            }
+            case KeyEvent.VK_C -> {
+                if (remote != null) return;
+                gameState.setCheckpoints(!gameState.isCheckpointing());
+                showMessage(gameState.isCheckpointing() ? "Checkpoints: respawn where you last made progress" : "Checkpoints off");
+                return;
+            }
+            case KeyEvent.VK_H -> {
+                board.setThreatOverlay(!board.isThreatOverlay());
+                showMessage(board.isThreatOverlay() ? "Danger overlay on" : "Danger overlay off");
+                repaint();
+                return;
+            }
+            case KeyEvent.VK_F -> {
+                if (remote != null) return;
+                gameState.setFogOfWar(gameState.getFogRadius() > 0 ? 0 : FOG_RADIUS);
+                showMessage(gameState.getFogRadius() > 0 ? "Fog of war: antivirus only chases what it sees" : "Fog lifted");
+                publishFrame(false);
+                return;
+            }
             default -> { return; }
         }
         
@@ -270,71 +761,53 @@ public class GamePanel extends JPanel implements ActionListener, KeyListener {
                 return; // Can't move into walls
             }
             
-            // Check what we're moving into for power-up feedback
-            EntityType targetType = gameState.getGrid()[newX][newY];
-            if (targetType == EntityType.INFECT_UPGRADE) {
-                showMessage("Range Boosted!");
-            } else if (targetType == EntityType.SHIELD) {
-                showMessage("Shield Activated!");
-            } else if (targetType == EntityType.TIME_EXTENSION) {
-                showMessage("+30 Seconds!");
-            } else if (targetType == EntityType.FIREWALL && gameState.getInfectionRange() > 1) {
-                showMessage("Firewall Breached! Shielded!");
-            }
-            
             // Update player position in game state
-            gameState.movePlayer(currentMove[0], currentMove[1]);
+            if (remote != null) {
+                remote.sendMove(currentMove[0] < 0 ? 0 : currentMove[0] > 0 ? 1 : currentMove[1] < 0 ? 2 : 3);
+            } else {
+                gameState.movePlayer(currentMove[0], currentMove[1]);
+                publishFrame(false);
+            }
             
             // Start smooth movement animation
             isMoving = true;
+            moveStep = 0;
+            moveFrom.setLocation(playerPos.x * TILE_SIZE, playerPos.y * TILE_SIZE);
+            moveTo.setLocation(newX * TILE_SIZE, newY * TILE_SIZE);
+            currentPixelPos.setLocation(moveFrom);
+            moveTimer.restart();
+            repaint();
+        }
+    }
+
+    /**
+     * Advances the sliding player one frame, on the move timer rather than a thread of
+     * its own so the animation stops with the panel.
+     */
+    private void stepMove() {
+        int steps = Math.max(1, TILE_SIZE / MOVE_SPEED);
+        if (++moveStep >= steps) {
+            finishMove();
+            return;
+        }
+        if (moveStep == steps - 1) {
+            // Ensure we don't overshoot
+            currentPixelPos.setLocation(moveTo);
+        } else {
             currentPixelPos.setLocation(
-                playerPos.x * TILE_SIZE, 
-                playerPos.y * TILE_SIZE
-            );
-            
-            final int targetPixelX = newX * TILE_SIZE;
-            final int targetPixelY = newY * TILE_SIZE;
-            
-            // Start movement animation on a separate thread
-            new Thread(() -> {
-                try {
-                    // Calculate total distance to move
-                    int totalPixels = TILE_SIZE;
-                    int steps = Math.max(1, totalPixels / MOVE_SPEED);
-                    
-                    for (int i = 0; i < steps; i++) {
-                        // Calculate new position
-                        currentPixelPos.x = playerPos.x * TILE_SIZE + (currentMove[0] * i * MOVE_SPEED);
-                        currentPixelPos.y = playerPos.y * TILE_SIZE + (currentMove[1] * i * MOVE_SPEED);
-                        
-                        // Ensure we don't overshoot
-                        if (i == steps - 1) {
-                            currentPixelPos.x = targetPixelX;
-                            currentPixelPos.y = targetPixelY;
-                        }
-                        
-                        // Update the display
-                        SwingUtilities.invokeLater(this::repaint);
-                        
-                        // Small delay for smooth animation
-                        try {
-                            Thread.sleep(FRAME_DELAY);
-                        } catch (InterruptedException ex) {
-                            Thread.currentThread().interrupt();
-                            break;
-                        }
-                    }
-                } finally {
-                    isMoving = false;
-                    // Ensure final position is correct
-                    currentPixelPos.x = targetPixelX;
-                    currentPixelPos.y = targetPixelY;
-                    SwingUtilities.invokeLater(this::repaint);
-                }
-            }).start();
+                moveFrom.x + currentMove[0] * moveStep * MOVE_SPEED,
+                moveFrom.y + currentMove[1] * moveStep * MOVE_SPEED);
         }
+        repaint();
     }
-    
+
+    private void finishMove() {
+        moveTimer.stop();
+        isMoving = false;
+        currentPixelPos.setLocation(moveTo);
+        repaint();
+    }
+
     @Override
     public void keyTyped(KeyEvent e) {
         // Not used
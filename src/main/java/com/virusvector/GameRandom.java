@@ -0,0 +1,36 @@
+package com.virusvector;
+
+import java.util.Random;
+
+/**
+ * Same sequence as {@link java.util.Random}, but with a readable and restorable state
+ * so a game can be forked, rewound or replayed deterministically.
+ */
+final class GameRandom extends Random {
+    private static final long serialVersionUID = 1L;
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state;
+
+    GameRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        super.setSeed(seed);
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    long getState() { return state; }
+
+    void setState(long state) { this.state = state; }
+}
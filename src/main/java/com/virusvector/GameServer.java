@@ -0,0 +1,362 @@
+package com.virusvector;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Authoritative game host. Every connection gets its own {@link GameState}, simulated
+ * here at a fixed tick rate on a single non-blocking selector thread; clients only
+ * send inputs and render the frames they receive.
+ *
+ * Client inputs are two bytes, a command and an argument:
+ * {@link #INPUT_MOVE} with a direction index (see {@link LevelSolver#dx(int)}),
+ * {@link #INPUT_NEXT_LEVEL} or {@link #INPUT_RESTART} with 0.
+ * After every tick the server sends the session one {@link StateDelta} message with a
+ * four-byte length prefix. A client that cannot keep up has messages dropped rather
+ * than queued, followed by a keyframe, so a slow reader never holds memory on the
+ * server or delays other sessions.
+ *
+ * A client that predicts locally ({@link PredictedGame}) sends {@link #INPUT_PREDICT}
+ * instead. Its session restarts from a seed sent back in a {@link #MSG_SESSION} message
+ * and the delta stream stops; since the simulation is deterministic, the client only
+ * needs to know when each of its inputs took effect. From then on it sends seven-byte
+ * {@link #INPUT_TIMED} inputs, {@code 'T', int tick, command, argument}, which are held
+ * until the session reaches that tick and applied late if they arrive after it.
+ * Every applied input is acknowledged with a {@link #MSG_ACK} message
+ * ({@code 'A', varint tick applied, zigzag ticks early on arrival}) and every
+ * {@link #CHECK_INTERVAL} ticks a {@link #MSG_CHECK} message
+ * ({@code 'C', varint tick, long hash, varint score}) lets the client verify its copy.
+ * Session ticks count from the restart.
+ */
+public final class GameServer {
+    public static final int DEFAULT_PORT = 7777;
+    public static final int TICK_RATE = 60;
+    public static final byte INPUT_MOVE = 'M';
+    public static final byte INPUT_NEXT_LEVEL = 'N';
+    public static final byte INPUT_RESTART = 'R';
+    public static final byte INPUT_PREDICT = 'P';
+    public static final byte INPUT_TIMED = 'T';
+    public static final byte MSG_SESSION = 'S';
+    public static final byte MSG_ACK = 'A';
+    public static final byte MSG_CHECK = 'C';
+    public static final int CHECK_INTERVAL = 30;
+
+    private static final long TICK_NANOS = 1_000_000_000L / TICK_RATE;
+    private static final int MAX_INPUT_LEAD = TICK_RATE; // inputs stamped further ahead are pulled in
+    private static final int MAX_QUEUED_INPUTS = 64;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final List<Session> sessions = new ArrayList<>();
+    private int tick;
+    private long ticksRun;
+    private long framesSent;
+    private long framesDropped;
+    private final ByteBuffer control = ByteBuffer.allocate(32);
+
+    private static final class Session {
+        final SocketChannel channel;
+        GameState state = new GameState(ThreadLocalRandom.current().nextLong());
+        final ByteBuffer in = ByteBuffer.allocate(256);
+        final ByteBuffer out;
+        final StateDelta.Encoder encoder = new StateDelta.Encoder();
+        boolean closed;
+
+        // Predicting clients only: inputs waiting for their tick, oldest first
+        boolean predicting;
+        int sessionTick;
+        final int[] queuedTicks = new int[MAX_QUEUED_INPUTS];
+        final int[] queuedMargins = new int[MAX_QUEUED_INPUTS];
+        final byte[] queuedCommands = new byte[MAX_QUEUED_INPUTS];
+        final byte[] queuedArgs = new byte[MAX_QUEUED_INPUTS];
+        int queued;
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+            state.setChangeTracking(true);
+            out = ByteBuffer.allocateDirect(4 + StateDelta.maxMessageSize(state.getWidth(), state.getHeight()));
+            out.limit(0);
+        }
+    }
+
+    public GameServer(InetSocketAddress address) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.bind(address, 1024);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getSessionCount() { return sessions.size(); }
+
+    /** @return the port actually bound, useful when constructed with port 0 */
+    public int getPort() { return server.socket().getLocalPort(); }
+
+    /**
+     * Runs the selector and tick loop until the thread is interrupted.
+     */
+    public void run() throws IOException {
+        long nextTick = System.nanoTime();
+        long nextReport = nextTick + 1_000_000_000L;
+        while (!Thread.currentThread().isInterrupted()) {
+            long wait = nextTick - System.nanoTime();
+            if (wait > 0) {
+                selector.select(Math.max(1, wait / 1_000_000));
+            } else {
+                selector.selectNow();
+            }
+            handleKeys();
+
+            long now = System.nanoTime();
+            if (now >= nextTick) {
+                tickAll();
+                nextTick += TICK_NANOS;
+                if (now - nextTick > TICK_NANOS * TICK_RATE) {
+                    nextTick = now; // fell more than a second behind, stop trying to catch up
+                }
+            }
+            if (now >= nextReport) {
+                System.out.printf("sessions %d, ticks/s %d, frames sent %d, dropped %d%n",
+                    sessions.size(), ticksRun, framesSent, framesDropped);
+                ticksRun = framesSent = framesDropped = 0;
+                nextReport += 1_000_000_000L;
+            }
+        }
+    }
+
+    private void handleKeys() throws IOException {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) continue;
+            if (key.isAcceptable()) {
+                accept();
+            } else {
+                Session session = (Session) key.attachment();
+                if (key.isReadable()) read(session);
+                if (key.isValid() && key.isWritable()) flush(session);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Session session = new Session(channel);
+            channel.register(selector, SelectionKey.OP_READ, session);
+            sessions.add(session);
+        }
+    }
+
+    private void read(Session session) {
+        try {
+            if (session.channel.read(session.in) < 0) {
+                close(session);
+                return;
+            }
+        } catch (IOException e) {
+            close(session);
+            return;
+        }
+        ByteBuffer in = session.in;
+        in.flip();
+        while (in.remaining() >= 2 && !session.closed) {
+            byte command = in.get(in.position());
+            if (command == INPUT_TIMED) {
+                if (in.remaining() < 7) break;
+                in.get();
+                queueInput(session, in.getInt(), in.get(), in.get());
+            } else if (command == INPUT_PREDICT) {
+                in.position(in.position() + 2);
+                startPredicting(session);
+            } else {
+                applyInput(session.state, in.get(), in.get());
+            }
+        }
+        in.compact();
+    }
+
+    private void startPredicting(Session session) {
+        long seed = ThreadLocalRandom.current().nextLong();
+        session.state = new GameState(seed);
+        session.predicting = true;
+        session.sessionTick = 0;
+        session.queued = 0;
+        control.clear();
+        control.put(MSG_SESSION).putLong(seed);
+        StateDelta.putVarint(control, 0);
+        send(session);
+    }
+
+    private void queueInput(Session session, int tick, byte command, byte arg) {
+        if (!session.predicting) {
+            applyInput(session.state, command, arg);
+            return;
+        }
+        if (session.queued == MAX_QUEUED_INPUTS) {
+            close(session); // far more than a second of inputs in flight
+            return;
+        }
+        int i = session.queued++;
+        session.queuedTicks[i] = Math.min(tick, session.sessionTick + MAX_INPUT_LEAD);
+        session.queuedMargins[i] = tick - session.sessionTick;
+        session.queuedCommands[i] = command;
+        session.queuedArgs[i] = arg;
+    }
+
+    /**
+     * Applies the queued inputs that are due, in arrival order, and acknowledges each.
+     */
+    private void applyDueInputs(Session session) {
+        int due = 0;
+        while (due < session.queued && session.queuedTicks[due] <= session.sessionTick) {
+            applyInput(session.state, session.queuedCommands[due], session.queuedArgs[due]);
+            control.clear();
+            control.put(MSG_ACK);
+            StateDelta.putVarint(control, session.sessionTick);
+            StateDelta.putZigzag(control, session.queuedMargins[due]);
+            send(session);
+            due++;
+        }
+        if (due > 0) {
+            session.queued -= due;
+            System.arraycopy(session.queuedTicks, due, session.queuedTicks, 0, session.queued);
+            System.arraycopy(session.queuedMargins, due, session.queuedMargins, 0, session.queued);
+            System.arraycopy(session.queuedCommands, due, session.queuedCommands, 0, session.queued);
+            System.arraycopy(session.queuedArgs, due, session.queuedArgs, 0, session.queued);
+        }
+    }
+
+    /**
+     * Appends the message in {@link #control} after anything still waiting to go out.
+     * Unlike state frames these cannot be dropped, so a client too far behind is closed.
+     */
+    private void send(Session session) {
+        control.flip();
+        ByteBuffer out = session.out;
+        out.compact();
+        if (out.remaining() < 4 + control.remaining()) {
+            out.flip();
+            close(session);
+            return;
+        }
+        out.putInt(control.remaining()).put(control);
+        out.flip();
+    }
+
+    private static void applyInput(GameState state, byte command, byte arg) {
+        switch (command) {
+            case INPUT_MOVE -> {
+                if (arg >= 0 && arg < 4) {
+                    state.movePlayer(LevelSolver.dx(arg), LevelSolver.dy(arg));
+                }
+            }
+            case INPUT_NEXT_LEVEL -> state.nextLevel();
+            case INPUT_RESTART -> {
+                if (state.isGameOver()) state.startNewGame();
+            }
+            default -> { }
+        }
+    }
+
+    /**
+     * @return the game time the given tick advances by, 16 or 17 ms, so that every
+     * {@link #TICK_RATE} ticks add up to exactly a second and game time keeps pace with
+     * the tick schedule. Depends only on the tick number so predicting clients match.
+     */
+    public static int tickMillis(long tick) {
+        return (int) ((tick + 1) * 1000 / TICK_RATE - tick * 1000 / TICK_RATE);
+    }
+
+    private void tickAll() {
+        tick++;
+        ticksRun++;
+        for (int i = sessions.size() - 1; i >= 0; i--) {
+            Session session = sessions.get(i);
+            if (session.closed) {
+                sessions.set(i, sessions.get(sessions.size() - 1));
+                sessions.remove(sessions.size() - 1);
+                continue;
+            }
+            GameState state = session.state;
+            if (session.predicting) {
+                applyDueInputs(session);
+                state.tick(tickMillis(session.sessionTick));
+                session.sessionTick++;
+                if (session.sessionTick % CHECK_INTERVAL == 0) {
+                    control.clear();
+                    control.put(MSG_CHECK);
+                    StateDelta.putVarint(control, session.sessionTick);
+                    control.putLong(state.getHash());
+                    StateDelta.putVarint(control, state.getScore());
+                    send(session);
+                }
+                if (session.out.hasRemaining()) {
+                    flush(session);
+                }
+                continue;
+            }
+            state.tick(tickMillis(tick));
+            if (session.out.hasRemaining()) {
+                framesDropped++; // previous message still going out
+                session.encoder.requestKeyframe();
+                state.clearChangedCells();
+                continue;
+            }
+            ByteBuffer out = session.out;
+            out.clear();
+            out.position(4);
+            session.encoder.encode(state, tick, out);
+            state.clearChangedCells();
+            out.putInt(0, out.position() - 4);
+            out.flip();
+            framesSent++;
+            flush(session);
+        }
+    }
+
+    private void flush(Session session) {
+        try {
+            session.channel.write(session.out);
+            SelectionKey key = session.channel.keyFor(selector);
+            if (key != null && key.isValid()) {
+                key.interestOps(session.out.hasRemaining()
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                    : SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            close(session);
+        }
+    }
+
+    private void close(Session session) {
+        session.closed = true;
+        try {
+            session.channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    /**
+     * Usage: {@code GameServer [port]}
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        GameServer server = new GameServer(new InetSocketAddress(port));
+        System.out.println("Game server listening on port " + port);
+        server.run();
+    }
+}
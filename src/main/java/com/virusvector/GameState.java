@@ -1,52 +1,213 @@
 package com.virusvector;
 
 import java.awt.Point;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Manages the game state including the grid, player position, score, and game logic.
+ * Time is a simulated clock advanced by {@link #tick(long)}, so a state can be forked,
+ * searched with make/unmake, and replayed deterministically from its seed.
  */
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.HashMap;
 
 public class GameState {
     private static final int GRID_WIDTH = 20;
     private static final int GRID_HEIGHT = 15;
     private static final int INFECTION_PERCENTAGE_TO_WIN = 70;
     private static final int MAX_LIVES = 10;
-    private static final int LEVEL_TIME_SECONDS = 120;
-    
-    private EntityType[][] grid;
-    private Point playerPos;
+    static final int LEVEL_TIME_SECONDS = 120;
+    private static final int MAX_GENERATION_ATTEMPTS = 20;
+    private static final int VALIDATION_BUDGET_MS = 100;
+    private static final int OUTBREAK_GENERATION_MS = 500;
+    private static final int SPAWN_INTERVAL_MS = 4000;
+    private static final int CHECKPOINT_STEP_PERCENT = 10; // infection progress between checkpoints
+    private static final int RESPAWN_MIN_SECONDS = 30;
+    private static final int SAFE_SEARCH_RADIUS = 5;
+    private static final EntityType[] TYPES = EntityType.values();
+
+    private final int width;
+    private final int height;
+    private final EntityType[][] grid;
+    private final Point playerPos = new Point();
     private int score;
     private int level;
     private int lives;
     private int timeLeft;
+    private long clock; // simulated milliseconds since the game started
     private long lastUpdateTime;
     private boolean gameOver;
     private boolean levelComplete;
-    private final Random random;
+    private final GameRandom random;
+    private final long seed;
 
     // Enemy tracking
-    private List<Point> patrollingEnemies = new ArrayList<>();
-    private HashMap<Point, Boolean> patrollingDirections = new HashMap<>(); // true: right, false: left
-    private List<Point> chasingEnemies = new ArrayList<>();
-    private List<Point> randomEnemies = new ArrayList<>();
-    private List<Point> spawners = new ArrayList<>();
-    private HashMap<Point, Long> spawnerTimers = new HashMap<>();
+    private final EnemyList patrollingEnemies = new EnemyList(); // data: 1 moving right, 0 moving left
+    private final EnemyList chasingEnemies = new EnemyList();
+    private final EnemyList randomEnemies = new EnemyList();
+    private final EnemyList spawners = new EnemyList(); // data: clock of the last spawn
+    private final EnemyList[] enemyLists = {patrollingEnemies, chasingEnemies, randomEnemies, spawners};
 
     // Power-up states
     private boolean hasShield;
     private int infectionRange;
     private long shieldEndTime;
     private long infectionEndTime;
-    
+
+    // Outbreak mode: infected tiles spread on their own, null when disabled
+    private OutbreakAutomaton outbreak;
+    private OutbreakAutomaton.Rules outbreakRules;
+    private FieldOfView view; // null unless fog of war is on
+    private int fogRadius;
+    private boolean viewDirty; // a wall or firewall near the player appeared or went away
+    private InfectionRegions regions; // null unless region tracking is on
+    private ThreatMap threats; // null unless threat tracking is on
+    private Checkpoint checkpoint; // null unless checkpoint respawn is on
+    private int levelSerial; // counts level starts, so a checkpoint knows which level it was taken in
+    private long lastOutbreakTime;
+    private final OutbreakAutomaton.BirthListener outbreakInfect = (x, y) -> setCell(x, y, EntityType.INFECTED);
+
+    // Maintained by setCell: Zobrist hash of the grid and infected interior cells
+    private long gridHash;
+    private int infectedCells;
+
+    // Undo journal for make/unmake: cell index and previous type of every write
+    private int[] journalCells = new int[256];
+    private byte[] journalTypes = new byte[256];
+    private int journalSize;
+    private final List<UndoFrame> undoFrames = new ArrayList<>();
+    private int undoDepth;
+
+    // Cells written since the last clearChangedCells(), as row-major indices (y * width + x)
+    private boolean trackChanges;
+    private long[] changedBits;
+    private int[] changedCells;
+    private int changedCount;
+
+    // Rejects generated levels the solver cannot win, null when disabled
+    private LevelSolver levelValidator;
+
+    // Designed map whose rooms are played instead of generated levels, null when generating
+    private final LevelMap map;
+
+    // Receives gameplay events, null when nobody listens; never copied to forks
+    private GameEventListener events;
+    private HudEvents hud;
+    private long levelStartClock;
+
     public GameState() {
-        this.random = new Random();
+        this(ThreadLocalRandom.current().nextLong());
+    }
+
+    public GameState(long seed) {
+        this(GRID_WIDTH, GRID_HEIGHT, seed);
+    }
+
+    public GameState(int width, int height, long seed) {
+        this(width, height, seed, null, null);
+    }
+
+    /**
+     * Like {@link #GameState(long)} with {@link #setLevelValidator} already set, so the
+     * first level is generated once, already validated, instead of twice.
+     */
+    public GameState(long seed, LevelSolver validator) {
+        this(GRID_WIDTH, GRID_HEIGHT, seed, null, validator);
+    }
+
+    /**
+     * Plays the rooms of a designed map, one per level, instead of generating levels.
+     * Only the room being played is held in the grid, so the map can be far larger.
+     */
+    public GameState(LevelMap map, long seed) {
+        this(map.getRoomWidth(), map.getRoomHeight(), seed, map, null);
+    }
+
+    private GameState(int width, int height, long seed, LevelMap map, LevelSolver validator) {
+        if (width < 3 || height < 3) {
+            throw new IllegalArgumentException("Grid must be at least 3x3");
+        }
+        this.width = width;
+        this.height = height;
+        this.map = map;
+        this.levelValidator = validator;
+        this.grid = new EntityType[width][height];
+        this.random = new GameRandom(seed);
+        this.seed = seed;
+        for (EntityType[] column : grid) {
+            Arrays.fill(column, EntityType.EMPTY);
+        }
+        gridHash = initialHash();
         initializeGame();
     }
-    
+
+    /**
+     * Copies another state. The copy shares nothing mutable with the original,
+     * and its undo history starts empty.
+     */
+    public GameState(GameState other) {
+        this.width = other.width;
+        this.height = other.height;
+        this.map = other.map;
+        this.grid = new EntityType[width][];
+        for (int x = 0; x < width; x++) {
+            grid[x] = other.grid[x].clone();
+        }
+        this.random = new GameRandom(0);
+        random.setState(other.random.getState());
+        this.seed = other.seed;
+        playerPos.setLocation(other.playerPos);
+        score = other.score;
+        level = other.level;
+        lives = other.lives;
+        timeLeft = other.timeLeft;
+        clock = other.clock;
+        lastUpdateTime = other.lastUpdateTime;
+        gameOver = other.gameOver;
+        levelComplete = other.levelComplete;
+        patrollingEnemies.copyFrom(other.patrollingEnemies);
+        chasingEnemies.copyFrom(other.chasingEnemies);
+        randomEnemies.copyFrom(other.randomEnemies);
+        spawners.copyFrom(other.spawners);
+        hasShield = other.hasShield;
+        infectionRange = other.infectionRange;
+        shieldEndTime = other.shieldEndTime;
+        infectionEndTime = other.infectionEndTime;
+        outbreakRules = other.outbreakRules;
+        lastOutbreakTime = other.lastOutbreakTime;
+        if (other.outbreak != null) {
+            outbreak = new OutbreakAutomaton(width, height, outbreakRules);
+            outbreak.load(grid);
+        }
+        if (other.view != null) {
+            setFogOfWar(other.fogRadius);
+        }
+        if (other.regions != null) {
+            setRegionTracking(true);
+        }
+        if (other.threats != null) {
+            setThreatTracking(true);
+        }
+        gridHash = other.gridHash;
+        infectedCells = other.infectedCells;
+        levelStartClock = other.levelStartClock;
+        levelSerial = other.levelSerial;
+        if (other.checkpoint != null) {
+            checkpoint = new Checkpoint(width * height);
+            checkpoint.copyFrom(other.checkpoint);
+        }
+    }
+
+    /**
+     * @return an independent copy of this state
+     */
+    public GameState fork() {
+        return new GameState(this);
+    }
+
     private void initializeGame() {
         score = 0;
         level = 1;
@@ -55,255 +216,606 @@ public class GameState {
         infectionRange = 1;
         initializeLevel();
     }
-    
+
     public void startNewGame() {
         initializeGame();
     }
-    
+
     private void initializeLevel() {
-        grid = new EntityType[GRID_WIDTH][GRID_HEIGHT];
+        if (map != null) {
+            loadRoom();
+            return;
+        }
+        generateLevel();
+        if (levelValidator != null) {
+            // Levels are generated on the UI thread, so validation is bounded in time as well
+            // as attempts; a layout whose search runs out of time is kept unvalidated
+            long start = System.nanoTime();
+            long budget = VALIDATION_BUDGET_MS * 1_000_000L;
+            for (int attempt = 1; attempt < MAX_GENERATION_ATTEMPTS; attempt++) {
+                long left = budget - (System.nanoTime() - start);
+                if (left <= 0 || levelValidator.solve(this, left).isWinnable()
+                        || System.nanoTime() - start >= budget) {
+                    break;
+                }
+                generateLevel();
+            }
+        }
+    }
+
+    /**
+     * Runs the given solver after every level generation and regenerates layouts it cannot
+     * win within the level time, giving up after a bounded number of attempts or about
+     * 100 ms of searching, whichever comes first. Which layout is kept therefore depends
+     * on how fast the search runs, so validated games are not reproducible from the seed
+     * alone. The current level is validated straight away, so this should be set before
+     * play starts. Pass null to turn validation off. Levels loaded from a map are never
+     * validated.
+     */
+    public void setLevelValidator(LevelSolver solver) {
+        levelValidator = solver;
+        if (solver != null && !gameOver && map == null) {
+            initializeLevel();
+        }
+    }
+
+    private void generateLevel() {
         patrollingEnemies.clear();
         chasingEnemies.clear();
         randomEnemies.clear();
         spawners.clear();
-        patrollingDirections.clear();
-        spawnerTimers.clear();
-        
+
         // Fill with empty tiles
-        for (int x = 0; x < GRID_WIDTH; x++) {
-            for (int y = 0; y < GRID_HEIGHT; y++) {
-                grid[x][y] = EntityType.EMPTY;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                setCell(x, y, EntityType.EMPTY);
             }
         }
-        
+
         // Place player in the center
-        playerPos = new Point(GRID_WIDTH / 2, GRID_HEIGHT / 2);
-        grid[playerPos.x][playerPos.y] = EntityType.PLAYER;
-        
+        playerPos.setLocation(width / 2, height / 2);
+        setCell(playerPos.x, playerPos.y, EntityType.PLAYER);
+
         // Place walls and obstacles
         placeObstacles();
         placePowerUps();
         placeStrategicEnemiesAndSpawners();
-        
-        // Reset level state
+        resetLevelState();
+    }
+
+    /**
+     * Copies the room of the map for the current level into the grid and registers the
+     * enemies found in it. The room's outer ring is always wall, as in a generated level.
+     */
+    private void loadRoom() {
+        patrollingEnemies.clear();
+        chasingEnemies.clear();
+        randomEnemies.clear();
+        spawners.clear();
+
+        int across = map.getWidth() / width;
+        int rooms = across * (map.getHeight() / height);
+        int room = (level - 1) % rooms;
+        int originX = room % across * width;
+        int originY = room / across * height;
+        map.prefetch(originX, originY, width, height);
+
+        boolean playerPlaced = false;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                EntityType type = isInterior(x, y) ? map.get(originX + x, originY + y) : EntityType.WALL;
+                if (type == EntityType.PLAYER) {
+                    if (playerPlaced) {
+                        type = EntityType.EMPTY;
+                    } else {
+                        playerPos.setLocation(x, y);
+                        playerPlaced = true;
+                    }
+                }
+                setCell(x, y, type);
+                int arg = type.isThreat() ? map.getSpawnArg(originX + x, originY + y) : LevelMap.NO_SPAWN_ARG;
+                boolean noArg = arg == LevelMap.NO_SPAWN_ARG;
+                switch (type) {
+                    case PATROLLING_ANTIVIRUS -> patrollingEnemies.add(x, y, noArg ? (random.nextBoolean() ? 1 : 0) : arg);
+                    case CHASING_ANTIVIRUS -> chasingEnemies.add(x, y, 0);
+                    case RANDOM_ANTIVIRUS -> randomEnemies.add(x, y, 0);
+                    case ENEMY_SPAWNER -> spawners.add(x, y, noArg ? clock : clock - SPAWN_INTERVAL_MS + arg);
+                    default -> {
+                    }
+                }
+            }
+        }
+        if (!playerPlaced) {
+            playerPos.setLocation(width / 2, height / 2);
+            setCell(playerPos.x, playerPos.y, EntityType.PLAYER);
+        }
+        resetLevelState();
+
+        // Page in the room the next level will play while this one is under way
+        int next = room + 1 < rooms ? room + 1 : 0;
+        map.prefetch(next % across * width, next / across * height, width, height);
+    }
+
+    private void resetLevelState() {
         timeLeft = LEVEL_TIME_SECONDS * 1000; // Convert to milliseconds
+        levelStartClock = clock;
         lastUpdateTime = System.currentTimeMillis();
         gameOver = false;
         levelComplete = false;
+        levelSerial++;
+        if (checkpoint != null && undoDepth == 0) {
+            checkpoint.save(this, 0);
+        }
+
+        if (outbreakRules != null) {
+            if (outbreak == null) {
+                outbreak = new OutbreakAutomaton(width, height, outbreakRules);
+            }
+            outbreak.load(grid);
+            lastOutbreakTime = clock;
+        }
+    }
+
+    /**
+     * Turns outbreak mode on with the given rules, or off when rules is null.
+     * Takes effect on the current board straight away.
+     */
+    public void setOutbreakMode(OutbreakAutomaton.Rules rules) {
+        outbreakRules = rules;
+        if (rules == null) {
+            outbreak = null;
+        } else {
+            outbreak = new OutbreakAutomaton(width, height, rules);
+            outbreak.load(grid);
+            lastOutbreakTime = clock;
+        }
+    }
+
+    public boolean isOutbreakMode() { return outbreak != null; }
+
+    /**
+     * Turns fog of war on with the given view radius, or off when it is 0. With fog on,
+     * chasing enemies only move while they can see the player.
+     */
+    public void setFogOfWar(int radius) {
+        fogRadius = Math.max(0, radius);
+        view = fogRadius > 0 ? new FieldOfView(width, height) : null;
+        if (view != null) {
+            view.load(grid);
+        }
+        viewDirty = true;
+    }
+
+    public int getFogRadius() { return fogRadius; }
+
+    /**
+     * @return what the player can see, brought up to date if the player moved or a wall
+     * or firewall in view changed; null when fog of war is off
+     */
+    public FieldOfView getFieldOfView() {
+        if (view != null && (viewDirty || !view.isComputedFrom(playerPos.x, playerPos.y, fogRadius))) {
+            view.compute(playerPos.x, playerPos.y, fogRadius);
+            viewDirty = false;
+        }
+        return view;
+    }
+
+    /**
+     * Starts or stops keeping the connected regions of infected cells, for gameplay and
+     * analytics that look at the shape of the infection. Off by default, so states that
+     * are only searched or simulated pay nothing for it.
+     */
+    public void setRegionTracking(boolean enabled) {
+        if (!enabled) {
+            regions = null;
+        } else if (regions == null) {
+            regions = new InfectionRegions(width, height);
+            regions.load(grid);
+        }
+    }
+
+    /** @return the infected regions, or null when region tracking is off */
+    public InfectionRegions getInfectionRegions() { return regions; }
+
+    /**
+     * @return whether an infected cell lies in a region the player's cell is not part of,
+     * cut off by walls, firewalls or enemies; false when region tracking is off
+     */
+    public boolean isCutOff(int x, int y) {
+        if (regions == null) return false;
+        int region = regions.regionAt(x, y);
+        return region >= 0 && region != regions.regionAt(playerPos.x, playerPos.y);
+    }
+
+    /**
+     * Starts or stops keeping how dangerous each cell is from the antivirus and spawners
+     * around it, for bots and the danger overlay. Off by default like region tracking.
+     */
+    public void setThreatTracking(boolean enabled) {
+        if (!enabled) {
+            threats = null;
+        } else if (threats == null) {
+            threats = new ThreatMap(width, height);
+            threats.load(grid);
+        }
+    }
+
+    /** @return the danger of every cell, or null when threat tracking is off */
+    public ThreatMap getThreatMap() { return threats; }
+
+    /**
+     * Turns checkpoint respawn on or off. With it on, losing a life puts the level back
+     * as it was at its start or at the last infection milestone instead of generating a
+     * new one, touching only the cells written since. Turning it on takes a checkpoint of
+     * the current state.
+     */
+    public void setCheckpoints(boolean enabled) {
+        if (!enabled) {
+            checkpoint = null;
+        } else if (checkpoint == null) {
+            checkpoint = new Checkpoint(width * height);
+            checkpoint.save(this, progressMilestone());
+        }
+    }
+
+    public boolean isCheckpointing() { return checkpoint != null; }
+
+    /** @return whether the player can see the cell; always true with fog of war off */
+    public boolean isVisible(int x, int y) {
+        return view == null || getFieldOfView().isVisible(x, y);
+    }
+
+    /**
+     * Reports gameplay events to the listener, or to nobody when it is null. Forks do
+     * not inherit the listener, so searches on copies stay silent.
+     */
+    public void setEventListener(GameEventListener listener) {
+        events = listener;
+    }
+
+    /**
+     * Publishes HUD changes, pickups and firewall breaches to the queue after every move
+     * and tick, or to nobody when it is null. Like the event listener it is not forked.
+     */
+    public void setHudEvents(HudEvents queue) {
+        hud = queue;
+        if (hud != null) {
+            hud.publish(this);
+        }
+    }
+
+    // Events are only reported for moves and ticks that are not going to be unmade
+    private boolean reporting() {
+        return events != null && undoDepth == 0;
+    }
+
+    private void publishHud() {
+        if (hud != null && undoDepth == 0) {
+            hud.publish(this);
+        }
+    }
+
+    /** @return the map levels are loaded from, or null when they are generated */
+    public LevelMap getMap() { return map; }
+
+    // Every grid write goes through here so the hash, counters, journal and outbreak planes stay in sync
+    private void setCell(int x, int y, EntityType type) {
+        EntityType old = grid[x][y];
+        if (old == type) return;
+        int cell = x * height + y;
+        if (undoDepth > 0) {
+            journal(cell, old);
+        }
+        grid[x][y] = type;
+        gridHash ^= zobrist(cell, old) ^ zobrist(cell, type);
+        if (x > 0 && x < width - 1 && y > 0 && y < height - 1) {
+            infectedCells += (isInfection(type) ? 1 : 0) - (isInfection(old) ? 1 : 0);
+        }
+        if (outbreak != null) {
+            outbreak.cellChanged(x, y, type);
+        }
+        if (view != null && view.cellChanged(x, y, type)) {
+            viewDirty = true;
+        }
+        if (regions != null) {
+            regions.cellChanged(x, y, isInfection(type));
+        }
+        if (checkpoint != null) {
+            checkpoint.cellChanged(cell, old);
+        }
+        if (threats != null) {
+            threats.cellChanged(x, y, old, type);
+        }
+        if (trackChanges) {
+            int index = y * width + x;
+            long bit = 1L << index;
+            if ((changedBits[index >>> 6] & bit) == 0) {
+                changedBits[index >>> 6] |= bit;
+                changedCells[changedCount++] = index;
+            }
+        }
+    }
+
+    /**
+     * Starts or stops recording which cells change, for delta encoding and dirty-tile rendering.
+     * Turning tracking on starts from an empty set.
+     */
+    public void setChangeTracking(boolean enabled) {
+        trackChanges = enabled;
+        if (enabled && changedCells == null) {
+            changedBits = new long[(width * height + 63) >>> 6];
+            changedCells = new int[width * height];
+        }
+        clearChangedCells();
+    }
+
+    public boolean isChangeTracking() { return trackChanges; }
+
+    /** @return the number of distinct cells written since the last {@link #clearChangedCells()} */
+    public int getChangedCellCount() { return changedCount; }
+
+    /** @return the row-major index (y * width + x) of the i-th changed cell, in write order */
+    public int getChangedCell(int i) { return changedCells[i]; }
+
+    public void clearChangedCells() {
+        if (changedCells == null) return;
+        for (int i = 0; i < changedCount; i++) {
+            changedBits[changedCells[i] >>> 6] = 0;
+        }
+        changedCount = 0;
+    }
+
+    static boolean isInfection(EntityType type) {
+        return type == EntityType.INFECTED || type == EntityType.PLAYER;
+    }
+
+    private void stepOutbreak() {
+        if (outbreak == null || clock - lastOutbreakTime < OUTBREAK_GENERATION_MS) return;
+        lastOutbreakTime = clock;
+        int infected = outbreak.step(outbreakInfect);
+        if (infected > 0) {
+            if (reporting()) {
+                events.cellsInfected(level, -1, -1, infected);
+            }
+            score += infected * 10;
+            checkWinCondition();
+        }
     }
 
     private void placeStrategicEnemiesAndSpawners() {
         // Place patrolling enemies
         for (int i = 0; i < Math.max(1, level / 2); i++) {
-            Point p = placeRandomStrategicEntity(EntityType.PATROLLING_ANTIVIRUS);
-            patrollingEnemies.add(p);
-            patrollingDirections.put(p, random.nextBoolean());
+            int cell = placeRandomEntity(EntityType.PATROLLING_ANTIVIRUS);
+            patrollingEnemies.add(cell / height, cell % height, random.nextBoolean() ? 1 : 0);
         }
         // Place chasing enemies
         for (int i = 0; i < level / 2; i++) {
-            Point p = placeRandomStrategicEntity(EntityType.CHASING_ANTIVIRUS);
-            chasingEnemies.add(p);
+            int cell = placeRandomEntity(EntityType.CHASING_ANTIVIRUS);
+            chasingEnemies.add(cell / height, cell % height, 0);
         }
         // Place random-walking enemies
         for (int i = 0; i < level / 2; i++) {
-            Point p = placeRandomStrategicEntity(EntityType.RANDOM_ANTIVIRUS);
-            randomEnemies.add(p);
+            int cell = placeRandomEntity(EntityType.RANDOM_ANTIVIRUS);
+            randomEnemies.add(cell / height, cell % height, 0);
         }
         // Place enemy spawners
         for (int i = 0; i < Math.max(1, level / 3); i++) {
-            Point p = placeRandomStrategicEntity(EntityType.ENEMY_SPAWNER);
-            spawners.add(p);
-            spawnerTimers.put(p, System.currentTimeMillis());
+            int cell = placeRandomEntity(EntityType.ENEMY_SPAWNER);
+            spawners.add(cell / height, cell % height, clock);
         }
     }
 
-    private Point placeRandomStrategicEntity(EntityType type) {
-        int x, y;
-        do {
-            x = 1 + random.nextInt(GRID_WIDTH - 2);
-            y = 1 + random.nextInt(GRID_HEIGHT - 2);
-        } while (grid[x][y] != EntityType.EMPTY || (x == playerPos.x && y == playerPos.y));
-        grid[x][y] = type;
-        return new Point(x, y);
-    }
-    
     private void placeObstacles() {
         // Place walls around the border
-        for (int x = 0; x < GRID_WIDTH; x++) {
-            grid[x][0] = EntityType.WALL;
-            grid[x][GRID_HEIGHT - 1] = EntityType.WALL;
+        for (int x = 0; x < width; x++) {
+            setCell(x, 0, EntityType.WALL);
+            setCell(x, height - 1, EntityType.WALL);
         }
-        for (int y = 0; y < GRID_HEIGHT; y++) {
-            grid[0][y] = EntityType.WALL;
-            grid[GRID_WIDTH - 1][y] = EntityType.WALL;
+        for (int y = 0; y < height; y++) {
+            setCell(0, y, EntityType.WALL);
+            setCell(width - 1, y, EntityType.WALL);
         }
-        
+
         // Place random walls, firewalls and anti-virus
-        int numWalls = (GRID_WIDTH * GRID_HEIGHT) / 15; // ~6.7% walls (reduced from 10%)
+        int numWalls = (width * height) / 15; // ~6.7% walls (reduced from 10%)
         int numAntivirus = level + 1; // More antivirus in higher levels
         int numFirewalls = Math.min(level, 5); // 1-5 firewalls based on level
-        
+
         placeRandomEntities(EntityType.WALL, numWalls);
         placeRandomEntities(EntityType.ANTIVIRUS, numAntivirus);
         placeRandomEntities(EntityType.FIREWALL, numFirewalls);
     }
-    
+
     private void placePowerUps() {
         // Ensure at least one power-up per level
         placeRandomEntity(EntityType.INFECT_UPGRADE);
         placeRandomEntity(EntityType.SHIELD);
-        
+
         // More power-ups in higher levels
         if (level > 2) {
             placeRandomEntity(EntityType.TIME_EXTENSION);
         }
     }
-    
+
     private void placeRandomEntities(EntityType type, int count) {
         for (int i = 0; i < count; i++) {
             placeRandomEntity(type);
         }
     }
-    
-    private void placeRandomEntity(EntityType type) {
+
+    /**
+     * @return the cell index (x * height + y) the entity was placed at
+     */
+    private int placeRandomEntity(EntityType type) {
         int x, y;
         do {
-            x = 1 + random.nextInt(GRID_WIDTH - 2);
-            y = 1 + random.nextInt(GRID_HEIGHT - 2);
+            x = 1 + random.nextInt(width - 2);
+            y = 1 + random.nextInt(height - 2);
         } while (grid[x][y] != EntityType.EMPTY || (x == playerPos.x && y == playerPos.y));
-        
-        grid[x][y] = type;
+
+        setCell(x, y, type);
+        return x * height + y;
     }
-    
+
+    /**
+     * Advances the game by the wall-clock time elapsed since the previous call.
+     */
     public void update() {
-        if (gameOver || levelComplete) return;
-        
-        // Update timer
         long currentTime = System.currentTimeMillis();
         long deltaTime = currentTime - lastUpdateTime;
         lastUpdateTime = currentTime;
-        
+        tick(deltaTime);
+    }
+
+    /**
+     * Makes the next {@link #update()} measure from now, so time spent paused is not played.
+     */
+    public void resetClock() {
+        lastUpdateTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Advances the simulated clock by the given time and moves every enemy one step.
+     */
+    public void tick(long deltaTime) {
+        if (gameOver || levelComplete) return;
+
+        // Update timer
+        clock += deltaTime;
         timeLeft -= deltaTime;
-        
+
         // Check for time up
         if (timeLeft <= 0) {
             timeLeft = 0;
-            loseLife();
+            loseLife(playerPos.x, playerPos.y);
         }
-        
+
         // Check power-up expiration
-        checkPowerUpExpiration(currentTime);
+        checkPowerUpExpiration();
 
         // Move patrolling enemies
-        List<Point> newPatrolling = new ArrayList<>();
-        HashMap<Point, Boolean> newDirections = new HashMap<>();
-        for (Point p : patrollingEnemies) {
-            boolean right = patrollingDirections.getOrDefault(p, true);
-            int nx = p.x + (right ? 1 : -1);
-            int ny = p.y;
-            if (nx <= 0 || nx >= GRID_WIDTH - 1 || grid[nx][ny] != EntityType.EMPTY) {
+        for (int i = 0; i < patrollingEnemies.size(); i++) {
+            int px = patrollingEnemies.x(i);
+            int py = patrollingEnemies.y(i);
+            boolean right = patrollingEnemies.data(i) != 0;
+            int nx = px + (right ? 1 : -1);
+            if (nx <= 0 || nx >= width - 1 || grid[nx][py] != EntityType.EMPTY) {
                 right = !right;
-                nx = p.x + (right ? 1 : -1);
+                nx = px + (right ? 1 : -1);
             }
-            if (nx > 0 && nx < GRID_WIDTH - 1 && grid[nx][ny] == EntityType.EMPTY) {
-                grid[p.x][p.y] = EntityType.EMPTY;
-                p.setLocation(nx, ny);
-                grid[nx][ny] = EntityType.PATROLLING_ANTIVIRUS;
+            if (nx > 0 && nx < width - 1 && grid[nx][py] == EntityType.EMPTY) {
+                setCell(px, py, EntityType.EMPTY);
+                patrollingEnemies.set(i, nx, py);
+                setCell(nx, py, EntityType.PATROLLING_ANTIVIRUS);
             }
-            newPatrolling.add(new Point(p));
-            newDirections.put(new Point(p), right);
+            patrollingEnemies.setData(i, right ? 1 : 0);
         }
-        patrollingEnemies = newPatrolling;
-        patrollingDirections = newDirections;
 
         // Move chasing enemies
-        List<Point> newChasing = new ArrayList<>();
-        for (Point p : chasingEnemies) {
-            int dx = Integer.compare(playerPos.x, p.x);
-            int dy = Integer.compare(playerPos.y, p.y);
-            int nx = p.x + dx;
-            int ny = p.y + dy;
-            if (nx > 0 && nx < GRID_WIDTH - 1 && ny > 0 && ny < GRID_HEIGHT - 1 && grid[nx][ny] == EntityType.EMPTY) {
-                grid[p.x][p.y] = EntityType.EMPTY;
-                p.setLocation(nx, ny);
-                grid[nx][ny] = EntityType.CHASING_ANTIVIRUS;
+        for (int i = 0; i < chasingEnemies.size(); i++) {
+            int px = chasingEnemies.x(i);
+            int py = chasingEnemies.y(i);
+            if (!isVisible(px, py)) continue; // in the fog they lose the player's trail
+            int nx = px + Integer.compare(playerPos.x, px);
+            int ny = py + Integer.compare(playerPos.y, py);
+            if (isInterior(nx, ny) && grid[nx][ny] == EntityType.EMPTY) {
+                setCell(px, py, EntityType.EMPTY);
+                chasingEnemies.set(i, nx, ny);
+                setCell(nx, ny, EntityType.CHASING_ANTIVIRUS);
             }
-            newChasing.add(new Point(p));
         }
-        chasingEnemies = newChasing;
 
         // Move random enemies
-        List<Point> newRandom = new ArrayList<>();
-        for (Point p : randomEnemies) {
-            int[] dirs = {-1, 0, 1};
-            int dx = dirs[random.nextInt(3)];
-            int dy = dirs[random.nextInt(3)];
-            int nx = p.x + dx;
-            int ny = p.y + dy;
-            if (nx > 0 && nx < GRID_WIDTH - 1 && ny > 0 && ny < GRID_HEIGHT - 1 && grid[nx][ny] == EntityType.EMPTY) {
-                grid[p.x][p.y] = EntityType.EMPTY;
-                p.setLocation(nx, ny);
-                grid[nx][ny] = EntityType.RANDOM_ANTIVIRUS;
+        for (int i = 0; i < randomEnemies.size(); i++) {
+            int px = randomEnemies.x(i);
+            int py = randomEnemies.y(i);
+            int nx = px + random.nextInt(3) - 1;
+            int ny = py + random.nextInt(3) - 1;
+            if (isInterior(nx, ny) && grid[nx][ny] == EntityType.EMPTY) {
+                setCell(px, py, EntityType.EMPTY);
+                randomEnemies.set(i, nx, ny);
+                setCell(nx, ny, EntityType.RANDOM_ANTIVIRUS);
             }
-            newRandom.add(new Point(p));
         }
-        randomEnemies = newRandom;
 
         // Enemy spawner logic
-        for (Point s : spawners) {
-            long lastSpawn = spawnerTimers.getOrDefault(s, 0L);
-            if (currentTime - lastSpawn > 4000) { // spawn every 4 seconds
-                // Find adjacent empty cell
-                int[][] adj = {{1,0},{-1,0},{0,1},{0,-1}};
-                for (int[] d : adj) {
-                    int nx = s.x + d[0];
-                    int ny = s.y + d[1];
-                    if (nx > 0 && nx < GRID_WIDTH - 1 && ny > 0 && ny < GRID_HEIGHT - 1 && grid[nx][ny] == EntityType.EMPTY) {
-                        EntityType enemyType = switch (random.nextInt(3)) {
-                            case 0 -> EntityType.PATROLLING_ANTIVIRUS;
-                            case 1 -> EntityType.CHASING_ANTIVIRUS;
-                            default -> EntityType.RANDOM_ANTIVIRUS;
-                        };
-                        grid[nx][ny] = enemyType;
-                        if (enemyType == EntityType.PATROLLING_ANTIVIRUS) {
-                            patrollingEnemies.add(new Point(nx, ny));
-                            patrollingDirections.put(new Point(nx, ny), random.nextBoolean());
-                        } else if (enemyType == EntityType.CHASING_ANTIVIRUS) {
-                            chasingEnemies.add(new Point(nx, ny));
-                        } else {
-                            randomEnemies.add(new Point(nx, ny));
-                        }
-                        spawnerTimers.put(s, currentTime);
-                        break;
-                    }
+        for (int i = 0; i < spawners.size(); i++) {
+            if (clock - spawners.data(i) > SPAWN_INTERVAL_MS) {
+                spawnNextTo(i);
+            }
+        }
+
+        stepOutbreak();
+        advanceCheckpoint();
+        if (reporting()) {
+            reportEnemies(patrollingEnemies);
+            reportEnemies(chasingEnemies);
+            reportEnemies(randomEnemies);
+            reportEnemies(spawners);
+        }
+        publishHud();
+    }
+
+    private void reportEnemies(EnemyList list) {
+        for (int i = 0; i < list.size(); i++) {
+            events.enemySeen(level, list.x(i), list.y(i));
+        }
+    }
+
+    private static final int[][] SPAWN_OFFSETS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+
+    private void spawnNextTo(int spawner) {
+        // Find adjacent empty cell
+        for (int[] d : SPAWN_OFFSETS) {
+            int nx = spawners.x(spawner) + d[0];
+            int ny = spawners.y(spawner) + d[1];
+            if (isInterior(nx, ny) && grid[nx][ny] == EntityType.EMPTY) {
+                EntityType enemyType = switch (random.nextInt(3)) {
+                    case 0 -> EntityType.PATROLLING_ANTIVIRUS;
+                    case 1 -> EntityType.CHASING_ANTIVIRUS;
+                    default -> EntityType.RANDOM_ANTIVIRUS;
+                };
+                setCell(nx, ny, enemyType);
+                if (enemyType == EntityType.PATROLLING_ANTIVIRUS) {
+                    patrollingEnemies.add(nx, ny, random.nextBoolean() ? 1 : 0);
+                } else if (enemyType == EntityType.CHASING_ANTIVIRUS) {
+                    chasingEnemies.add(nx, ny, 0);
+                } else {
+                    randomEnemies.add(nx, ny, 0);
                 }
+                spawners.setData(spawner, clock);
+                return;
             }
         }
     }
-    
-    private void checkPowerUpExpiration(long currentTime) {
-        if (hasShield && currentTime > shieldEndTime) {
+
+    private boolean isInterior(int x, int y) {
+        return x > 0 && x < width - 1 && y > 0 && y < height - 1;
+    }
+
+    private void checkPowerUpExpiration() {
+        if (hasShield && clock > shieldEndTime) {
             hasShield = false;
         }
-        if (infectionRange > 1 && currentTime > infectionEndTime) {
+        if (infectionRange > 1 && clock > infectionEndTime) {
             infectionRange = 1;
         }
     }
-    
+
     public void movePlayer(int dx, int dy) {
         if (gameOver || levelComplete) return;
-        
+
         int newX = playerPos.x + dx;
         int newY = playerPos.y + dy;
-        
+
         // Check bounds
-        if (newX < 0 || newX >= GRID_WIDTH || newY < 0 || newY >= GRID_HEIGHT) {
+        if (newX < 0 || newX >= width || newY < 0 || newY >= height) {
             return;
         }
-        
+
         EntityType target = grid[newX][newY];
         boolean canMove = true;
-        
+
         // Handle different entity types
         switch (target) {
             case EMPTY, INFECTED, PLAYER -> {
@@ -316,130 +828,642 @@ public class GameState {
                 if (infectionRange > 1) {
                     // Can pass through with upgrade
                     hasShield = true;
-                    shieldEndTime = System.currentTimeMillis() + 10000; // 10 second shield
+                    shieldEndTime = clock + 10000; // 10 second shield
+                    if (hud != null && undoDepth == 0) {
+                        hud.offer(HudEvents.FIREWALL_BREACHED, 0);
+                    }
                 } else {
                     canMove = false;
                 }
             }
             case ANTIVIRUS, PATROLLING_ANTIVIRUS, CHASING_ANTIVIRUS, RANDOM_ANTIVIRUS -> {
                 if (!hasShield) {
-                    loseLife();
+                    loseLife(newX, newY);
+                    publishHud();
                     return;
                 } else {
+                    if (reporting()) {
+                        events.enemyKilled(level, newX, newY, target);
+                    }
                     // Remove enemy from tracking list
                     if (target == EntityType.PATROLLING_ANTIVIRUS) {
-                        patrollingEnemies.removeIf(e -> e.equals(new Point(newX, newY)));
-                        patrollingDirections.remove(new Point(newX, newY));
+                        removeEnemy(patrollingEnemies, newX, newY);
                     } else if (target == EntityType.CHASING_ANTIVIRUS) {
-                        chasingEnemies.removeIf(e -> e.equals(new Point(newX, newY)));
+                        removeEnemy(chasingEnemies, newX, newY);
                     } else if (target == EntityType.RANDOM_ANTIVIRUS) {
-                        randomEnemies.removeIf(e -> e.equals(new Point(newX, newY)));
+                        removeEnemy(randomEnemies, newX, newY);
                     }
                 }
             }
             case ENEMY_SPAWNER -> {
                 // Destroy the spawner
-                spawners.removeIf(e -> e.equals(new Point(newX, newY)));
-                spawnerTimers.remove(new Point(newX, newY));
+                removeEnemy(spawners, newX, newY);
+                if (reporting()) {
+                    events.spawnerDestroyed(level, newX, newY);
+                }
             }
             case INFECT_UPGRADE -> {
                 infectionRange = 3;
-                infectionEndTime = System.currentTimeMillis() + 10000; // 10 seconds
+                infectionEndTime = clock + 10000; // 10 seconds
             }
             case SHIELD -> {
                 hasShield = true;
-                shieldEndTime = System.currentTimeMillis() + 15000; // 15 seconds
+                shieldEndTime = clock + 15000; // 15 seconds
             }
             case TIME_EXTENSION -> {
                 timeLeft += 30000; // 30 seconds
             }
         }
-        
+
         if (!canMove) {
             return;
         }
-        
+        if (target.isPowerUp() && reporting()) {
+            events.pickedUp(level, newX, newY, target);
+        }
+        if (target.isPowerUp() && hud != null && undoDepth == 0) {
+            hud.offer(HudEvents.PICKUP, target.ordinal());
+        }
+
         // Move player one tile at a time
-        grid[playerPos.x][playerPos.y] = EntityType.INFECTED;
+        setCell(playerPos.x, playerPos.y, EntityType.INFECTED);
         playerPos.setLocation(newX, newY);
-        grid[newX][newY] = EntityType.PLAYER;
-        
+        setCell(newX, newY, EntityType.PLAYER);
+
         // Infect adjacent tiles based on current range
         infectAdjacentTiles();
-        
+
         // Check win condition
         checkWinCondition();
+        advanceCheckpoint();
+        publishHud();
     }
-    
+
+    private static void removeEnemy(EnemyList list, int x, int y) {
+        int i = list.indexOf(x, y);
+        if (i >= 0) {
+            list.removeAt(i);
+        }
+    }
+
     private void infectAdjacentTiles() {
+        int rangeSquared = infectionRange * infectionRange;
+        int infected = 0;
         for (int dx = -infectionRange; dx <= infectionRange; dx++) {
             for (int dy = -infectionRange; dy <= infectionRange; dy++) {
                 if (dx == 0 && dy == 0) continue; // Skip the player's position
-                
+
                 int x = playerPos.x + dx;
                 int y = playerPos.y + dy;
-                
+
                 // Check bounds and distance (circular infection pattern)
-                if (x >= 0 && x < GRID_WIDTH && y >= 0 && y < GRID_HEIGHT) {
-                    double distance = Math.sqrt(dx*dx + dy*dy);
-                    if (distance <= infectionRange) {
+                if (x >= 0 && x < width && y >= 0 && y < height) {
+                    if (dx * dx + dy * dy <= rangeSquared) {
                         // Only infect empty tiles
                         if (grid[x][y] == EntityType.EMPTY) {
-                            grid[x][y] = EntityType.INFECTED;
+                            setCell(x, y, EntityType.INFECTED);
                             score += 10;
+                            infected++;
                         }
                     }
                 }
             }
         }
+        if (infected > 0 && reporting()) {
+            events.cellsInfected(level, playerPos.x, playerPos.y, infected);
+        }
     }
-    
+
     private void checkWinCondition() {
-        int totalCells = (GRID_WIDTH - 2) * (GRID_HEIGHT - 2); // Exclude borders
-        int infectedCells = 0;
-        
-        for (int x = 1; x < GRID_WIDTH - 1; x++) {
-            for (int y = 1; y < GRID_HEIGHT - 1; y++) {
-                if (grid[x][y] == EntityType.INFECTED || grid[x][y] == EntityType.PLAYER) {
-                    infectedCells++;
-                }
-            }
-        }
-        
+        int totalCells = (width - 2) * (height - 2); // Exclude borders
         int infectionPercentage = (infectedCells * 100) / totalCells;
-        
+
         if (infectionPercentage >= INFECTION_PERCENTAGE_TO_WIN) {
             levelComplete = true;
             score += level * 1000; // Bonus points for completing level
         }
     }
-    
-    private void loseLife() {
+
+    private void loseLife(int x, int y) {
+        if (reporting()) {
+            events.lifeLost(level, x, y, clock - levelStartClock);
+        }
         lives--;
         if (lives <= 0) {
             gameOver = true;
+        } else if (checkpoint != null && checkpoint.serial == levelSerial && checkpoint.level == level) {
+            respawnAtCheckpoint();
         } else {
             // Reset level but keep score and lives
             initializeLevel();
         }
     }
-    
+
+    // --- Checkpoints ---
+
+    private int progressMilestone() {
+        return infectedCells * 100 / ((width - 2) * (height - 2)) / CHECKPOINT_STEP_PERCENT;
+    }
+
+    // Takes a new checkpoint each time the infection passes another step towards the goal.
+    // Never inside make/unmake, where the move that earned it may be taken back.
+    private void advanceCheckpoint() {
+        if (checkpoint == null || undoDepth > 0 || gameOver || levelComplete) return;
+        int milestone = progressMilestone();
+        if (milestone > checkpoint.milestone || checkpoint.serial != levelSerial) {
+            checkpoint.save(this, milestone);
+        }
+    }
+
+    /**
+     * Puts back the cells written since the checkpoint and the enemies as they were, keeping
+     * score, lives and power-ups like a regenerated level does. Spawners keep the time to
+     * their next spawn, and the level timer is topped up to a minimum so a time-out near a
+     * late checkpoint does not cost the next life straight away.
+     */
+    private void respawnAtCheckpoint() {
+        Checkpoint c = checkpoint;
+        for (int i = 0; i < c.size; i++) {
+            int cell = c.cells[i];
+            setCell(cell / height, cell % height, TYPES[c.types[i]]);
+        }
+        c.clearCells();
+        playerPos.setLocation(c.playerX, c.playerY);
+        patrollingEnemies.copyFrom(c.patrolling);
+        chasingEnemies.copyFrom(c.chasing);
+        randomEnemies.copyFrom(c.randoms);
+        spawners.copyFrom(c.spawners);
+        for (int i = 0; i < spawners.size(); i++) {
+            spawners.setData(i, spawners.data(i) + clock - c.clock);
+        }
+        timeLeft = Math.max(c.timeLeft, RESPAWN_MIN_SECONDS * 1000);
+        moveToSafeCell();
+    }
+
+    // Walks out from the player to the nearest open cell with no antivirus next to it
+    private void moveToSafeCell() {
+        int side = 2 * SAFE_SEARCH_RADIUS + 1;
+        int[] queue = new int[side * side];
+        boolean[] seen = new boolean[side * side];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = playerPos.x * height + playerPos.y;
+        seen[side * side / 2] = true;
+        while (head < tail) {
+            int cell = queue[head++];
+            int x = cell / height;
+            int y = cell % height;
+            if (!nextToAntivirus(x, y)) {
+                if (x != playerPos.x || y != playerPos.y) {
+                    setCell(playerPos.x, playerPos.y, EntityType.INFECTED);
+                    playerPos.setLocation(x, y);
+                    setCell(x, y, EntityType.PLAYER);
+                }
+                return;
+            }
+            for (int d = 0; d < 4; d++) {
+                int nx = x + LevelSolver.DX[d];
+                int ny = y + LevelSolver.DY[d];
+                int ox = nx - playerPos.x + SAFE_SEARCH_RADIUS;
+                int oy = ny - playerPos.y + SAFE_SEARCH_RADIUS;
+                if (ox < 0 || oy < 0 || ox >= side || oy >= side || !isInterior(nx, ny) || seen[oy * side + ox]) continue;
+                EntityType type = grid[nx][ny];
+                if (type == EntityType.EMPTY || type == EntityType.INFECTED) {
+                    seen[oy * side + ox] = true;
+                    queue[tail++] = nx * height + ny;
+                }
+            }
+        }
+    }
+
+    private boolean nextToAntivirus(int x, int y) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int nx = x + dx;
+                int ny = y + dy;
+                if (nx >= 0 && ny >= 0 && nx < width && ny < height
+                        && grid[nx][ny].isThreat() && grid[nx][ny] != EntityType.ENEMY_SPAWNER) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The level as it was at its start or at the last infection milestone: the old type
+     * of every cell written since, once per cell, and the player and enemies then.
+     */
+    private static final class Checkpoint {
+        final long[] written; // one bit per cell index (x * height + y)
+        int[] cells = new int[256];
+        byte[] types = new byte[256];
+        int size;
+        int serial;
+        int level;
+        int milestone;
+        int playerX, playerY, timeLeft;
+        long clock;
+        final EnemyList patrolling = new EnemyList();
+        final EnemyList chasing = new EnemyList();
+        final EnemyList randoms = new EnemyList();
+        final EnemyList spawners = new EnemyList();
+
+        Checkpoint(int cellCount) {
+            written = new long[(cellCount + 63) >>> 6];
+        }
+
+        void cellChanged(int cell, EntityType old) {
+            long bit = 1L << cell;
+            if ((written[cell >>> 6] & bit) != 0) return;
+            written[cell >>> 6] |= bit;
+            if (size == cells.length) {
+                cells = Arrays.copyOf(cells, size * 2);
+                types = Arrays.copyOf(types, size * 2);
+            }
+            cells[size] = cell;
+            types[size] = (byte) old.ordinal();
+            size++;
+        }
+
+        void clearCells() {
+            for (int i = 0; i < size; i++) {
+                written[cells[i] >>> 6] = 0;
+            }
+            size = 0;
+        }
+
+        void save(GameState s, int milestone) {
+            clearCells();
+            this.milestone = milestone;
+            serial = s.levelSerial;
+            level = s.level;
+            playerX = s.playerPos.x;
+            playerY = s.playerPos.y;
+            timeLeft = s.timeLeft;
+            clock = s.clock;
+            patrolling.copyFrom(s.patrollingEnemies);
+            chasing.copyFrom(s.chasingEnemies);
+            randoms.copyFrom(s.randomEnemies);
+            spawners.copyFrom(s.spawners);
+        }
+
+        void copyFrom(Checkpoint other) {
+            System.arraycopy(other.written, 0, written, 0, written.length);
+            cells = other.cells.clone();
+            types = other.types.clone();
+            size = other.size;
+            serial = other.serial;
+            level = other.level;
+            milestone = other.milestone;
+            playerX = other.playerX;
+            playerY = other.playerY;
+            timeLeft = other.timeLeft;
+            clock = other.clock;
+            patrolling.copyFrom(other.patrolling);
+            chasing.copyFrom(other.chasing);
+            randoms.copyFrom(other.randoms);
+            spawners.copyFrom(other.spawners);
+        }
+    }
+
     public void nextLevel() {
         if (levelComplete) {
             level++;
             initializeLevel();
+            publishHud();
+        }
+    }
+
+    /**
+     * Overwrites this state with one received from an authoritative server. Only what the
+     * client renders is replicated; enemy lists and timers stay empty on a replica.
+     */
+    void applyFrame(StateFrame frame) {
+        applyFrame(frame, null, width * height);
+    }
+
+    /**
+     * Like {@link #applyFrame(StateFrame)}, but copies only the listed row-major cells.
+     * A null cell list copies every cell.
+     */
+    void applyFrame(StateFrame frame, int[] cells, int count) {
+        if (frame.width != width || frame.height != height) {
+            throw new IllegalArgumentException("Frame is " + frame.width + "x" + frame.height
+                + " but the replica is " + width + "x" + height);
+        }
+        for (int i = 0; i < count; i++) {
+            int index = cells == null ? i : cells[i];
+            setCell(index % width, index / width, EntityType.fromValue(frame.cells[index]));
+        }
+        playerPos.setLocation(frame.playerX, frame.playerY);
+        score = frame.score;
+        level = frame.level;
+        lives = frame.lives;
+        timeLeft = frame.timeLeftMillis;
+        gameOver = frame.gameOver;
+        levelComplete = frame.levelComplete;
+        hasShield = frame.shield;
+        infectionRange = frame.boost ? 3 : 1;
+    }
+
+    // --- Make/unmake for search ---
+
+    /**
+     * Applies {@link #movePlayer(int, int)} so that it can be reverted with {@link #unmake()}.
+     */
+    public void makeMove(int dx, int dy) {
+        pushUndoFrame();
+        movePlayer(dx, dy);
+    }
+
+    /**
+     * Applies {@link #tick(long)} so that it can be reverted with {@link #unmake()}.
+     */
+    public void makeTick(long deltaTime) {
+        pushUndoFrame();
+        tick(deltaTime);
+    }
+
+    /**
+     * Applies {@link #nextLevel()} so that it can be reverted with {@link #unmake()}.
+     */
+    public void makeNextLevel() {
+        pushUndoFrame();
+        nextLevel();
+    }
+
+    /**
+     * Applies {@link #startNewGame()} so that it can be reverted with {@link #unmake()}.
+     */
+    public void makeNewGame() {
+        pushUndoFrame();
+        startNewGame();
+    }
+
+    /**
+     * Reverts the most recent {@link #makeMove} or {@link #makeTick}. Only the cells
+     * written since then are touched.
+     */
+    public void unmake() {
+        if (undoDepth == 0) {
+            throw new IllegalStateException("Nothing to unmake");
+        }
+        UndoFrame frame = undoFrames.get(--undoDepth);
+        int depth = undoDepth;
+        undoDepth = 0; // restoring writes must not be journaled
+        while (journalSize > frame.journalMark) {
+            journalSize--;
+            int cell = journalCells[journalSize];
+            setCell(cell / height, cell % height, TYPES[journalTypes[journalSize]]);
+        }
+        undoDepth = depth;
+        frame.restore(this);
+    }
+
+    /**
+     * @return the number of moves or ticks that can currently be unmade
+     */
+    public int getUndoDepth() { return undoDepth; }
+
+    /**
+     * Forgets the oldest moves or ticks so that a long-running history stays bounded.
+     * The newest ones can still be unmade as before.
+     */
+    public void discardOldestUndo(int count) {
+        count = Math.min(count, undoDepth);
+        if (count <= 0) return;
+        int mark = count < undoDepth ? undoFrames.get(count).journalMark : journalSize;
+        System.arraycopy(journalCells, mark, journalCells, 0, journalSize - mark);
+        System.arraycopy(journalTypes, mark, journalTypes, 0, journalSize - mark);
+        journalSize -= mark;
+        Collections.rotate(undoFrames.subList(0, undoDepth), -count);
+        undoDepth -= count;
+        for (int i = 0; i < undoDepth; i++) {
+            undoFrames.get(i).journalMark -= mark;
+        }
+    }
+
+    private void pushUndoFrame() {
+        if (undoDepth == undoFrames.size()) {
+            undoFrames.add(new UndoFrame());
+        }
+        undoFrames.get(undoDepth++).save(this);
+    }
+
+    private void journal(int cell, EntityType old) {
+        if (journalSize == journalCells.length) {
+            journalCells = Arrays.copyOf(journalCells, journalSize * 2);
+            journalTypes = Arrays.copyOf(journalTypes, journalSize * 2);
+        }
+        journalCells[journalSize] = cell;
+        journalTypes[journalSize] = (byte) old.ordinal();
+        journalSize++;
+    }
+
+    /**
+     * Everything a move or tick can change apart from the grid, which is journaled cell by cell.
+     * Frames are reused between searches so make/unmake does not allocate in steady state.
+     */
+    private static final class UndoFrame {
+        int journalMark;
+        int playerX, playerY;
+        int score, level, lives, timeLeft, infectionRange;
+        long clock, shieldEndTime, infectionEndTime, lastOutbreakTime, randomState, levelStartClock;
+        int levelSerial;
+        boolean gameOver, levelComplete, hasShield;
+        final EnemyList patrolling = new EnemyList();
+        final EnemyList chasing = new EnemyList();
+        final EnemyList randoms = new EnemyList();
+        final EnemyList spawners = new EnemyList();
+
+        void save(GameState s) {
+            journalMark = s.journalSize;
+            playerX = s.playerPos.x;
+            playerY = s.playerPos.y;
+            score = s.score;
+            level = s.level;
+            lives = s.lives;
+            timeLeft = s.timeLeft;
+            infectionRange = s.infectionRange;
+            clock = s.clock;
+            shieldEndTime = s.shieldEndTime;
+            infectionEndTime = s.infectionEndTime;
+            lastOutbreakTime = s.lastOutbreakTime;
+            randomState = s.random.getState();
+            levelStartClock = s.levelStartClock;
+            levelSerial = s.levelSerial;
+            gameOver = s.gameOver;
+            levelComplete = s.levelComplete;
+            hasShield = s.hasShield;
+            patrolling.copyFrom(s.patrollingEnemies);
+            chasing.copyFrom(s.chasingEnemies);
+            randoms.copyFrom(s.randomEnemies);
+            spawners.copyFrom(s.spawners);
+        }
+
+        void restore(GameState s) {
+            s.playerPos.setLocation(playerX, playerY);
+            s.score = score;
+            s.level = level;
+            s.lives = lives;
+            s.timeLeft = timeLeft;
+            s.infectionRange = infectionRange;
+            s.clock = clock;
+            s.shieldEndTime = shieldEndTime;
+            s.infectionEndTime = infectionEndTime;
+            s.lastOutbreakTime = lastOutbreakTime;
+            s.random.setState(randomState);
+            s.levelStartClock = levelStartClock;
+            s.levelSerial = levelSerial;
+            s.gameOver = gameOver;
+            s.levelComplete = levelComplete;
+            s.hasShield = hasShield;
+            s.patrollingEnemies.copyFrom(patrolling);
+            s.chasingEnemies.copyFrom(chasing);
+            s.randomEnemies.copyFrom(randoms);
+            s.spawners.copyFrom(spawners);
+        }
+    }
+
+    // --- Rewind ---
+
+    private static final int CORE_FIXED_BYTES = 8 * 4 + 6 * 8 + 1 + 4 * 4;
+
+    /**
+     * @return the bytes {@link #writeCore} needs for the current state
+     */
+    int coreSize() {
+        int enemies = patrollingEnemies.size() + chasingEnemies.size() + randomEnemies.size() + spawners.size();
+        return CORE_FIXED_BYTES + enemies * 16;
+    }
+
+    /**
+     * Writes everything but the grid, the same fields an undo frame keeps, in a fixed
+     * layout so consecutive ticks differ only in the bytes that changed. Read back with
+     * {@link #readCore} once the grid has been restored.
+     */
+    void writeCore(ByteBuffer out) {
+        out.putInt(playerPos.x).putInt(playerPos.y);
+        out.putInt(score).putInt(level).putInt(lives).putInt(timeLeft).putInt(infectionRange);
+        out.putInt(levelSerial);
+        out.putLong(clock).putLong(shieldEndTime).putLong(infectionEndTime).putLong(lastOutbreakTime);
+        out.putLong(random.getState()).putLong(levelStartClock);
+        out.put((byte) ((gameOver ? 1 : 0) | (levelComplete ? 2 : 0) | (hasShield ? 4 : 0)));
+        for (EnemyList list : enemyLists) {
+            out.putInt(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                out.putInt(list.x(i)).putInt(list.y(i)).putLong(list.data(i));
+            }
+        }
+    }
+
+    /**
+     * Restores what {@link #writeCore} wrote. Any checkpoint is re-taken from the restored
+     * state, since one from a later tick would put back cells and progress the rewind
+     * undid.
+     */
+    void readCore(ByteBuffer in) {
+        playerPos.setLocation(in.getInt(), in.getInt());
+        score = in.getInt();
+        level = in.getInt();
+        lives = in.getInt();
+        timeLeft = in.getInt();
+        infectionRange = in.getInt();
+        levelSerial = in.getInt();
+        clock = in.getLong();
+        shieldEndTime = in.getLong();
+        infectionEndTime = in.getLong();
+        lastOutbreakTime = in.getLong();
+        random.setState(in.getLong());
+        levelStartClock = in.getLong();
+        int flags = in.get();
+        gameOver = (flags & 1) != 0;
+        levelComplete = (flags & 2) != 0;
+        hasShield = (flags & 4) != 0;
+        for (EnemyList list : enemyLists) {
+            list.clear();
+            for (int i = in.getInt(); i > 0; i--) {
+                list.add(in.getInt(), in.getInt(), in.getLong());
+            }
         }
+        if (checkpoint != null) {
+            checkpoint.save(this, progressMilestone());
+        }
+        lastUpdateTime = System.currentTimeMillis(); // play resumes from the restored clock
+    }
+
+    /**
+     * Writes one cell while restoring an earlier state, through the same path as every
+     * other write so the hash, counters and planes follow.
+     */
+    void restoreCell(int x, int y, EntityType type) {
+        setCell(x, y, type);
     }
-    
+
+    // --- Position hashing ---
+
+    /**
+     * Zobrist-style hash of the position: every cell's type plus the player's power-up,
+     * lives and level state. The grid part is updated incrementally on every write.
+     * Remaining time and score are deliberately left out so that transpositions reached
+     * by different move orders hash the same.
+     */
+    public long getHash() {
+        long scalars = ((long) level << 40) | ((long) lives << 24) | ((long) infectionRange << 8) | (hasShield ? 1 : 0);
+        return gridHash ^ mix(scalars ^ 0x632BE59BD9B4E019L);
+    }
+
+    private long initialHash() {
+        long hash = 0;
+        for (int cell = 0; cell < width * height; cell++) {
+            hash ^= zobrist(cell, EntityType.EMPTY);
+        }
+        return hash;
+    }
+
+    // Keys are derived on the fly instead of tabulated so large boards need no key table
+    private static long zobrist(int cell, EntityType type) {
+        return mix(((long) cell << 4) + type.ordinal() + 1);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
     // Getters
     public EntityType[][] getGrid() { return grid; }
     public Point getPlayerPos() { return new Point(playerPos); }
     public int getScore() { return score; }
     public int getLevel() { return level; }
     public int getLives() { return lives; }
+    public int getLivesLost() { return MAX_LIVES - lives; }
+    public long getSeed() { return seed; } // as given to the constructor
     public int getTimeLeft() { return timeLeft / 1000; } // Convert to seconds
+    public int getTimeLeftMillis() { return timeLeft; }
+    public long getClock() { return clock; }
     public boolean isGameOver() { return gameOver; }
     public boolean isLevelComplete() { return levelComplete; }
     public boolean hasShield() { return hasShield; }
     public int getInfectionRange() { return infectionRange; }
+    public int getInfectedCells() { return infectedCells; }
+    /**
+     * @return the list tracking one kind of moving enemy or the spawners, for reading
+     * only, or null for a type that is not tracked
+     */
+    EnemyList getEnemies(EntityType type) {
+        return switch (type) {
+            case PATROLLING_ANTIVIRUS -> patrollingEnemies;
+            case CHASING_ANTIVIRUS -> chasingEnemies;
+            case RANDOM_ANTIVIRUS -> randomEnemies;
+            case ENEMY_SPAWNER -> spawners;
+            default -> null;
+        };
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
 }
@@ -1,54 +1,72 @@
 package com.virusvector;
 
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import javax.swing.*;
 
+/**
+ * The game's frame. It shows one {@link Screen} at a time and drives its lifecycle:
+ * the outgoing screen is disposed before the next is attached, and the current one is
+ * paused while the window is minimised.
+ */
 public final class GameWindow extends JFrame {
     private static final int WINDOW_WIDTH = 800;
     private static final int WINDOW_HEIGHT = 600;
     private static final String GAME_TITLE = "VIRUS VECTOR - Infection Maze";
     
-    private JPanel currentScreen;
+    private Screen currentScreen;
+    private final InetSocketAddress server; // null for local games
+    private final boolean predict;
 
     public GameWindow() {
+        this(null, false);
+    }
+
+    /**
+     * @param server game server to play on, or null to simulate games locally
+     * @param predict whether to simulate ahead of the server ({@link PredictedGame})
+     *                rather than only render what it sends ({@link RemoteGame})
+     */
+    public GameWindow(InetSocketAddress server, boolean predict) {
+        this.server = server;
+        this.predict = predict;
         // Initialize window properties
         initWindow();
         
         // Initialize with home screen
         showHomeScreen();
         setVisible(true);
+        Startup.mark("window shown");
+        Startup.preloadGameClasses();
     }
     
     private void initWindow() {
         setTitle(GAME_TITLE);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setResizable(false);
-        // Set custom window icon
-        try {
-            ImageIcon ig = new ImageIcon("virus logo-new.jpg");
-            setIconImage(ig.getImage());
-        } catch (Exception e) {
-            System.out.println("Could not load custom window icon");
-        }
+        Startup.loadIcons(this); // a placeholder until the images are read
         setSize(WINDOW_WIDTH, WINDOW_HEIGHT);
         setLocationRelativeTo(null);
-        
-        // Set application icon
-        try {
-            ImageIcon icon = new ImageIcon(getClass().getResource("/icon.png"));
-            setIconImage(icon.getImage());
-        } catch (Exception e) {
-            // Use default icon if custom icon not found
-            System.out.println("Could not load custom window icon");
-        }
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowIconified(WindowEvent e) {
+                if (currentScreen != null) currentScreen.pause();
+            }
+
+            @Override
+            public void windowDeiconified(WindowEvent e) {
+                if (currentScreen != null) currentScreen.resume();
+            }
+        });
     }
     
     private void cleanupCurrentScreen() {
         if (currentScreen != null) {
-            if (currentScreen instanceof HomeScreen homeScreen) {
-                homeScreen.dispose();
-            }
-            remove(currentScreen);
+            currentScreen.dispose();
+            getContentPane().removeAll();
             currentScreen = null;
         }
     }
@@ -70,17 +88,29 @@ public final class GameWindow extends JFrame {
         cleanupCurrentScreen();
         
         // Create and show new home screen
-        currentScreen = new HomeScreen(this::startGame);
-        setContentPane(currentScreen);
+        HomeScreen homeScreen = new HomeScreen(this::startGame);
+        currentScreen = homeScreen;
+        setContentPane(homeScreen);
         updateTitle("Main Menu");
         revalidate();
         repaint();
+        homeScreen.attach();
     }
 
     public void startGame() {
+        NetworkGame remote = null;
+        if (server != null) {
+            try {
+                remote = predict ? new PredictedGame(server) : new RemoteGame(server);
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(this, "Could not connect to " + server + ": " + e.getMessage(),
+                    GAME_TITLE, JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+        }
         cleanupCurrentScreen();
         
-        GamePanel gamePanel = new GamePanel(this);
+        GamePanel gamePanel = new GamePanel(this, remote);
         currentScreen = gamePanel;
         
         // Add the game panel to a JPanel with BorderLayout
@@ -95,5 +125,6 @@ public final class GameWindow extends JFrame {
         // Request focus for the game panel
         gamePanel.setFocusable(true);
         gamePanel.requestFocusInWindow();
+        gamePanel.attach();
     }
 }
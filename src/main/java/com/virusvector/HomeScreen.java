@@ -10,39 +10,102 @@ import java.awt.FontMetrics;
 import java.awt.GradientPaint;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Stroke;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
+import java.awt.image.BufferedImage;
 import java.util.Random;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+/**
+ * Animated main menu. Drawing is layered: the glowing title, the centre virus and both
+ * states of the start button never change, so each is rendered once into an image and
+ * composited every frame, and only the background and moving particles are redrawn.
+ * Colours, fonts and strokes are shared constants so a frame allocates nothing.
+ * The animation only runs between {@link #attach()} and {@link #dispose()}.
+ */
+public class HomeScreen extends JPanel implements ActionListener, Screen {
+    private static final int FRAME_MILLIS = 33; // ~30 FPS
+    private static final Color BACKGROUND = new Color(15, 15, 30);
+    private static final Color GRID_LINE = new Color(30, 30, 60);
+    private static final Color TITLE_COLOR = new Color(0, 255, 0);
+    private static final Color SUBTITLE_COLOR = new Color(200, 200, 200, 200);
+    private static final Color LINK_COLOR = new Color(0, 255, 0, 100);
+    private static final Color VIRUS_DARK = new Color(0, 255, 0);
+    private static final Color VIRUS_LIGHT = new Color(200, 255, 200);
+    private static final Color BUTTON_BORDER = new Color(255, 255, 255, 100);
+    private static final Color TEXT_SHADOW = new Color(0, 0, 0, 100);
+    private static final Font TITLE_FONT = new Font("Monospaced", Font.BOLD, 48);
+    private static final Font SUBTITLE_FONT = new Font("Monospaced", Font.BOLD, 24);
+    private static final Font BUTTON_FONT = new Font("Monospaced", Font.BOLD, 20);
+    private static final Stroke LINE_STROKE = new BasicStroke(2);
+    private static final int GLOW_RADIUS = 5;
 
-public class HomeScreen extends JPanel implements ActionListener {
-    private static class BurstParticle {
-        float x, y, vx, vy, alpha;
-        Color color;
-        public BurstParticle(float x, float y, float vx, float vy, Color color) {
-            this.x = x; this.y = y; this.vx = vx; this.vy = vy; this.alpha = 1.0f; this.color = color;
+    // Colours that vary per frame, precomputed: background motes by alpha, orbiting particles by hue
+    private static final Color[] MOTE_COLORS = new Color[32];
+    private static final Color[] HUE_COLORS = new Color[256];
+    static {
+        for (int i = 0; i < MOTE_COLORS.length; i++) {
+            float alpha = 0.3f + 0.5f * i / (MOTE_COLORS.length - 1);
+            MOTE_COLORS[i] = new Color(100, 255, 100, (int)(alpha * 255));
+        }
+        for (int i = 0; i < HUE_COLORS.length; i++) {
+            HUE_COLORS[i] = Color.getHSBColor(i / (float) HUE_COLORS.length, 0.8f, 1.0f);
         }
     }
-    private final java.util.List<BurstParticle> burstParticles = new ArrayList<>();
+
+    private final ParticleSystem burstParticles = new ParticleSystem(256);
+    private final int burstDark = burstParticles.addRamp(VIRUS_DARK);
+    private final int burstLight = burstParticles.addRamp(VIRUS_LIGHT);
     private long lastBurstTime = 0;
 
     private final Rectangle startButton;
     private final Timer animationTimer;
     @SuppressWarnings("unused") // Used in mouseClicked handler
     private final Runnable onStartGame;
+    private boolean hover; // pointer over the start button
+    private boolean painted;
+    private final RenderQuality quality = new RenderQuality(FRAME_MILLIS);
     private float hue = 0f;
     private int animationOffset = 0;
     private final Random random = new Random();
     private final int[][] virusPixels = new int[10][10];
 
+    // Static layers, rendered on first paint
+    private Layer titleLayer;
+    private Layer virusLayer;
+    private Layer buttonLayer;
+    private Layer buttonHoverLayer;
+
+    /**
+     * A part of the menu rendered once into a translucent image at a fixed position.
+     */
+    private static final class Layer {
+        final BufferedImage image;
+        final int x, y;
+
+        Layer(Rectangle bounds) {
+            image = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB_PRE);
+            x = bounds.x;
+            y = bounds.y;
+        }
+
+        Graphics2D createGraphics() {
+            Graphics2D g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.translate(-x, -y);
+            return g;
+        }
+
+        void draw(Graphics2D g2d) {
+            g2d.drawImage(image, x, y, null);
+        }
+    }
+
     public HomeScreen(Runnable onStartGame) {
         this.onStartGame = onStartGame;
         
@@ -56,19 +119,15 @@ public class HomeScreen extends JPanel implements ActionListener {
         // Initialize start button
         startButton = new Rectangle(300, 450, 200, 50);
         
-        // Set up animation timer
-        animationTimer = new Timer(33, this); // ~30 FPS
-        animationTimer.start();
+        // Set up animation timer, started once the menu is shown
+        animationTimer = new Timer(FRAME_MILLIS, this);
         
         // Enable mouse motion for hover effects
         addMouseMotionListener(new MouseMotionAdapter() {
             @Override
             public void mouseMoved(MouseEvent e) {
-                if (startButton.contains(e.getPoint())) {
-                    setCursor(new Cursor(Cursor.HAND_CURSOR));
-                } else {
-                    setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
-                }
+                hover = startButton.contains(e.getPoint());
+                setCursor(Cursor.getPredefinedCursor(hover ? Cursor.HAND_CURSOR : Cursor.DEFAULT_CURSOR));
             }
         });
         
@@ -77,7 +136,7 @@ public class HomeScreen extends JPanel implements ActionListener {
             @Override
             public void mouseClicked(MouseEvent e) {
                 if (startButton.contains(e.getPoint())) {
-                    animationTimer.stop();
+                    // The window disposes this screen once the game has started
                     if (onStartGame != null) {
                         onStartGame.run();
                     }
@@ -88,6 +147,11 @@ public class HomeScreen extends JPanel implements ActionListener {
             public void mouseEntered(MouseEvent e) {
                 requestFocusInWindow();
             }
+
+            @Override
+            public void mouseExited(MouseEvent e) {
+                hover = false;
+            }
         });
         
         // Request focus for key events
@@ -109,62 +173,120 @@ public class HomeScreen extends JPanel implements ActionListener {
                 spawnBurstParticles();
                 lastBurstTime = now;
             }
-            updateBurstParticles();
+            burstParticles.update();
             repaint();
         }
     }
 
+    @Override
+    public void attach() {
+        animationTimer.start();
+    }
+
+    @Override
+    public void pause() {
+        animationTimer.stop();
+    }
+
+    @Override
+    public void resume() {
+        animationTimer.start();
+    }
+
     /**
-     * Cleans up resources when this panel is no longer in use.
+     * Stops the animation and drops the cached layers and particle overlay.
      */
+    @Override
     public void dispose() {
-        if (animationTimer != null && animationTimer.isRunning()) {
-            animationTimer.stop();
-        }
+        animationTimer.stop();
+        titleLayer = virusLayer = buttonLayer = buttonHoverLayer = null;
+        burstParticles.dispose();
         removeAll();
     }
     
     @Override
     protected void paintComponent(Graphics g) {
+        quality.beginFrame();
         super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g;
         
-        // Enable anti-aliasing for smoother graphics
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        // Anti-aliasing only while the machine keeps up with it
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, quality.getTier().antialiasing()
+            ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        if (titleLayer == null) {
+            renderStaticLayers();
+        }
         
         // Draw animated background
         drawAnimatedBackground(g2d);
         
         // Draw title with glow effect
-        drawTitle(g2d);
+        titleLayer.draw(g2d);
         
         // Draw virus animation
         drawVirusAnimation(g2d);
         // Draw pixel burst particles
-        drawBurstParticles(g2d);
+        burstParticles.draw(g2d, getWidth(), getHeight());
         // Draw start button with hover effect
-        drawStartButton(g2d);
+        (hover ? buttonHoverLayer : buttonLayer).draw(g2d);
+        quality.endFrame();
+        if (!painted) {
+            painted = true;
+            Startup.mark(Startup.MENU_FRAME);
+        }
+    }
+
+    private void renderStaticLayers() {
+        FontMetrics title = getFontMetrics(TITLE_FONT);
+        FontMetrics subtitle = getFontMetrics(SUBTITLE_FONT);
+        int pad = GLOW_RADIUS + 2;
+        Rectangle titleBounds = new Rectangle(400 - title.stringWidth("VIRUS VECTOR") / 2 - pad,
+            150 - title.getAscent() - pad, title.stringWidth("VIRUS VECTOR") + pad * 2,
+            title.getAscent() + title.getDescent() + pad * 2);
+        titleBounds.add(new Rectangle(400 - subtitle.stringWidth("INFECTION MAZE") / 2 - 2,
+            200 - subtitle.getAscent() - 2, subtitle.stringWidth("INFECTION MAZE") + 4,
+            subtitle.getAscent() + subtitle.getDescent() + 4));
+        titleLayer = new Layer(titleBounds);
+        Graphics2D g = titleLayer.createGraphics();
+        drawTitle(g);
+        g.dispose();
+
+        virusLayer = new Layer(new Rectangle(400 - 60, 300 - 60, 120, 120));
+        g = virusLayer.createGraphics();
+        drawVirus(g);
+        g.dispose();
+
+        Rectangle buttonBounds = new Rectangle(startButton);
+        buttonBounds.grow(GLOW_RADIUS + 2, GLOW_RADIUS + 2);
+        buttonLayer = new Layer(buttonBounds);
+        buttonHoverLayer = new Layer(buttonBounds);
+        g = buttonLayer.createGraphics();
+        drawStartButton(g, false);
+        g.dispose();
+        g = buttonHoverLayer.createGraphics();
+        drawStartButton(g, true);
+        g.dispose();
     }
     
     private void drawAnimatedBackground(Graphics2D g2d) {
         // Draw grid background
-        g2d.setColor(new Color(15, 15, 30));
+        g2d.setColor(BACKGROUND);
         g2d.fillRect(0, 0, getWidth(), getHeight());
         
         // Draw animated grid lines
-        g2d.setColor(new Color(30, 30, 60));
+        g2d.setColor(GRID_LINE);
         for (int x = 0; x < getWidth(); x += 40) {
             int offset = (int)(Math.sin((x + animationOffset * 4) * 0.05) * 10);
             g2d.drawLine(x, 0, x + offset, getHeight());
         }
         
         // Draw some floating particles
-        for (int i = 0; i < 50; i++) {
+        int motes = quality.getTier().particles(50);
+        for (int i = 0; i < motes; i++) {
             int size = random.nextInt(3) + 1;
             int x = random.nextInt(getWidth());
             int y = (random.nextInt(5) * 120 + animationOffset * 2) % getHeight();
-            float alpha = random.nextFloat() * 0.5f + 0.3f;
-            g2d.setColor(new Color(100, 255, 100, (int)(alpha * 255)));
+            g2d.setColor(MOTE_COLORS[random.nextInt(MOTE_COLORS.length)]);
             g2d.fillOval(x, y, size, size);
         }
     }
@@ -174,23 +296,23 @@ public class HomeScreen extends JPanel implements ActionListener {
         String subtitle = "INFECTION MAZE";
         
         // Draw main title with glow effect
-        drawTextWithGlow(g2d, title, 400, 150, 48, new Color(0, 255, 0));
+        drawTextWithGlow(g2d, title, 400, 150, TITLE_FONT, TITLE_COLOR);
         
         // Draw subtitle
-        g2d.setColor(new Color(200, 200, 200, 200));
-        g2d.setFont(new Font("Monospaced", Font.BOLD, 24));
+        g2d.setColor(SUBTITLE_COLOR);
+        g2d.setFont(SUBTITLE_FONT);
         int subWidth = g2d.getFontMetrics().stringWidth(subtitle);
         g2d.drawString(subtitle, 400 - subWidth / 2, 200);
     }
     
-    private void drawTextWithGlow(Graphics2D g2d, String text, int x, int y, int size, Color baseColor) {
-        Font font = new Font("Monospaced", Font.BOLD, size);
+    // Only ever drawn into the cached title layer: it takes a few hundred drawString calls
+    private void drawTextWithGlow(Graphics2D g2d, String text, int x, int y, Font font, Color baseColor) {
         g2d.setFont(font);
         FontMetrics fm = g2d.getFontMetrics();
         int textWidth = fm.stringWidth(text);
         
         // Draw glow effect
-        for (int i = 5; i > 0; i--) {
+        for (int i = GLOW_RADIUS; i > 0; i--) {
             float alpha = 0.1f * (6 - i);
             g2d.setColor(new Color(0, 255, 0, (int)(alpha * 40)));
             for (int dx = -i; dx <= i; dx++) {
@@ -218,33 +340,39 @@ public class HomeScreen extends JPanel implements ActionListener {
             int y = centerY + (int)(Math.sin(angle) * 60);
             
             // Draw virus particle
-            g2d.setColor(Color.getHSBColor(hue + (float)i/particles, 0.8f, 1.0f));
+            float particleHue = hue + (float)i/particles;
+            g2d.setColor(HUE_COLORS[(int)((particleHue - (int) particleHue) * HUE_COLORS.length)]);
             g2d.fillOval(x - size/4, y - size/4, size/2, size/2);
             
             // Draw connecting lines
-            g2d.setStroke(new BasicStroke(2));
-            g2d.setColor(new Color(0, 255, 0, 100));
+            g2d.setStroke(LINE_STROKE);
+            g2d.setColor(LINK_COLOR);
             g2d.drawLine(centerX, centerY, x, y);
         }
         
         // Draw main virus in the center
-        int virusSize = size + 20;
+        virusLayer.draw(g2d);
+    }
+
+    private void drawVirus(Graphics2D g2d) {
+        int centerX = 400;
+        int centerY = 300;
+        int virusSize = 120;
         for (int i = 0; i < 10; i++) {
             for (int j = 0; j < 10; j++) {
                 if (virusPixels[i][j] > 0) {
                     int px = centerX - virusSize/2 + j * (virusSize/10);
                     int py = centerY - virusSize/2 + i * (virusSize/10);
-                    Color c = virusPixels[i][j] == 1 ? new Color(0, 255, 0) : new Color(200, 255, 200);
-                    g2d.setColor(c);
+                    g2d.setColor(virusPixels[i][j] == 1 ? VIRUS_DARK : VIRUS_LIGHT);
                     g2d.fillRect(px, py, virusSize/10, virusSize/10);
                 }
             }
         }
     }
     
-    private void drawStartButton(Graphics2D g2d) {
+    private void drawStartButton(Graphics2D g2d, boolean isHover) {
         // Button glow effect
-        for (int i = 5; i > 0; i--) {
+        for (int i = GLOW_RADIUS; i > 0; i--) {
             int alpha = 100 - i * 15;
             g2d.setColor(new Color(255, 50, 50, alpha));
             g2d.fillRoundRect(
@@ -256,9 +384,7 @@ public class HomeScreen extends JPanel implements ActionListener {
             );
         }
         
-        // Button background - safely handle null mouse position
-        Point mousePos = getMousePosition();
-        boolean isHover = mousePos != null && startButton.contains(mousePos);
+        // Button background
         GradientPaint gradient = new GradientPaint(
             startButton.x, startButton.y, 
             isHover ? new Color(255, 80, 80) : new Color(200, 0, 0),
@@ -273,8 +399,8 @@ public class HomeScreen extends JPanel implements ActionListener {
         );
         
         // Button border
-        g2d.setColor(new Color(255, 255, 255, 100));
-        g2d.setStroke(new BasicStroke(2));
+        g2d.setColor(BUTTON_BORDER);
+        g2d.setStroke(LINE_STROKE);
         g2d.drawRoundRect(
             startButton.x, startButton.y, 
             startButton.width, startButton.height,
@@ -284,12 +410,12 @@ public class HomeScreen extends JPanel implements ActionListener {
         // Button text
         String text = "START INFECTION";
         g2d.setColor(Color.WHITE);
-        g2d.setFont(new Font("Monospaced", Font.BOLD, 20));
+        g2d.setFont(BUTTON_FONT);
         FontMetrics fm = g2d.getFontMetrics();
         int textWidth = fm.stringWidth(text);
         
         // Text shadow
-        g2d.setColor(new Color(0, 0, 0, 100));
+        g2d.setColor(TEXT_SHADOW);
         g2d.drawString(text, 
             startButton.x + (startButton.width - textWidth) / 2 + 2, 
             startButton.y + startButton.height / 2 + fm.getAscent() / 2 - 1 + 2);
@@ -303,37 +429,11 @@ public class HomeScreen extends JPanel implements ActionListener {
 
     // --- Pixel burst animation ---
     private void spawnBurstParticles() {
-        int centerX = 400;
-        int centerY = 300;
-        int virusSize = 120;
-        int px = centerX;
-        int py = centerY;
-        for (int i = 0; i < 6; i++) {
-            double angle = Math.random() * Math.PI * 2;
-            float speed = 2.0f + (float)Math.random() * 1.5f;
-            float vx = (float)(Math.cos(angle) * speed);
-            float vy = (float)(Math.sin(angle) * speed + 1.5); // Add downward bias
-            Color c = Math.random() > 0.5 ? new Color(0,255,0) : new Color(200,255,200);
-            burstParticles.add(new BurstParticle(px, py, vx, vy, c));
-        }
-    }
-
-    private void updateBurstParticles() {
-        Iterator<BurstParticle> it = burstParticles.iterator();
-        while (it.hasNext()) {
-            BurstParticle p = it.next();
-            p.x += p.vx;
-            p.y += p.vy;
-            p.alpha -= 0.025f + Math.random()*0.01f;
-            if (p.alpha <= 0f) it.remove();
-        }
-    }
-
-    private void drawBurstParticles(Graphics2D g2d) {
-        for (BurstParticle p : burstParticles) {
-            int size = 8;
-            g2d.setColor(new Color(p.color.getRed(), p.color.getGreen(), p.color.getBlue(), (int)(p.alpha*255)));
-            g2d.fillRect((int)p.x - size/2, (int)p.y - size/2, size, size);
+        int count = quality.getTier().particles(6);
+        for (int i = 0; i < count; i++) {
+            // Downward bias; each particle fades out over about 30 frames
+            burstParticles.burst(400, 300, 1, 2.0f, 3.5f, 1.5f, 0.025f,
+                random.nextBoolean() ? burstDark : burstLight, 8);
         }
     }
 }
@@ -0,0 +1,111 @@
+package com.virusvector;
+
+/**
+ * Changes the HUD has to show, passed from the game to the panel through a fixed ring
+ * of packed longs. One thread offers and one thread polls, so the two indices are
+ * each written by a single side and no lock is needed; nothing is allocated per event.
+ *
+ * {@link #publish} turns the state's HUD values into events by comparing them with
+ * what was published last, so only changes are queued. Pickups and firewall breaches
+ * are offered by the game itself as they happen.
+ */
+public final class HudEvents {
+    public static final int SCORE = 0;
+    public static final int LIVES = 1;
+    public static final int LEVEL = 2;
+    public static final int TIME = 3; // seconds left
+    public static final int SHIELD = 4; // 1 when active
+    public static final int BOOST = 5; // infection range
+    public static final int PICKUP = 6; // ordinal of the power-up
+    public static final int FIREWALL_BREACHED = 7;
+    public static final int LEVEL_COMPLETE = 8;
+    public static final int GAME_OVER = 9;
+
+    /** Returned by {@link #poll()} when the queue is empty. */
+    public static final long NONE = -1L;
+
+    private static final int CAPACITY = 256;
+    private static final int UNSET = Integer.MIN_VALUE;
+
+    private final long[] ring = new long[CAPACITY];
+    private volatile long head; // next slot to read, written by the consumer
+    private volatile long tail; // next slot to write, written by the producer
+    private volatile boolean overflowed;
+
+    // Last published values, owned by the producer
+    private int score = UNSET;
+    private int lives = UNSET;
+    private int level = UNSET;
+    private int time = UNSET;
+    private int shield = UNSET;
+    private int boost = UNSET;
+    private int complete = UNSET;
+    private int over = UNSET;
+
+    /**
+     * Queues an event; when the consumer has fallen a whole ring behind the event is
+     * dropped and {@link #takeOverflow()} reports it.
+     *
+     * @return whether the event was queued
+     */
+    public boolean offer(int type, int value) {
+        long t = tail;
+        if (t - head == CAPACITY) {
+            overflowed = true;
+            return false;
+        }
+        ring[(int) t & (CAPACITY - 1)] = (long) type << 32 | (value & 0xFFFFFFFFL);
+        tail = t + 1;
+        return true;
+    }
+
+    /** @return the next packed event, or {@link #NONE} */
+    public long poll() {
+        long h = head;
+        if (h == tail) return NONE;
+        long event = ring[(int) h & (CAPACITY - 1)];
+        head = h + 1;
+        return event;
+    }
+
+    public static int type(long event) { return (int) (event >>> 32); }
+
+    public static int value(long event) { return (int) event; }
+
+    /**
+     * @return whether events were dropped since the last call, in which case the
+     * consumer should redraw everything from the state
+     */
+    public boolean takeOverflow() {
+        if (!overflowed) return false;
+        overflowed = false;
+        return true;
+    }
+
+    /**
+     * Queues an event for every HUD value of the state that differs from the last one
+     * published.
+     */
+    public void publish(GameState state) {
+        score = changed(SCORE, score, state.getScore());
+        lives = changed(LIVES, lives, state.getLives());
+        level = changed(LEVEL, level, state.getLevel());
+        time = changed(TIME, time, state.getTimeLeft());
+        shield = changed(SHIELD, shield, state.hasShield() ? 1 : 0);
+        boost = changed(BOOST, boost, state.getInfectionRange());
+        complete = changed(LEVEL_COMPLETE, complete, state.isLevelComplete() ? 1 : 0);
+        over = changed(GAME_OVER, over, state.isGameOver() ? 1 : 0);
+    }
+
+    private int changed(int type, int last, int now) {
+        if (now != last && !offer(type, now)) {
+            return UNSET; // try again on the next publish
+        }
+        return now;
+    }
+
+    /** Forgets what was published, so the next {@link #publish} sends every value. */
+    public void reset() {
+        score = lives = level = time = shield = boost = complete = over = UNSET;
+    }
+}
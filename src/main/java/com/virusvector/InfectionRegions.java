@@ -0,0 +1,410 @@
+package com.virusvector;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The connected regions of infected cells (four-neighbour connectivity), kept in a
+ * union-find that follows every cell change: a newly infected cell starts a region of
+ * its own and is joined to each infected neighbour, so an infection stamp costs a few
+ * near-constant finds and unions. Each region's size and bounding box live at its root.
+ *
+ * Union-find cannot split, so a cell that stops being infected only marks its region
+ * stale. The next query rebuilds the stale regions from the cells inside their bounding
+ * boxes, or the whole board when that would be cheaper, such as after a new level.
+ * Cells infected while regions are stale wait for the same rebuild.
+ *
+ * Region ids are small integers that stay the same while a region grows; a region
+ * joined into a larger one, or rebuilt, gets a new id.
+ */
+public final class InfectionRegions {
+    private static final int UNLINKED = -1; // not part of any tree
+    // Roots hold -(id + 2) in parent
+
+    private final int width;
+    private final int height;
+    private final int[] parent; // row-major cells
+    private final long[] member; // infected cells, one bit each
+
+    // Per region, indexed by id
+    private int[] size = new int[64];
+    private int[] minX = new int[64];
+    private int[] minY = new int[64];
+    private int[] maxX = new int[64];
+    private int[] maxY = new int[64];
+    private boolean[] stale = new boolean[64];
+    private int[] freeIds = new int[64];
+    private int freeCount;
+    private int idCount;
+    private int regionCount;
+
+    // Waiting for a rebuild
+    private int[] staleIds = new int[16];
+    private int staleCount;
+    private int[] pending = new int[64]; // cells infected while regions were stale
+    private int pendingCount;
+    private int[] collected = new int[64];
+
+    public InfectionRegions(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.parent = new int[width * height];
+        this.member = new long[(width * height + 63) >>> 6];
+        Arrays.fill(parent, UNLINKED);
+    }
+
+    /**
+     * Reads which cells are infected from a whole grid, indexed {@code [x][y]}, and
+     * builds the regions from scratch.
+     */
+    public void load(EntityType[][] grid) {
+        Arrays.fill(member, 0);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (GameState.isInfection(grid[x][y])) {
+                    int cell = y * width + x;
+                    member[cell >>> 6] |= 1L << cell;
+                }
+            }
+        }
+        rebuildAll();
+    }
+
+    /**
+     * Records that a cell became infected or stopped being infected.
+     */
+    public void cellChanged(int x, int y, boolean infected) {
+        int cell = y * width + x;
+        long bit = 1L << cell;
+        if (((member[cell >>> 6] & bit) != 0) == infected) return;
+        member[cell >>> 6] ^= bit;
+        if (!infected) {
+            // The tree is left as it is, so the region's other cells can still be found from it
+            int root = find(cell);
+            if (root >= 0) markStale(idOf(root));
+        } else if (staleCount > 0) {
+            if (find(cell) < 0) { // cells still linked into a stale tree are rebuilt with it
+                parent[cell] = UNLINKED;
+                pending = push(pending, pendingCount++, cell);
+            }
+        } else {
+            parent[cell] = rootValue(newRegion(x, y));
+            joinNeighbours(cell, x, y);
+        }
+    }
+
+    private void joinNeighbours(int cell, int x, int y) {
+        if (x > 0 && isMember(cell - 1)) union(cell, cell - 1);
+        if (x < width - 1 && isMember(cell + 1)) union(cell, cell + 1);
+        if (y > 0 && isMember(cell - width)) union(cell, cell - width);
+        if (y < height - 1 && isMember(cell + width)) union(cell, cell + width);
+    }
+
+    private boolean isMember(int cell) {
+        return (member[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    // --- Queries, each of which first rebuilds anything stale ---
+
+    /** @return the id of the region holding the cell, or -1 if it is not infected */
+    public int regionAt(int x, int y) {
+        settle();
+        int cell = y * width + x;
+        return isMember(cell) ? idOf(find(cell)) : -1;
+    }
+
+    public int getRegionCount() {
+        settle();
+        return regionCount;
+    }
+
+    public int getSize(int region) {
+        settle();
+        return size[region];
+    }
+
+    public int getMinX(int region) { settle(); return minX[region]; }
+    public int getMinY(int region) { settle(); return minY[region]; }
+    public int getMaxX(int region) { settle(); return maxX[region]; }
+    public int getMaxY(int region) { settle(); return maxY[region]; }
+
+    /** @return the id of the largest region, or -1 when nothing is infected; scans every region */
+    public int getLargestRegion() {
+        settle();
+        int best = -1;
+        for (int id = 0; id < idCount; id++) {
+            if (size[id] > 0 && (best < 0 || size[id] > size[best])) best = id;
+        }
+        return best;
+    }
+
+    // --- Union-find ---
+
+    private static int rootValue(int id) {
+        return -id - 2;
+    }
+
+    private int idOf(int root) {
+        return -parent[root] - 2;
+    }
+
+    /** @return the root of the cell's tree, or -1 for a cell in no tree */
+    private int find(int cell) {
+        if (parent[cell] == UNLINKED) return -1;
+        while (parent[cell] >= 0) {
+            int up = parent[cell];
+            if (parent[up] >= 0) {
+                parent[cell] = parent[up]; // path halving
+            }
+            cell = parent[cell];
+        }
+        return cell;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) return;
+        int idA = idOf(rootA);
+        int idB = idOf(rootB);
+        if (size[idA] < size[idB]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+            swap = idA;
+            idA = idB;
+            idB = swap;
+        }
+        parent[rootB] = rootA;
+        size[idA] += size[idB];
+        minX[idA] = Math.min(minX[idA], minX[idB]);
+        minY[idA] = Math.min(minY[idA], minY[idB]);
+        maxX[idA] = Math.max(maxX[idA], maxX[idB]);
+        maxY[idA] = Math.max(maxY[idA], maxY[idB]);
+        freeRegion(idB);
+    }
+
+    private int newRegion(int x, int y) {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            id = idCount++;
+            if (id == size.length) {
+                int capacity = id * 2;
+                size = Arrays.copyOf(size, capacity);
+                minX = Arrays.copyOf(minX, capacity);
+                minY = Arrays.copyOf(minY, capacity);
+                maxX = Arrays.copyOf(maxX, capacity);
+                maxY = Arrays.copyOf(maxY, capacity);
+                stale = Arrays.copyOf(stale, capacity);
+            }
+        }
+        size[id] = 1;
+        minX[id] = maxX[id] = x;
+        minY[id] = maxY[id] = y;
+        stale[id] = false;
+        regionCount++;
+        return id;
+    }
+
+    private void freeRegion(int id) {
+        size[id] = 0;
+        freeIds = push(freeIds, freeCount++, id);
+        regionCount--;
+    }
+
+    private void markStale(int id) {
+        if (stale[id]) return;
+        stale[id] = true;
+        staleIds = push(staleIds, staleCount++, id);
+    }
+
+    private static int[] push(int[] array, int index, int value) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, index * 2);
+        }
+        array[index] = value;
+        return array;
+    }
+
+    // --- Rebuilding after cells stopped being infected ---
+
+    private void settle() {
+        if (staleCount == 0) return;
+        long area = 0;
+        for (int i = 0; i < staleCount; i++) {
+            int id = staleIds[i];
+            area += (long) (maxX[id] - minX[id] + 1) * (maxY[id] - minY[id] + 1);
+        }
+        if (area * 4 > (long) width * height) {
+            rebuildAll();
+            return;
+        }
+
+        // Find every cell of the stale regions while their trees are still intact
+        int count = 0;
+        for (int i = 0; i < staleCount; i++) {
+            int id = staleIds[i];
+            for (int y = minY[id]; y <= maxY[id]; y++) {
+                for (int x = minX[id]; x <= maxX[id]; x++) {
+                    int cell = y * width + x;
+                    int root = find(cell);
+                    if (root >= 0 && idOf(root) == id) {
+                        collected = push(collected, count++, cell);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < staleCount; i++) {
+            freeRegion(staleIds[i]);
+        }
+        staleCount = 0;
+
+        // Start every infected one again as a region of its own, then join neighbours
+        for (int i = 0; i < count; i++) {
+            int cell = collected[i];
+            parent[cell] = isMember(cell) ? rootValue(newRegion(cell % width, cell / width)) : UNLINKED;
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            int cell = pending[i];
+            if (isMember(cell) && parent[cell] == UNLINKED) {
+                parent[cell] = rootValue(newRegion(cell % width, cell / width));
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int cell = collected[i];
+            if (isMember(cell)) joinNeighbours(cell, cell % width, cell / width);
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            int cell = pending[i];
+            if (isMember(cell)) joinNeighbours(cell, cell % width, cell / width);
+        }
+        pendingCount = 0;
+    }
+
+    private void rebuildAll() {
+        Arrays.fill(parent, UNLINKED);
+        freeCount = 0;
+        idCount = 0;
+        regionCount = 0;
+        staleCount = 0;
+        pendingCount = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int cell = y * width + x;
+                if (!isMember(cell)) continue;
+                parent[cell] = rootValue(newRegion(x, y));
+                if (x > 0 && isMember(cell - 1)) union(cell, cell - 1);
+                if (y > 0 && isMember(cell - width)) union(cell, cell - width);
+            }
+        }
+    }
+
+    /**
+     * Stamps random discs of infection on a large board, like a player moving at the
+     * largest range, and now and then clears a line through the infection to split
+     * regions. Times the stamps against a flood fill of the board after each one, and
+     * checks the regions against the flood fill as it goes.
+     */
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int stamps = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        Random random = new Random(9);
+        InfectionRegions regions = new InfectionRegions(size, size);
+        boolean[] infected = new boolean[size * size];
+        int x = size / 2;
+        int y = size / 2;
+        long stampNanos = 0;
+        long splitNanos = 0;
+        int splits = 0;
+        for (int s = 0; s < stamps; s++) {
+            x = Math.max(3, Math.min(size - 4, x + random.nextInt(3) - 1));
+            y = Math.max(3, Math.min(size - 4, y + random.nextInt(3) - 1));
+            if (random.nextInt(2000) == 0) {
+                x = 3 + random.nextInt(size - 6); // jump, to start separate regions
+                y = 3 + random.nextInt(size - 6);
+            }
+            long start = System.nanoTime();
+            for (int dx = -3; dx <= 3; dx++) {
+                for (int dy = -3; dy <= 3; dy++) {
+                    if (dx * dx + dy * dy <= 9 && !infected[(y + dy) * size + x + dx]) {
+                        infected[(y + dy) * size + x + dx] = true;
+                        regions.cellChanged(x + dx, y + dy, true);
+                    }
+                }
+            }
+            regions.regionAt(x, y);
+            stampNanos += System.nanoTime() - start;
+
+            if (s % 5000 == 4999) {
+                // Cut a line through the player's region, then query: the rare split
+                int cutX = x;
+                start = System.nanoTime();
+                for (int cy = Math.max(0, y - 40); cy < Math.min(size, y + 40); cy++) {
+                    if (infected[cy * size + cutX]) {
+                        infected[cy * size + cutX] = false;
+                        regions.cellChanged(cutX, cy, false);
+                    }
+                }
+                regions.getRegionCount();
+                splitNanos += System.nanoTime() - start;
+                splits++;
+            }
+            if (s % 50_000 == 49_999) {
+                check(regions, infected, size);
+            }
+        }
+        System.out.printf("%,d stamps: %.2f us per stamp and query; %d splits: %.2f ms each; %,d regions%n",
+            stamps, stampNanos / 1e3 / stamps, splits, splitNanos / 1e6 / Math.max(splits, 1),
+            regions.getRegionCount());
+
+        long start = System.nanoTime();
+        int fills = 20;
+        for (int i = 0; i < fills; i++) {
+            check(regions, infected, size);
+        }
+        System.out.printf("a flood fill of the board (what every stamp would cost otherwise): %.2f ms%n",
+            (System.nanoTime() - start) / 1e6 / fills);
+    }
+
+    // Labels the board with a flood fill and compares region count, sizes and boxes
+    private static void check(InfectionRegions regions, boolean[] infected, int size) {
+        int[] label = new int[size * size];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int count = 0;
+        for (int start = 0; start < label.length; start++) {
+            if (!infected[start] || label[start] != 0) continue;
+            count++;
+            int cells = 0, x0 = size, y0 = size, x1 = -1, y1 = -1;
+            label[start] = count;
+            queue.add(start);
+            while (!queue.isEmpty()) {
+                int cell = queue.poll();
+                int cx = cell % size, cy = cell / size;
+                cells++;
+                x0 = Math.min(x0, cx);
+                y0 = Math.min(y0, cy);
+                x1 = Math.max(x1, cx);
+                y1 = Math.max(y1, cy);
+                int[] next = {cx > 0 ? cell - 1 : -1, cx < size - 1 ? cell + 1 : -1,
+                    cy > 0 ? cell - size : -1, cy < size - 1 ? cell + size : -1};
+                for (int n : next) {
+                    if (n >= 0 && infected[n] && label[n] == 0) {
+                        label[n] = count;
+                        queue.add(n);
+                    }
+                }
+            }
+            int id = regions.regionAt(start % size, start / size);
+            if (regions.getSize(id) != cells || regions.getMinX(id) != x0 || regions.getMinY(id) != y0
+                || regions.getMaxX(id) != x1 || regions.getMaxY(id) != y1) {
+                throw new IllegalStateException("Region at " + start + " disagrees with the flood fill");
+            }
+        }
+        if (count != regions.getRegionCount()) {
+            throw new IllegalStateException(regions.getRegionCount() + " regions, flood fill found " + count);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.virusvector;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Loopback TCP relay that delays traffic both ways by a fixed latency plus random
+ * jitter, for trying network play on one machine. Byte order is kept, so jitter shows
+ * up as data arriving in bunches, as it does on a real connection.
+ *
+ * Its main method is a prediction test: it starts a {@link GameServer}, puts a proxy in
+ * front of it and plays a {@link PredictedGame} through that with random inputs, then
+ * reports how often and how far the client had to roll back.
+ */
+public final class LatencyProxy implements AutoCloseable {
+    private final ServerSocketChannel server;
+    private final InetSocketAddress target;
+    private final int latencyMillis;
+    private final int jitterMillis;
+    private volatile boolean closed;
+
+    private static final class Chunk {
+        final long due;
+        final byte[] data;
+
+        Chunk(long due, byte[] data) {
+            this.due = due;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Listens on a loopback port (0 picks a free one) and relays every connection to the target.
+     */
+    public LatencyProxy(int port, InetSocketAddress target, int latencyMillis, int jitterMillis) throws IOException {
+        this.target = target;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        Thread acceptor = new Thread(this::acceptLoop, "latency-proxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() { return server.socket().getLocalPort(); }
+
+    private void acceptLoop() {
+        try {
+            while (!closed) {
+                SocketChannel client = server.accept();
+                SocketChannel upstream = SocketChannel.open(target);
+                client.socket().setTcpNoDelay(true);
+                upstream.socket().setTcpNoDelay(true);
+                relay(client, upstream);
+                relay(upstream, client);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Starts a reader that timestamps whatever arrives and a writer that holds each
+     * chunk until it is due. A chunk is never due before the one ahead of it.
+     */
+    private void relay(SocketChannel from, SocketChannel to) {
+        BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+            long lastDue = 0;
+            try {
+                while (from.read(buffer) >= 0) {
+                    buffer.flip();
+                    byte[] data = new byte[buffer.remaining()];
+                    buffer.get(data);
+                    buffer.clear();
+                    long delay = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextInt(jitterMillis + 1) : 0);
+                    lastDue = Math.max(lastDue, System.nanoTime() + delay * 1_000_000L);
+                    queue.add(new Chunk(lastDue, data));
+                }
+            } catch (IOException e) {
+                // Connection closed
+            }
+            queue.add(new Chunk(0, null));
+        }, "latency-proxy-read");
+        Thread writer = new Thread(() -> {
+            try {
+                while (true) {
+                    Chunk chunk = queue.take();
+                    if (chunk.data == null) break;
+                    long wait;
+                    while ((wait = chunk.due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    ByteBuffer data = ByteBuffer.wrap(chunk.data);
+                    while (data.hasRemaining()) {
+                        to.write(data);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // Connection closed
+            }
+            try {
+                to.close();
+                from.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }, "latency-proxy-write");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Usage: {@code LatencyProxy [seconds] [latency ms] [jitter ms]}
+     */
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int latency = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int jitter = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+
+        GameServer gameServer = new GameServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread serverThread = new Thread(() -> {
+            try {
+                gameServer.run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "game-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), gameServer.getPort());
+        try (LatencyProxy proxy = new LatencyProxy(0, serverAddress, latency, jitter);
+             PredictedGame game = new PredictedGame(new InetSocketAddress(InetAddress.getLoopbackAddress(), proxy.getPort()))) {
+            System.out.printf("Playing through %d ms latency with %d ms jitter each way for %d s%n", latency, jitter, seconds);
+            Random random = new Random(1);
+            long frameNanos = 1_000_000_000L / GameServer.TICK_RATE;
+            long end = System.nanoTime() + seconds * 1_000_000_000L;
+            long inputs = 0;
+            for (long next = System.nanoTime(); next < end && game.isConnected(); next += frameNanos) {
+                GameState state = game.getState();
+                if (state.isGameOver()) {
+                    game.sendRestart();
+                    inputs++;
+                } else if (state.isLevelComplete()) {
+                    game.sendNextLevel();
+                    inputs++;
+                } else if (random.nextInt(5) == 0) {
+                    game.sendMove(random.nextInt(4));
+                    inputs++;
+                }
+                game.poll();
+                LockSupport.parkNanos(next + frameNanos - System.nanoTime());
+            }
+            long rollbacks = game.getRollbacks();
+            System.out.printf("ticks %d, inputs %d, lead %d ticks%n", game.getLocalTick(), inputs, game.getLeadTicks());
+            System.out.printf("rollbacks %d, avg %.1f ticks (max %d), avg %.1f us (max %.1f us)%n",
+                rollbacks,
+                rollbacks == 0 ? 0.0 : (double) game.getRollbackTicks() / rollbacks,
+                game.getMaxRollbackTicks(),
+                rollbacks == 0 ? 0.0 : game.getRollbackNanos() / 1000.0 / rollbacks,
+                game.getMaxRollbackNanos() / 1000.0);
+            System.out.printf("checksums matched %d, desyncs %d%n", game.getChecksPassed(), game.getDesyncs());
+        }
+        serverThread.interrupt();
+    }
+}
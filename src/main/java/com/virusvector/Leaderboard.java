@@ -0,0 +1,496 @@
+package com.virusvector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Local high-score table kept in a directory. Every finished run is appended to
+ * {@code runs.log} as a fixed-size record, and that log is the only file that must
+ * survive. Rankings come from sorted keys: one list over all runs and one per level
+ * reached. Each list is a sorted run of keys in a memory-mapped index file plus the
+ * runs recorded since, so top-K and rank queries are binary searches. Once enough runs
+ * have piled up they are merged into the next index generation, {@code runs-<n>.idx}.
+ * A new generation is written under its own name and mapped before the old one is
+ * deleted, so a file is never replaced while it is mapped, which Windows forbids.
+ *
+ * Opening maps the index and replays only the log records it does not cover, so it
+ * takes milliseconds however many runs are stored, and the heap holds only those
+ * recent runs. Not thread-safe.
+ */
+public final class Leaderboard implements AutoCloseable {
+    static final int LOG_MAGIC = 0x56565331; // "VVS1"
+    static final int INDEX_MAGIC = 0x56565831; // "VVX1"
+    static final int LOG_HEADER_SIZE = 4;
+    static final int RECORD_SIZE = 32;
+    static final int COMPACT_AFTER = 16_384;
+    private static final int COMPACT_FRACTION = 32; // also wait for 1/32 of the indexed runs
+    private static final int ALL_LEVELS = 0;
+    private static final LongBuffer NO_KEYS = LongBuffer.allocate(0);
+    private static final long MAX_RUNS = 1L << 32; // ids share a key with the score
+
+    /**
+     * One finished run, as stored in the log.
+     */
+    public static final class Run {
+        public final long id;
+        public final long seed;
+        public final long recordedAt; // epoch milliseconds
+        public final int score;
+        public final int level;
+        public final int livesLost;
+        public final int playMillis;
+
+        Run(long id, ByteBuffer record) {
+            this.id = id;
+            seed = record.getLong();
+            recordedAt = record.getLong();
+            score = record.getInt();
+            level = record.getInt();
+            livesLost = record.getInt();
+            playMillis = record.getInt();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%d score %,d level %d lives lost %d time %ds seed %d",
+                id, score, level, livesLost, playMillis / 1000, seed);
+        }
+    }
+
+    /**
+     * Keys sorted best first: the indexed ones in the mapped file and the pending ones
+     * on the heap, sorted only when a query needs them.
+     */
+    private static final class ScoreList {
+        LongBuffer indexed = NO_KEYS;
+        long[] pending = new long[16];
+        int pendingCount;
+        boolean pendingSorted = true;
+
+        long size() { return indexed.limit() + pendingCount; }
+
+        void add(long key) {
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+            }
+            pendingSorted &= pendingCount == 0 || pending[pendingCount - 1] <= key;
+            pending[pendingCount++] = key;
+        }
+
+        void sortPending() {
+            if (!pendingSorted) {
+                Arrays.sort(pending, 0, pendingCount);
+                pendingSorted = true;
+            }
+        }
+
+        /** @return how many keys are smaller, i.e. ranked ahead of the given one */
+        long countAhead(long key) {
+            sortPending();
+            int lo = 0;
+            int hi = indexed.limit();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (indexed.get(mid) < key) lo = mid + 1; else hi = mid;
+            }
+            int insert = Arrays.binarySearch(pending, 0, pendingCount, key);
+            return lo + (insert >= 0 ? insert : -insert - 1);
+        }
+
+        /** Fills out with the best keys and returns how many there were. */
+        int best(long[] out) {
+            sortPending();
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (n < out.length && (i < indexed.limit() || j < pendingCount)) {
+                if (j == pendingCount || (i < indexed.limit() && indexed.get(i) < pending[j])) {
+                    out[n++] = indexed.get(i++);
+                } else {
+                    out[n++] = pending[j++];
+                }
+            }
+            return n;
+        }
+    }
+
+    private final Path directory;
+    private final Path logFile;
+    private long generation; // of the mapped index file, 0 when there is none
+    private final FileChannel log;
+    private final Map<Integer, ScoreList> lists = new TreeMap<>();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private long runs; // records in the log
+    private long indexedRuns; // records covered by the index file
+
+    /**
+     * Opens the leaderboard in a directory, creating it if needed. A missing or stale
+     * index is rebuilt from the log.
+     */
+    public Leaderboard(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        logFile = directory.resolve("runs.log");
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer magic = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            if (log.size() == 0) {
+                log.write(magic.putInt(LOG_MAGIC).flip(), 0);
+            } else if (log.read(magic, 0) != LOG_HEADER_SIZE || magic.getInt(0) != LOG_MAGIC) {
+                throw new IOException(logFile + " is not a leaderboard log");
+            }
+            // A torn record at the end is an interrupted append; drop it
+            runs = (log.size() - LOG_HEADER_SIZE) / RECORD_SIZE;
+            log.truncate(LOG_HEADER_SIZE + runs * RECORD_SIZE);
+            lists.put(ALL_LEVELS, new ScoreList());
+            generation = newestGeneration();
+            if (generation == 0 || !mapIndex(indexFile(generation))) {
+                lists.clear();
+                lists.put(ALL_LEVELS, new ScoreList());
+                indexedRuns = 0;
+            }
+            deleteOldGenerations();
+            replayLog(indexedRuns);
+            if (compactionDue()) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    private static long key(int score, long id) {
+        if (id < 0 || id >= MAX_RUNS) {
+            throw new IllegalArgumentException("Run id " + id + " does not fit in a key");
+        }
+        return (long) (Integer.MAX_VALUE - score) << 32 | id;
+    }
+
+    /**
+     * Appends a finished run.
+     *
+     * @return the run's id
+     */
+    public long record(long seed, int level, int score, int livesLost, int playMillis) throws IOException {
+        if (score < 0 || level < 1) {
+            throw new IllegalArgumentException("Score must be at least 0 and level at least 1");
+        }
+        if (runs >= MAX_RUNS) {
+            throw new IOException("Leaderboard is full at " + MAX_RUNS + " runs");
+        }
+        record.clear();
+        record.putLong(seed).putLong(System.currentTimeMillis())
+            .putInt(score).putInt(level).putInt(livesLost).putInt(playMillis).flip();
+        long position = LOG_HEADER_SIZE + runs * RECORD_SIZE;
+        while (record.hasRemaining()) {
+            position += log.write(record, position);
+        }
+        long id = runs++;
+        addKey(id, level, score);
+        if (compactionDue()) {
+            compact();
+        }
+        return id;
+    }
+
+    /**
+     * Appends the run a finished game represents.
+     */
+    public long record(GameState state) throws IOException {
+        return record(state.getSeed(), state.getLevel(), state.getScore(), state.getLivesLost(),
+            (int) Math.min(Integer.MAX_VALUE, state.getClock()));
+    }
+
+    private void addKey(long id, int level, int score) {
+        long key = key(score, id);
+        lists.get(ALL_LEVELS).add(key);
+        lists.computeIfAbsent(level, l -> new ScoreList()).add(key);
+    }
+
+    private boolean compactionDue() {
+        long pending = runs - indexedRuns;
+        return pending >= COMPACT_AFTER && pending >= indexedRuns / COMPACT_FRACTION;
+    }
+
+    /** @return the number of runs recorded */
+    public long size() { return runs; }
+
+    /** @return the number of runs that ended on the given level */
+    public long size(int level) {
+        ScoreList list = lists.get(level);
+        return list == null ? 0 : list.size();
+    }
+
+    /** @return the best runs overall, best first; ties go to the earlier run */
+    public List<Run> top(int k) throws IOException {
+        return top(lists.get(ALL_LEVELS), k);
+    }
+
+    /** @return the best runs that ended on the given level */
+    public List<Run> top(int level, int k) throws IOException {
+        return top(lists.get(level), k);
+    }
+
+    private List<Run> top(ScoreList list, int k) throws IOException {
+        if (list == null || k <= 0) return List.of();
+        long[] keys = new long[(int) Math.min(k, list.size())];
+        int n = list.best(keys);
+        List<Run> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(read(keys[i] & 0xFFFFFFFFL));
+        }
+        return result;
+    }
+
+    /**
+     * @return the place a run with this score takes overall: one more than the number
+     *         of runs that scored strictly higher
+     */
+    public long rank(int score) {
+        return lists.get(ALL_LEVELS).countAhead(key(score, 0)) + 1;
+    }
+
+    /** @return the place a run with this score takes among runs that ended on the level */
+    public long rank(int level, int score) {
+        ScoreList list = lists.get(level);
+        return list == null ? 1 : list.countAhead(key(score, 0)) + 1;
+    }
+
+    /** @return the run with the given id */
+    public Run read(long id) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        long position = LOG_HEADER_SIZE + id * RECORD_SIZE;
+        while (buffer.hasRemaining()) {
+            if (log.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Run " + id + " is past the end of " + logFile);
+            }
+        }
+        return new Run(id, buffer.flip());
+    }
+
+    // Index file: magic, list count, runs covered, then per list (level, count, offset)
+    // followed by the keys of every list
+    private static final int INDEX_HEADER_SIZE = 16;
+    private static final int INDEX_ENTRY_SIZE = 24;
+
+    private Path indexFile(long generation) {
+        return directory.resolve("runs-" + generation + ".idx");
+    }
+
+    // The highest n of the runs-<n>.idx files present, or 0 when there are none
+    private long newestGeneration() throws IOException {
+        long newest = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "runs-*.idx")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    newest = Math.max(newest, Long.parseLong(name.substring(5, name.length() - 4)));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return newest;
+    }
+
+    // Index files before the mapped one; one still mapped elsewhere is left for the next open
+    private void deleteOldGenerations() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "runs-*.idx")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    if (Long.parseLong(name.substring(5, name.length() - 4)) < generation) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NumberFormatException | IOException e) {
+                    // Not one of ours, or still in use
+                }
+            }
+        }
+    }
+
+    private boolean mapIndex(Path indexFile) throws IOException {
+        if (!Files.exists(indexFile)) return false;
+        MappedByteBuffer index;
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            if (channel.size() < INDEX_HEADER_SIZE || channel.size() > Integer.MAX_VALUE) return false;
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int listCount = index.getInt(4);
+        long covered = index.getLong(8);
+        if (index.getInt(0) != INDEX_MAGIC || covered > runs || listCount < 1
+                || INDEX_HEADER_SIZE + (long) listCount * INDEX_ENTRY_SIZE > index.capacity()) {
+            return false;
+        }
+        for (int i = 0; i < listCount; i++) {
+            int entry = INDEX_HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+            int level = index.getInt(entry);
+            long count = index.getLong(entry + 8);
+            long offset = index.getLong(entry + 16);
+            if (offset + count * 8 > index.capacity()) return false;
+            ScoreList list = lists.computeIfAbsent(level, l -> new ScoreList());
+            list.indexed = index.slice((int) offset, (int) count * 8).asLongBuffer();
+        }
+        indexedRuns = covered;
+        return true;
+    }
+
+    private void replayLog(long from) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+        for (long id = from; id < runs; ) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), (runs - id) * RECORD_SIZE));
+            long position = LOG_HEADER_SIZE + id * RECORD_SIZE;
+            while (buffer.hasRemaining()) {
+                if (log.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException(logFile + " ended early");
+                }
+            }
+            for (int at = 0; at < buffer.limit(); at += RECORD_SIZE, id++) {
+                addKey(id, buffer.getInt(at + 20), buffer.getInt(at + 16));
+            }
+        }
+    }
+
+    /**
+     * Merges the pending runs into the next generation of the index file, maps it in
+     * place of the current one and deletes the older generations.
+     */
+    public void compact() throws IOException {
+        Path indexFile = indexFile(generation + 1);
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE + lists.size() * INDEX_ENTRY_SIZE);
+            header.putInt(INDEX_MAGIC).putInt(lists.size()).putLong(runs);
+            long offset = header.capacity();
+            for (Map.Entry<Integer, ScoreList> entry : lists.entrySet()) {
+                header.putInt(entry.getKey()).putInt(0).putLong(entry.getValue().size()).putLong(offset);
+                offset += entry.getValue().size() * 8;
+            }
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Leaderboard index would exceed 2 GB");
+            }
+            writeFully(out, header.flip());
+
+            ByteBuffer keys = ByteBuffer.allocate(1 << 20);
+            for (ScoreList list : lists.values()) {
+                list.sortPending();
+                int i = 0;
+                int j = 0;
+                while (i < list.indexed.limit() || j < list.pendingCount) {
+                    if (!keys.hasRemaining()) {
+                        writeFully(out, keys.flip());
+                        keys.clear();
+                    }
+                    if (j == list.pendingCount || (i < list.indexed.limit() && list.indexed.get(i) < list.pending[j])) {
+                        keys.putLong(list.indexed.get(i++));
+                    } else {
+                        keys.putLong(list.pending[j++]);
+                    }
+                }
+            }
+            writeFully(out, keys.flip());
+            out.force(false);
+        }
+        // The target is a new name, so nothing mapped is replaced
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (ScoreList list : lists.values()) {
+            list.pending = new long[16];
+            list.pendingCount = 0;
+            list.pendingSorted = true;
+        }
+        if (!mapIndex(indexFile)) {
+            throw new IOException("Could not read back " + indexFile);
+        }
+        generation++;
+        deleteOldGenerations();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Folds a large backlog of pending runs into the index, so the next open replays
+     * little of the log, and closes the log.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (runs - indexedRuns >= COMPACT_AFTER) {
+                compact();
+            }
+        } finally {
+            log.close();
+        }
+    }
+
+    /**
+     * Usage: {@code Leaderboard <directory> [runs to add]}. Adds synthetic runs the way a
+     * batch of simulations would, then times reopening the board and querying it.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: Leaderboard <directory> [runs to add]");
+            return;
+        }
+        Path directory = Path.of(args[0]);
+        int add = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        long start = System.nanoTime();
+        try (Leaderboard board = new Leaderboard(directory)) {
+            Random random = new Random(board.size());
+            for (int i = 0; i < add; i++) {
+                int level = 1 + Math.min(29, (int) (-Math.log(1 - random.nextDouble()) * 3));
+                int score = level * 1000 + random.nextInt(level * 1500);
+                board.record(random.nextLong(), level, score, 10, random.nextInt(120_000 * level));
+            }
+            System.out.printf("added %,d runs in %.0f ms%n", add, (System.nanoTime() - start) / 1e6);
+        }
+
+        start = System.nanoTime();
+        try (Leaderboard board = new Leaderboard(directory)) {
+            System.out.printf("reopened %,d runs in %.2f ms (%,d of them replayed from the log)%n",
+                board.size(), (System.nanoTime() - start) / 1e6, board.runs - board.indexedRuns);
+            start = System.nanoTime();
+            List<Run> top = board.top(10);
+            List<Run> topLevel = board.top(3, 10);
+            System.out.printf("top 10 overall and on level 3 in %.0f us%n", (System.nanoTime() - start) / 1e3);
+            for (int i = 0; i < Math.min(3, top.size()); i++) {
+                System.out.println("  " + top.get(i));
+            }
+            System.out.println("  best on level 3: " + (topLevel.isEmpty() ? "none" : topLevel.get(0)));
+
+            Random random = new Random(1);
+            int queries = 1_000_000;
+            long sum = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                int level = 1 + random.nextInt(10);
+                sum += i % 2 == 0 ? board.rank(random.nextInt(40_000)) : board.rank(level, random.nextInt(40_000));
+            }
+            System.out.printf("%,d rank queries at %.2f us each (checksum %d)%n",
+                queries, (System.nanoTime() - start) / 1e3 / queries, sum);
+            int best = top.isEmpty() ? 0 : top.get(0).score;
+            System.out.printf("rank of %,d overall: %d; of 5,000: %,d%n", best, board.rank(best), board.rank(5_000));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.virusvector;
+
+/**
+ * A designed map that levels are loaded from instead of being generated. The map is
+ * divided into rooms of the game's grid size; level n plays room n - 1 in row-major
+ * order, wrapping round after the last one. A map no larger than one room is simply
+ * replayed level after level.
+ *
+ * Besides the cells, a map carries spawn metadata: an argument attached to the cell of
+ * an enemy. A patrolling antivirus reads it as its starting direction (0 left, 1 right)
+ * and a spawner as the delay in milliseconds before its first spawn.
+ */
+public interface LevelMap extends AutoCloseable {
+    /** Returned by {@link #getSpawnArg(int, int)} for cells without metadata. */
+    int NO_SPAWN_ARG = Integer.MIN_VALUE;
+
+    int getWidth();
+
+    int getHeight();
+
+    int getRoomWidth();
+
+    int getRoomHeight();
+
+    EntityType get(int x, int y);
+
+    /**
+     * @return the spawn argument of the cell, or {@link #NO_SPAWN_ARG}
+     */
+    int getSpawnArg(int x, int y);
+
+    /** @return the number of cells with spawn metadata */
+    int getSpawnCount();
+
+    /** @return the x of the i-th cell with spawn metadata, in row-major order */
+    int getSpawnX(int i);
+
+    int getSpawnY(int i);
+
+    int getSpawnArg(int i);
+
+    /**
+     * Hints that the given area is about to be read, so a map backed by a file can page
+     * it in ahead of time.
+     */
+    default void prefetch(int x, int y, int width, int height) {
+    }
+
+    @Override
+    default void close() {
+    }
+}
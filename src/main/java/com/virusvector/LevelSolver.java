@@ -0,0 +1,327 @@
+package com.virusvector;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless bot that plays a level by beam search over {@link GameState#movePlayer(int, int)}.
+ * Children are evaluated in place with make/unmake and only the surviving beam is forked.
+ * A search fails if every line loses a life, which includes running out of time.
+ */
+public final class LevelSolver {
+    static final int[] DX = {-1, 1, 0, 0};
+    static final int[] DY = {0, 0, -1, 1};
+
+    /** Simulated time between two player moves; the game panel animates a step in about this long. */
+    public static final int MOVE_MILLIS = 80;
+    private static final int TICK_MILLIS = 16;
+
+    private final int beamWidth;
+    private final int maxMoves;
+
+    // Scratch space for the distance-to-frontier evaluation
+    private int[] bfsQueue = new int[0];
+    private int[] bfsSeen = new int[0];
+    private int bfsStamp;
+
+    /**
+     * Outcome of one solve.
+     */
+    public static final class Result {
+        private final boolean winnable;
+        private final int[] moves;
+        private final long nodes;
+        private final long elapsedNanos;
+
+        Result(boolean winnable, int[] moves, long nodes, long elapsedNanos) {
+            this.winnable = winnable;
+            this.moves = moves;
+            this.nodes = nodes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean isWinnable() { return winnable; }
+        /** @return the winning line as direction indices into {@link #dx(int)}/{@link #dy(int)}, empty if not winnable */
+        public int[] getMoves() { return moves.clone(); }
+        public int getMoveCount() { return moves.length; }
+        public long getNodes() { return nodes; }
+        public long getElapsedNanos() { return elapsedNanos; }
+    }
+
+    private static final class Node {
+        final GameState state;
+        final Node parent;
+        final int dir;
+        final int depth;
+
+        Node(GameState state, Node parent, int dir) {
+            this.state = state;
+            this.parent = parent;
+            this.dir = dir;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+        }
+    }
+
+    private static final class Candidate {
+        final Node node;
+        final int dir;
+        final long eval;
+
+        Candidate(Node node, int dir, long eval) {
+            this.node = node;
+            this.dir = dir;
+            this.eval = eval;
+        }
+    }
+
+    public LevelSolver() {
+        this(48, 2000);
+    }
+
+    public LevelSolver(int beamWidth, int maxMoves) {
+        if (beamWidth < 1 || maxMoves < 1) {
+            throw new IllegalArgumentException("Beam width and move limit must be positive");
+        }
+        this.beamWidth = beamWidth;
+        this.maxMoves = maxMoves;
+    }
+
+    public static int dx(int dir) { return DX[dir]; }
+    public static int dy(int dir) { return DY[dir]; }
+
+    /**
+     * Searches for a line that completes the current level without losing a life.
+     * The given state is not modified.
+     */
+    public Result solve(GameState start) {
+        return solve(start, Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #solve(GameState)}, but gives up once the search has run for the given
+     * time, reporting the level as not winnable.
+     */
+    public Result solve(GameState start, long budgetNanos) {
+        long startTime = System.nanoTime();
+        long nodes = 0;
+        if (start.isLevelComplete()) {
+            return new Result(true, new int[0], 0, System.nanoTime() - startTime);
+        }
+        if (start.isGameOver()) {
+            return new Result(false, new int[0], 0, System.nanoTime() - startTime);
+        }
+
+        LongSet seen = new LongSet();
+        List<Node> beam = new ArrayList<>();
+        beam.add(new Node(start.fork(), null, -1));
+        seen.add(start.getHash());
+        List<Candidate> candidates = new ArrayList<>();
+
+        for (int depth = 0; depth < maxMoves && !beam.isEmpty(); depth++) {
+            if (System.nanoTime() - startTime > budgetNanos) break;
+            candidates.clear();
+            for (Node node : beam) {
+                GameState s = node.state;
+                int lives = s.getLives();
+                for (int dir = 0; dir < 4; dir++) {
+                    nodes++;
+                    int made = play(s, dir, true);
+                    if (made > 0) {
+                        if (s.isLevelComplete()) {
+                            int[] line = line(node, dir);
+                            unmake(s, made);
+                            return new Result(true, line, nodes, System.nanoTime() - startTime);
+                        }
+                        if (s.getLives() == lives && !s.isGameOver() && seen.add(s.getHash())) {
+                            candidates.add(new Candidate(node, dir, evaluate(s)));
+                        }
+                    }
+                    unmake(s, made);
+                }
+            }
+
+            candidates.sort((a, b) -> Long.compare(b.eval, a.eval));
+            List<Node> next = new ArrayList<>(Math.min(beamWidth, candidates.size()));
+            for (int i = 0; i < candidates.size() && i < beamWidth; i++) {
+                Candidate c = candidates.get(i);
+                GameState child = c.node.state.fork();
+                play(child, c.dir, false);
+                next.add(new Node(child, c.node, c.dir));
+            }
+            beam = next;
+        }
+        return new Result(false, new int[0], nodes, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Plays one move followed by the enemy ticks that happen while the player animates.
+     *
+     * @return how many make calls were applied (0 if the move was blocked), or 1 when not undoable
+     */
+    private static int play(GameState s, int dir, boolean undoable) {
+        Point before = s.getPlayerPos();
+        int lives = s.getLives();
+        if (undoable) s.makeMove(DX[dir], DY[dir]); else s.movePlayer(DX[dir], DY[dir]);
+        int made = 1;
+        if (s.getLives() == lives && s.getPlayerPos().equals(before)) {
+            return undoable ? blocked(s) : 0;
+        }
+        for (int t = 0; t < MOVE_MILLIS / TICK_MILLIS; t++) {
+            if (s.isLevelComplete() || s.isGameOver() || s.getLives() != lives) break;
+            if (undoable) s.makeTick(TICK_MILLIS); else s.tick(TICK_MILLIS);
+            made++;
+        }
+        return made;
+    }
+
+    private static int blocked(GameState s) {
+        s.unmake();
+        return 0;
+    }
+
+    private static void unmake(GameState s, int made) {
+        for (int i = 0; i < made; i++) {
+            s.unmake();
+        }
+    }
+
+    private static int[] line(Node node, int lastDir) {
+        int[] moves = new int[node.depth + 1];
+        moves[node.depth] = lastDir;
+        for (Node n = node; n.parent != null; n = n.parent) {
+            moves[n.depth - 1] = n.dir;
+        }
+        return moves;
+    }
+
+    /**
+     * Higher is better: infected cells first, then power-ups, then closeness to uninfected ground.
+     */
+    private long evaluate(GameState s) {
+        long eval = s.getInfectedCells() * 100L;
+        if (s.getInfectionRange() > 1) eval += 150;
+        if (s.hasShield()) eval += 80;
+        eval -= distanceToFrontier(s) * 5L;
+        return eval;
+    }
+
+    // Breadth-first distance from the player to the nearest empty or power-up cell
+    private int distanceToFrontier(GameState s) {
+        EntityType[][] grid = s.getGrid();
+        int width = s.getWidth();
+        int height = s.getHeight();
+        int cells = width * height;
+        if (bfsQueue.length < cells) {
+            bfsQueue = new int[cells];
+            bfsSeen = new int[cells];
+            bfsStamp = 0;
+        }
+        int stamp = ++bfsStamp;
+        Point p = s.getPlayerPos();
+        boolean breach = s.getInfectionRange() > 1;
+        int head = 0, tail = 0;
+        int startCell = p.x * height + p.y;
+        bfsQueue[tail++] = startCell;
+        bfsSeen[startCell] = stamp;
+        int levelEnd = tail;
+        int distance = 0;
+        while (head < tail) {
+            if (head == levelEnd) {
+                distance++;
+                levelEnd = tail;
+            }
+            int cell = bfsQueue[head++];
+            int x = cell / height, y = cell % height;
+            EntityType type = grid[x][y];
+            if (distance > 0 && (type == EntityType.EMPTY || type == EntityType.INFECT_UPGRADE
+                    || type == EntityType.SHIELD || type == EntityType.TIME_EXTENSION)) {
+                return distance;
+            }
+            for (int dir = 0; dir < 4; dir++) {
+                int nx = x + DX[dir], ny = y + DY[dir];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+                int next = nx * height + ny;
+                if (bfsSeen[next] == stamp || !walkable(grid[nx][ny], breach)) continue;
+                bfsSeen[next] = stamp;
+                bfsQueue[tail++] = next;
+            }
+        }
+        return width + height;
+    }
+
+    private static boolean walkable(EntityType type, boolean breach) {
+        return switch (type) {
+            case WALL, ANTIVIRUS, PATROLLING_ANTIVIRUS, CHASING_ANTIVIRUS, RANDOM_ANTIVIRUS -> false;
+            case FIREWALL -> breach;
+            default -> true;
+        };
+    }
+
+    /**
+     * Open-addressing set of position hashes, so transpositions are not boxed.
+     */
+    private static final class LongSet {
+        private long[] keys = new long[1 << 12];
+        private boolean hasZero;
+        private int size;
+
+        boolean add(long key) {
+            if (key == 0) {
+                boolean added = !hasZero;
+                hasZero = true;
+                return added;
+            }
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int i = (int) (key ^ (key >>> 32)) & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == key) return false;
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            long[] old = keys;
+            keys = new long[old.length * 2];
+            size = 0;
+            for (long k : old) {
+                if (k != 0) add(k);
+            }
+        }
+    }
+
+    /**
+     * Plays levels headlessly and reports how each one was solved.
+     * Usage: {@code LevelSolver [seed] [levels]}
+     */
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1L;
+        int levels = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        GameState game = new GameState(seed);
+        LevelSolver solver = new LevelSolver();
+        for (int i = 0; i < levels && !game.isGameOver(); i++) {
+            Result result = solver.solve(game);
+            int level = game.getLevel();
+            if (result.isWinnable()) {
+                for (int dir : result.moves) {
+                    play(game, dir, false);
+                }
+            }
+            System.out.printf("Level %d: %s in %d moves, %,d nodes, %.1f ms, score %,d%n",
+                level,
+                result.isWinnable() ? "solved" : "unsolved",
+                result.getMoveCount(),
+                result.getNodes(),
+                result.getElapsedNanos() / 1e6,
+                game.getScore());
+            if (!result.isWinnable()) break;
+            game.nextLevel();
+        }
+    }
+}
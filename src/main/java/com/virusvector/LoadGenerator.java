@@ -0,0 +1,102 @@
+package com.virusvector;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Opens many sessions against a {@link GameServer} from one process, sends a random move
+ * from each session a few times per second and reports the frame rate every session sees.
+ * Usage: {@code LoadGenerator [sessions] [host] [port] [seconds]}
+ */
+public final class LoadGenerator {
+    private static final int MOVES_PER_SECOND = 8;
+
+    private static final class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        final ByteBuffer out = ByteBuffer.allocate(2);
+        long nextMove;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        String host = args.length > 1 ? args[1] : "127.0.0.1";
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : GameServer.DEFAULT_PORT;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        Random random = new Random();
+        Selector selector = Selector.open();
+        Client[] clients = new Client[count];
+        for (int i = 0; i < count; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            clients[i] = new Client(channel);
+            clients[i].nextMove = System.nanoTime() + random.nextInt(1_000_000_000 / MOVES_PER_SECOND);
+            channel.register(selector, SelectionKey.OP_READ, clients[i]);
+        }
+        System.out.println("Connected " + count + " sessions");
+
+        long frames = 0, bytes = 0, moves = 0;
+        long start = System.nanoTime();
+        long nextReport = start + 1_000_000_000L;
+        long end = start + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            selector.select(5);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Client c = (Client) key.attachment();
+                int read = c.channel.read(c.in);
+                if (read < 0) {
+                    key.cancel();
+                    continue;
+                }
+                bytes += read;
+                frames += countFrames(c.in);
+            }
+            long now = System.nanoTime();
+            for (Client c : clients) {
+                if (now >= c.nextMove && c.channel.isOpen()) {
+                    c.out.clear();
+                    c.out.put(GameServer.INPUT_MOVE).put((byte) random.nextInt(4)).flip();
+                    c.channel.write(c.out);
+                    c.nextMove = now + 1_000_000_000L / MOVES_PER_SECOND;
+                    moves++;
+                }
+            }
+            if (now >= nextReport) {
+                System.out.printf("frames/s %,d (%.1f per session), KB/s %,d, moves/s %,d%n",
+                    frames, frames / (double) count, bytes / 1024, moves);
+                frames = bytes = moves = 0;
+                nextReport += 1_000_000_000L;
+            }
+        }
+        for (Client c : clients) {
+            c.channel.close();
+        }
+    }
+
+    // Consumes whole length-prefixed frames and leaves any partial one in the buffer
+    private static int countFrames(ByteBuffer in) {
+        in.flip();
+        int frames = 0;
+        while (in.remaining() >= 4 && in.remaining() >= 4 + in.getInt(in.position())) {
+            in.position(in.position() + 4 + in.getInt(in.position()));
+            frames++;
+        }
+        in.compact();
+        return frames;
+    }
+}
@@ -1,10 +1,39 @@
 package com.virusvector;
 
+import java.net.InetSocketAddress;
+
 public class MainGame {
     public static void main(String[] args) {
+        Startup.mark("main");
+        // --connect host[:port] plays on a GameServer instead of locally,
+        // predicting ahead of it unless --no-predict is given as well;
+        // --map file plays the rooms of a map file instead of generated levels;
+        // --startup-run opens a game straight away and exits after its first frame, for AppCDS training
+        InetSocketAddress server = null;
+        boolean predict = true;
+        boolean startupRun = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--connect") && i + 1 < args.length) {
+                String[] hostPort = args[++i].split(":", 2);
+                int port = hostPort.length > 1 ? Integer.parseInt(hostPort[1]) : GameServer.DEFAULT_PORT;
+                server = new InetSocketAddress(hostPort[0], port);
+            } else if (args[i].equals("--no-predict")) {
+                predict = false;
+            } else if (args[i].equals("--map") && i + 1 < args.length) {
+                System.setProperty("virusvector.map", args[++i]);
+            } else if (args[i].equals("--startup-run")) {
+                startupRun = true;
+                System.setProperty(Startup.EXIT_PROPERTY, "true");
+            }
+        }
+        InetSocketAddress connectTo = server;
+        boolean predictAhead = predict;
+        boolean openGame = startupRun;
         javax.swing.SwingUtilities.invokeLater(() -> {
-            GameWindow gameWindow = new GameWindow();
-            gameWindow.showHomeScreen();
+            GameWindow gameWindow = new GameWindow(connectTo, predictAhead);
+            if (openGame) {
+                javax.swing.SwingUtilities.invokeLater(gameWindow::startGame);
+            }
         });
     }
 }
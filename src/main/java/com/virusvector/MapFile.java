@@ -0,0 +1,487 @@
+package com.virusvector;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads and writes {@link LevelMap}s in two forms. Both store every cell as its
+ * {@link EntityType#getValue()}.
+ *
+ * The text form is for authoring by hand:
+ * <pre>
+ * virusvector-map 1
+ * size 20 15          # map width and height
+ * room 20 15          # optional, defaults to the whole map
+ * spawn 4 3 1         # x y argument, for the enemy in that cell
+ * grid
+ * 11111111111111111111
+ * 10000000000000000001
+ * ...                 # one hex digit per cell, one line per row
+ * </pre>
+ *
+ * The binary form is for large maps and is read lazily by {@link ChunkedMap}: a header,
+ * the spawn table as (x, y, argument) ints sorted by cell, an index with one long per
+ * square chunk, then the chunks as raw bytes in row-major order. An index entry is the
+ * file offset of its chunk, or the complement of the value every cell of the chunk
+ * holds, in which case the chunk is not stored.
+ */
+public final class MapFile {
+    static final int BINARY_MAGIC = 0x56564D31; // "VVM1"
+    static final int BINARY_HEADER_SIZE = 28;
+    static final int DEFAULT_CHUNK_SIZE = 64; // one 4 KiB page of cells
+    private static final String TEXT_MAGIC = "virusvector-map 1";
+
+    private MapFile() {
+    }
+
+    /**
+     * Opens either form, telling them apart by the first bytes of the file.
+     */
+    public static LevelMap open(Path file) throws IOException {
+        byte[] head = new byte[4];
+        try (InputStream in = Files.newInputStream(file)) {
+            if (in.readNBytes(head, 0, 4) == 4 && ByteBuffer.wrap(head).getInt() == BINARY_MAGIC) {
+                return new ChunkedMap(file);
+            }
+        }
+        return readText(file);
+    }
+
+    /**
+     * Parses the text form into memory.
+     */
+    public static LevelMap readText(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        int width = -1, height = -1, roomWidth = -1, roomHeight = -1;
+        int[] spawns = new int[0];
+        int spawnCount = 0;
+        byte[] cells = null;
+        boolean magic = false;
+        for (int n = 0; n < lines.size(); n++) {
+            String line = stripComment(lines.get(n));
+            if (line.isEmpty()) continue;
+            if (!magic) {
+                if (!line.equals(TEXT_MAGIC)) throw parseError(file, n, "expected '" + TEXT_MAGIC + "'");
+                magic = true;
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            switch (words[0]) {
+                case "size" -> {
+                    int[] v = parseInts(file, n, words, 2);
+                    width = v[0];
+                    height = v[1];
+                    if (width < 3 || height < 3) throw parseError(file, n, "map must be at least 3x3");
+                }
+                case "room" -> {
+                    int[] v = parseInts(file, n, words, 2);
+                    roomWidth = v[0];
+                    roomHeight = v[1];
+                }
+                case "spawn" -> {
+                    int[] v = parseInts(file, n, words, 3);
+                    if (spawnCount * 3 == spawns.length) {
+                        spawns = Arrays.copyOf(spawns, Math.max(24, spawns.length * 2));
+                    }
+                    System.arraycopy(v, 0, spawns, spawnCount++ * 3, 3);
+                }
+                case "grid" -> {
+                    if (width < 0) throw parseError(file, n, "'size' must come before 'grid'");
+                    cells = new byte[width * height];
+                    for (int y = 0; y < height; y++) {
+                        if (++n >= lines.size()) throw parseError(file, n, "grid has fewer than " + height + " rows");
+                        String row = lines.get(n).strip();
+                        if (row.length() != width) throw parseError(file, n, "row is not " + width + " cells wide");
+                        for (int x = 0; x < width; x++) {
+                            int value = Character.digit(row.charAt(x), 16);
+                            if (value < 0 || EntityType.fromValue(value).getValue() != value) {
+                                throw parseError(file, n, "unknown cell '" + row.charAt(x) + "'");
+                            }
+                            cells[y * width + x] = (byte) value;
+                        }
+                    }
+                }
+                default -> throw parseError(file, n, "unknown keyword '" + words[0] + "'");
+            }
+        }
+        if (cells == null) throw new IOException(file + ": missing 'grid'");
+        if (roomWidth < 0) {
+            roomWidth = width;
+            roomHeight = height;
+        }
+        if (roomWidth < 3 || roomHeight < 3 || roomWidth > width || roomHeight > height) {
+            throw new IOException(file + ": rooms must be at least 3x3 and fit in the map");
+        }
+        return new GridMap(width, height, roomWidth, roomHeight, cells, Arrays.copyOf(spawns, spawnCount * 3));
+    }
+
+    private static String stripComment(String line) {
+        int hash = line.indexOf('#');
+        return (hash >= 0 ? line.substring(0, hash) : line).strip();
+    }
+
+    private static int[] parseInts(Path file, int line, String[] words, int count) throws IOException {
+        if (words.length != count + 1) throw parseError(file, line, "'" + words[0] + "' takes " + count + " numbers");
+        int[] values = new int[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                values[i] = Integer.parseInt(words[i + 1]);
+            }
+        } catch (NumberFormatException e) {
+            throw parseError(file, line, e.getMessage());
+        }
+        return values;
+    }
+
+    private static IOException parseError(Path file, int line, String message) {
+        return new IOException(file + ":" + (line + 1) + ": " + message);
+    }
+
+    /**
+     * Writes the text form. Meant for maps small enough to edit by hand.
+     */
+    public static void writeText(LevelMap map, Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(TEXT_MAGIC + "\n");
+            out.write("size " + map.getWidth() + " " + map.getHeight() + "\n");
+            if (map.getRoomWidth() != map.getWidth() || map.getRoomHeight() != map.getHeight()) {
+                out.write("room " + map.getRoomWidth() + " " + map.getRoomHeight() + "\n");
+            }
+            for (int i = 0; i < map.getSpawnCount(); i++) {
+                out.write("spawn " + map.getSpawnX(i) + " " + map.getSpawnY(i) + " " + map.getSpawnArg(i) + "\n");
+            }
+            out.write("grid\n");
+            char[] row = new char[map.getWidth() + 1];
+            row[row.length - 1] = '\n';
+            for (int y = 0; y < map.getHeight(); y++) {
+                for (int x = 0; x < map.getWidth(); x++) {
+                    row[x] = Character.forDigit(map.get(x, y).getValue(), 16);
+                }
+                out.write(row);
+            }
+        }
+    }
+
+    /**
+     * Writes the binary form, one chunk at a time, so a map produced on the fly is never
+     * held in memory as a whole.
+     *
+     * @param chunkSize side of the square chunks; the cells of one chunk are read together
+     */
+    public static void writeBinary(LevelMap map, Path file, int chunkSize) throws IOException {
+        int width = map.getWidth();
+        int height = map.getHeight();
+        int chunksX = (width + chunkSize - 1) / chunkSize;
+        int chunksY = (height + chunkSize - 1) / chunkSize;
+        int spawnCount = map.getSpawnCount();
+        long indexStart = BINARY_HEADER_SIZE + spawnCount * 12L;
+        long[] index = new long[chunksX * chunksY];
+
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate((int) indexStart);
+            header.putInt(BINARY_MAGIC).putInt(width).putInt(height).putInt(chunkSize)
+                .putInt(map.getRoomWidth()).putInt(map.getRoomHeight()).putInt(spawnCount);
+            for (int i = 0; i < spawnCount; i++) {
+                header.putInt(map.getSpawnX(i)).putInt(map.getSpawnY(i)).putInt(map.getSpawnArg(i));
+            }
+            writeFully(out, header.flip(), 0);
+
+            long offset = indexStart + index.length * 8L;
+            ByteBuffer chunk = ByteBuffer.allocate(chunkSize * chunkSize);
+            byte[] cells = chunk.array();
+            for (int cy = 0; cy < chunksY; cy++) {
+                for (int cx = 0; cx < chunksX; cx++) {
+                    Arrays.fill(cells, (byte) 0);
+                    int x0 = cx * chunkSize;
+                    int y0 = cy * chunkSize;
+                    int x1 = Math.min(width, x0 + chunkSize);
+                    int y1 = Math.min(height, y0 + chunkSize);
+                    byte first = (byte) map.get(x0, y0).getValue();
+                    boolean uniform = true;
+                    for (int y = y0; y < y1; y++) {
+                        for (int x = x0; x < x1; x++) {
+                            byte value = (byte) map.get(x, y).getValue();
+                            cells[(y - y0) * chunkSize + x - x0] = value;
+                            uniform &= value == first;
+                        }
+                    }
+                    if (uniform) {
+                        index[cy * chunksX + cx] = ~(long) first;
+                    } else {
+                        index[cy * chunksX + cx] = offset;
+                        offset += writeFully(out, chunk.clear(), offset);
+                    }
+                }
+            }
+
+            ByteBuffer indexBuffer = ByteBuffer.allocate(index.length * 8);
+            indexBuffer.asLongBuffer().put(index);
+            writeFully(out, indexBuffer, indexStart);
+        }
+    }
+
+    private static int writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+        return length;
+    }
+
+    /**
+     * A map held in memory, as parsed from the text form.
+     */
+    static final class GridMap implements LevelMap {
+        private final int width;
+        private final int height;
+        private final int roomWidth;
+        private final int roomHeight;
+        private final byte[] cells; // values in row-major order
+        private final int[] spawns; // x, y, argument triples sorted by row-major cell
+
+        GridMap(int width, int height, int roomWidth, int roomHeight, byte[] cells, int[] spawns) {
+            this.width = width;
+            this.height = height;
+            this.roomWidth = roomWidth;
+            this.roomHeight = roomHeight;
+            this.cells = cells;
+            // Sort the triples by cell so lookups can binary search them, like the binary form
+            long[] keys = new long[spawns.length / 3];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = ((long) spawns[i * 3 + 1] * width + spawns[i * 3]) << 20 | i;
+            }
+            Arrays.sort(keys);
+            this.spawns = new int[spawns.length];
+            for (int i = 0; i < keys.length; i++) {
+                System.arraycopy(spawns, (int) (keys[i] & 0xFFFFF) * 3, this.spawns, i * 3, 3);
+            }
+        }
+
+        @Override
+        public int getWidth() { return width; }
+
+        @Override
+        public int getHeight() { return height; }
+
+        @Override
+        public int getRoomWidth() { return roomWidth; }
+
+        @Override
+        public int getRoomHeight() { return roomHeight; }
+
+        @Override
+        public EntityType get(int x, int y) {
+            return EntityType.fromValue(cells[y * width + x]);
+        }
+
+        @Override
+        public int getSpawnArg(int x, int y) {
+            // Lowest entry at or after the cell, so the first of duplicate lines wins as it was listed
+            long key = (long) y * width + x;
+            int lo = 0;
+            int hi = spawns.length / 3;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if ((long) spawns[mid * 3 + 1] * width + spawns[mid * 3] < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            if (lo * 3 < spawns.length && spawns[lo * 3] == x && spawns[lo * 3 + 1] == y) {
+                return spawns[lo * 3 + 2];
+            }
+            return NO_SPAWN_ARG;
+        }
+
+        @Override
+        public int getSpawnCount() { return spawns.length / 3; }
+
+        @Override
+        public int getSpawnX(int i) { return spawns[i * 3]; }
+
+        @Override
+        public int getSpawnY(int i) { return spawns[i * 3 + 1]; }
+
+        @Override
+        public int getSpawnArg(int i) { return spawns[i * 3 + 2]; }
+    }
+
+    /**
+     * An endless supply of random rooms computed from a hash of each cell, for producing
+     * large test maps without holding them in memory.
+     */
+    private static final class GeneratedMap implements LevelMap {
+        private final int width;
+        private final int height;
+        private final long seed;
+
+        GeneratedMap(int width, int height, long seed) {
+            this.width = width;
+            this.height = height;
+            this.seed = seed;
+        }
+
+        @Override
+        public int getWidth() { return width; }
+
+        @Override
+        public int getHeight() { return height; }
+
+        @Override
+        public int getRoomWidth() { return 20; }
+
+        @Override
+        public int getRoomHeight() { return 15; }
+
+        @Override
+        public EntityType get(int x, int y) {
+            if (x % 20 == 0 || x % 20 == 19 || y % 15 == 0 || y % 15 == 14) return EntityType.WALL;
+            long h = seed + x * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL;
+            h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+            h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+            int roll = (int) ((h ^ (h >>> 31)) >>> 40) % 1000;
+            if (roll < 65) return EntityType.WALL;
+            if (roll < 70) return EntityType.ANTIVIRUS;
+            if (roll < 72) return EntityType.PATROLLING_ANTIVIRUS;
+            if (roll < 73) return EntityType.ENEMY_SPAWNER;
+            if (roll < 75) return EntityType.SHIELD;
+            if (roll < 77) return EntityType.INFECT_UPGRADE;
+            return EntityType.EMPTY;
+        }
+
+        @Override
+        public int getSpawnArg(int x, int y) { return NO_SPAWN_ARG; }
+
+        @Override
+        public int getSpawnCount() { return 0; }
+
+        @Override
+        public int getSpawnX(int i) { throw new IndexOutOfBoundsException(i); }
+
+        @Override
+        public int getSpawnY(int i) { throw new IndexOutOfBoundsException(i); }
+
+        @Override
+        public int getSpawnArg(int i) { throw new IndexOutOfBoundsException(i); }
+    }
+
+    private static long residentKilobytes() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("\\D", ""));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not on Linux
+        }
+        return -1;
+    }
+
+    /**
+     * Usage:
+     * <pre>
+     * MapFile convert &lt;in&gt; &lt;out.txt | out.vvm&gt;
+     * MapFile generate &lt;out.vvm&gt; [width] [height] [seed]
+     * MapFile bench &lt;map.vvm&gt; [rooms]
+     * </pre>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: MapFile convert <in> <out.txt|out.vvm>");
+            System.out.println("       MapFile generate <out.vvm> [width] [height] [seed]");
+            System.out.println("       MapFile bench <map.vvm> [rooms]");
+            return;
+        }
+        Path path = Path.of(args[1]);
+        switch (args[0]) {
+            case "convert" -> {
+                try (LevelMap map = open(path)) {
+                    Path out = Path.of(args[2]);
+                    if (out.toString().endsWith(".vvm")) {
+                        writeBinary(map, out, DEFAULT_CHUNK_SIZE);
+                    } else {
+                        writeText(map, out);
+                    }
+                }
+            }
+            case "generate" -> {
+                int width = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+                int height = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+                long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+                long start = System.nanoTime();
+                writeBinary(new GeneratedMap(width, height, seed), path, DEFAULT_CHUNK_SIZE);
+                System.out.printf("%dx%d map, %.1f MB, written in %.1f s%n", width, height,
+                    Files.size(path) / 1048576.0, (System.nanoTime() - start) / 1e9);
+            }
+            case "bench" -> bench(path, args.length > 2 ? Integer.parseInt(args[2]) : 2_000);
+            default -> System.out.println("Unknown command " + args[0]);
+        }
+    }
+
+    /**
+     * Opens a map, plays its first room, then sweeps a camera across evenly spaced rooms
+     * the way level changes would, prefetching each next room while reading the current one.
+     */
+    private static void bench(Path path, int rooms) throws IOException {
+        long start = System.nanoTime();
+        try (ChunkedMap map = new ChunkedMap(path)) {
+            double openMillis = (System.nanoTime() - start) / 1e6;
+            System.out.printf("%dx%d map opened in %.2f ms, RSS %d MB%n", map.getWidth(), map.getHeight(),
+                openMillis, residentKilobytes() / 1024);
+
+            start = System.nanoTime();
+            GameState game = new GameState(map, 1);
+            double loadMillis = (System.nanoTime() - start) / 1e6;
+            for (int tick = 0; tick < 600 && !game.isGameOver(); tick++) {
+                game.movePlayer(tick % 4 < 2 ? 1 : -1, 0);
+                game.tick(GameServer.tickMillis(tick));
+            }
+            System.out.printf("first level loaded in %.2f ms and played for 600 ticks, score %d%n",
+                loadMillis, game.getScore());
+
+            int across = map.getWidth() / map.getRoomWidth();
+            int total = across * (map.getHeight() / map.getRoomHeight());
+            int maxMapped = 0;
+            long checksum = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < rooms; i++) {
+                int room = (int) ((long) i * total / rooms);
+                int next = (int) ((long) (i + 1) * total / rooms) % total;
+                int x0 = room % across * map.getRoomWidth();
+                int y0 = room / across * map.getRoomHeight();
+                map.prefetch(next % across * map.getRoomWidth(), next / across * map.getRoomHeight(),
+                    map.getRoomWidth(), map.getRoomHeight());
+                for (int y = y0; y < y0 + map.getRoomHeight(); y++) {
+                    for (int x = x0; x < x0 + map.getRoomWidth(); x++) {
+                        checksum += map.get(x, y).getValue();
+                    }
+                }
+                maxMapped = Math.max(maxMapped, map.getMappedChunks());
+            }
+            double sweepMillis = (System.nanoTime() - start) / 1e6;
+            // Evicted chunks are unmapped once collected, so let that happen before measuring
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.printf("%d of %d rooms read in %.0f ms (%.1f us per room), checksum %d%n",
+                rooms, total, sweepMillis, sweepMillis * 1000 / rooms, checksum);
+            System.out.printf("chunks mapped at most %d at once, %d loads; heap %.1f MB, RSS %d MB, file %.1f MB%n",
+                maxMapped, map.getChunkLoads(), (runtime.totalMemory() - runtime.freeMemory()) / 1048576.0,
+                residentKilobytes() / 1024, Files.size(path) / 1048576.0);
+        }
+    }
+}
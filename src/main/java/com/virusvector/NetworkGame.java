@@ -0,0 +1,28 @@
+package com.virusvector;
+
+/**
+ * A game hosted by a {@link GameServer}, as seen by the panel that renders it.
+ * All methods are called from the panel's thread.
+ */
+public interface NetworkGame extends AutoCloseable {
+    /** @return the state to render; may be replaced after a resynchronisation */
+    GameState getState();
+
+    boolean isConnected();
+
+    /**
+     * Brings the local state up to date with the server.
+     *
+     * @return true if the state changed
+     */
+    boolean poll();
+
+    void sendMove(int dir);
+
+    void sendNextLevel();
+
+    void sendRestart();
+
+    @Override
+    void close();
+}
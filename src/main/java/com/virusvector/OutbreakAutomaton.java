@@ -0,0 +1,297 @@
+package com.virusvector;
+
+import java.util.Arrays;
+
+/**
+ * Passive infection spread used by outbreak mode.
+ * The board is held as packed bit rows (bit x of row y), so one generation is a
+ * handful of shift/AND/OR operations per 64 cells, and only rows next to cells
+ * that changed since the previous generation are evaluated.
+ */
+public final class OutbreakAutomaton {
+
+    /**
+     * Spread rules for one outbreak.
+     */
+    public static final class Rules {
+        public static final Rules DEFAULT = new Rules(3, true, true);
+
+        private final int minNeighbors;
+        private final boolean diagonal;
+        private final boolean firewallsBlock;
+
+        /**
+         * @param minNeighbors infected neighbours an empty cell needs to become infected
+         * @param diagonal count all eight neighbours instead of the four orthogonal ones
+         * @param firewallsBlock empty cells orthogonally next to a firewall never get infected
+         */
+        public Rules(int minNeighbors, boolean diagonal, boolean firewallsBlock) {
+            int max = diagonal ? 8 : 4;
+            if (minNeighbors < 1 || minNeighbors > max) {
+                throw new IllegalArgumentException("minNeighbors must be between 1 and " + max);
+            }
+            this.minNeighbors = minNeighbors;
+            this.diagonal = diagonal;
+            this.firewallsBlock = firewallsBlock;
+        }
+
+        public int getMinNeighbors() { return minNeighbors; }
+        public boolean isDiagonal() { return diagonal; }
+        public boolean firewallsBlock() { return firewallsBlock; }
+    }
+
+    /**
+     * Receives every cell infected by a generation.
+     */
+    public interface BirthListener {
+        void born(int x, int y);
+    }
+
+    private final int width;
+    private final int height;
+    private final int words;
+    private final Rules rules;
+
+    // Bit planes, row-major: word i of row y lives at y * words + i
+    private final long[] infected;
+    private final long[] open;
+    private final long[] firewall;
+    private final long[] shielded;
+    private final long[] born;
+
+    // Row bitsets: rows touched since the last generation, and rows with births
+    private long[] activeRows;
+    private long[] nextActiveRows;
+    private final int[] bornRows;
+
+    public OutbreakAutomaton(int width, int height, Rules rules) {
+        this.width = width;
+        this.height = height;
+        this.words = (width + 63) >>> 6;
+        this.rules = rules;
+        int size = words * height;
+        infected = new long[size];
+        open = new long[size];
+        firewall = new long[size];
+        shielded = new long[size];
+        born = new long[size];
+        activeRows = new long[(height + 63) >>> 6];
+        nextActiveRows = new long[activeRows.length];
+        bornRows = new int[height];
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public Rules getRules() { return rules; }
+
+    /**
+     * Rebuilds every plane from a grid indexed as {@code grid[x][y]} and marks the whole board active.
+     */
+    public void load(EntityType[][] grid) {
+        Arrays.fill(infected, 0L);
+        Arrays.fill(open, 0L);
+        Arrays.fill(firewall, 0L);
+        for (int x = 0; x < width; x++) {
+            EntityType[] column = grid[x];
+            int word = x >>> 6;
+            long bit = 1L << x;
+            for (int y = 0; y < height; y++) {
+                int i = y * words + word;
+                switch (column[y]) {
+                    case INFECTED, PLAYER -> infected[i] |= bit;
+                    case EMPTY -> open[i] |= bit;
+                    case FIREWALL -> firewall[i] |= bit;
+                    default -> { }
+                }
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            updateShield(y);
+        }
+        Arrays.fill(activeRows, -1L);
+    }
+
+    /**
+     * Keeps the planes in step with a single grid write made outside the automaton.
+     */
+    public void cellChanged(int x, int y, EntityType type) {
+        int i = y * words + (x >>> 6);
+        long bit = 1L << x;
+        boolean wasFirewall = (firewall[i] & bit) != 0;
+        infected[i] &= ~bit;
+        open[i] &= ~bit;
+        firewall[i] &= ~bit;
+        switch (type) {
+            case INFECTED, PLAYER -> infected[i] |= bit;
+            case EMPTY -> open[i] |= bit;
+            case FIREWALL -> firewall[i] |= bit;
+            default -> { }
+        }
+        if (wasFirewall != (type == EntityType.FIREWALL)) {
+            for (int r = Math.max(0, y - 1); r <= Math.min(height - 1, y + 1); r++) {
+                updateShield(r);
+            }
+        }
+        activeRows[y >>> 6] |= 1L << y;
+    }
+
+    public boolean isInfected(int x, int y) {
+        return (infected[y * words + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Runs one generation. Every newly infected cell is reported to the listener
+     * (which may be null) after the whole generation has been computed.
+     *
+     * @return the number of cells infected by this generation
+     */
+    public int step(BirthListener listener) {
+        int bornRowCount = 0;
+        for (int y = 0; y < height; y++) {
+            if (!isActive(y - 1) && !isActive(y) && !isActive(y + 1)) {
+                continue;
+            }
+            if (computeBirths(y)) {
+                bornRows[bornRowCount++] = y;
+            }
+        }
+
+        Arrays.fill(nextActiveRows, 0L);
+        int total = 0;
+        for (int r = 0; r < bornRowCount; r++) {
+            int y = bornRows[r];
+            int base = y * words;
+            for (int w = 0; w < words; w++) {
+                long b = born[base + w];
+                if (b == 0) continue;
+                born[base + w] = 0;
+                infected[base + w] |= b;
+                open[base + w] &= ~b;
+                total += Long.bitCount(b);
+                if (listener != null) {
+                    while (b != 0) {
+                        listener.born((w << 6) + Long.numberOfTrailingZeros(b), y);
+                        b &= b - 1;
+                    }
+                }
+            }
+            nextActiveRows[y >>> 6] |= 1L << y;
+        }
+        long[] swap = activeRows;
+        activeRows = nextActiveRows;
+        nextActiveRows = swap;
+        return total;
+    }
+
+    /**
+     * @return true if no further generation can infect anything until the board changes
+     */
+    public boolean isSettled() {
+        for (long rows : activeRows) {
+            if (rows != 0) return false;
+        }
+        return true;
+    }
+
+    private boolean isActive(int y) {
+        return y >= 0 && y < height && (activeRows[y >>> 6] & (1L << y)) != 0;
+    }
+
+    private boolean computeBirths(int y) {
+        int row = y * words;
+        int up = y > 0 ? row - words : -1;
+        int down = y < height - 1 ? row + words : -1;
+        int k = rules.minNeighbors;
+        boolean any = false;
+
+        for (int w = 0; w < words; w++) {
+            long candidates = open[row + w] & ~shielded[row + w];
+            if (candidates == 0) continue;
+
+            // Bit-sliced neighbour count, four planes are enough for 0..8
+            long s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            long[] n = neighbourWords(up, row, down, w);
+            for (int j = 0; j < n.length; j++) {
+                long c = n[j];
+                long t = s0 & c; s0 ^= c; c = t;
+                t = s1 & c; s1 ^= c; c = t;
+                t = s2 & c; s2 ^= c; c = t;
+                s3 |= c;
+            }
+
+            long b = atLeast(k, s0, s1, s2, s3) & candidates;
+            if (b != 0) {
+                born[row + w] = b;
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    // Bits whose 4-bit count (s3 s2 s1 s0) is >= k, compared from the most significant plane
+    private static long atLeast(int k, long s0, long s1, long s2, long s3) {
+        long gt = 0, eq = -1L;
+        for (int b = 3; b >= 0; b--) {
+            long plane = b == 3 ? s3 : b == 2 ? s2 : b == 1 ? s1 : s0;
+            if (((k >>> b) & 1) != 0) {
+                eq &= plane;
+            } else {
+                gt |= eq & plane;
+                eq &= ~plane;
+            }
+        }
+        return gt | eq;
+    }
+
+    private final long[] orthogonal = new long[4];
+    private final long[] moore = new long[8];
+
+    private long[] neighbourWords(int up, int row, int down, int w) {
+        long north = up >= 0 ? infected[up + w] : 0;
+        long south = down >= 0 ? infected[down + w] : 0;
+        if (!rules.diagonal) {
+            orthogonal[0] = north;
+            orthogonal[1] = south;
+            orthogonal[2] = west(row, w);
+            orthogonal[3] = east(row, w);
+            return orthogonal;
+        }
+        moore[0] = north;
+        moore[1] = south;
+        moore[2] = west(row, w);
+        moore[3] = east(row, w);
+        moore[4] = up >= 0 ? west(up, w) : 0;
+        moore[5] = up >= 0 ? east(up, w) : 0;
+        moore[6] = down >= 0 ? west(down, w) : 0;
+        moore[7] = down >= 0 ? east(down, w) : 0;
+        return moore;
+    }
+
+    // Bit x holds the state of cell x - 1
+    private long west(int row, int w) {
+        long v = infected[row + w] << 1;
+        return w > 0 ? v | (infected[row + w - 1] >>> 63) : v;
+    }
+
+    // Bit x holds the state of cell x + 1
+    private long east(int row, int w) {
+        long v = infected[row + w] >>> 1;
+        return w + 1 < words ? v | (infected[row + w + 1] << 63) : v;
+    }
+
+    private void updateShield(int y) {
+        int row = y * words;
+        if (!rules.firewallsBlock) {
+            Arrays.fill(shielded, row, row + words, 0L);
+            return;
+        }
+        for (int w = 0; w < words; w++) {
+            long f = firewall[row + w];
+            long left = f << 1 | (w > 0 ? firewall[row + w - 1] >>> 63 : 0);
+            long right = f >>> 1 | (w + 1 < words ? firewall[row + w + 1] << 63 : 0);
+            long above = y > 0 ? firewall[row - words + w] : 0;
+            long below = y < height - 1 ? firewall[row + words + w] : 0;
+            shielded[row + w] = left | right | above | below;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.virusvector;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Fixed-capacity pool of square particles kept in parallel primitive arrays. Dead
+ * particles are swap-removed, so the live ones stay packed at the front, and nothing
+ * is allocated after construction apart from the overlay image when the drawing area
+ * grows.
+ *
+ * Drawing does not go through one {@code fillRect} per particle, which costs several
+ * microseconds each once alpha is involved. Particles are blended straight into the
+ * pixels of a premultiplied overlay, using colour ramps built up front with one entry
+ * per alpha level, and the part of the overlay that was touched is composited with a
+ * single {@code drawImage}.
+ */
+public final class ParticleSystem {
+    private final int capacity;
+    private final float[] x;
+    private final float[] y;
+    private final float[] vx;
+    private final float[] vy;
+    private final float[] alpha;
+    private final float[] fade;
+    private final byte[] ramp;
+    private final byte[] size;
+    private int count;
+    private float gravity;
+    private final Random random = new Random();
+
+    // Premultiplied ARGB for each ramp at alpha 0..255
+    private int[][] ramps = new int[0][];
+
+    private BufferedImage overlay;
+    private int[] pixels;
+    private int minX, minY, maxX, maxY; // area drawn into the overlay last time, empty if minX > maxX
+
+    public ParticleSystem(int capacity) {
+        this.capacity = capacity;
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        alpha = new float[capacity];
+        fade = new float[capacity];
+        ramp = new byte[capacity];
+        size = new byte[capacity];
+    }
+
+    /**
+     * Registers a colour; particles refer to it by the returned index.
+     */
+    public int addRamp(Color color) {
+        int[] entries = new int[256];
+        for (int a = 0; a < 256; a++) {
+            entries[a] = a << 24 | (color.getRed() * a / 255) << 16 | (color.getGreen() * a / 255) << 8 | color.getBlue() * a / 255;
+        }
+        ramps = Arrays.copyOf(ramps, ramps.length + 1);
+        ramps[ramps.length - 1] = entries;
+        return ramps.length - 1;
+    }
+
+    /** Added to every particle's vertical speed each update. */
+    public void setGravity(float gravity) { this.gravity = gravity; }
+
+    public int size() { return count; }
+
+    public int getCapacity() { return capacity; }
+
+    public void clear() { count = 0; }
+
+    /**
+     * Removes every particle and frees the overlay; it is recreated on the next draw.
+     */
+    public void dispose() {
+        count = 0;
+        overlay = null;
+        pixels = null;
+    }
+
+    /**
+     * Adds one particle at full opacity; ignored when the pool is full.
+     *
+     * @param fade opacity lost per update, so the particle lives about 1 / fade updates
+     */
+    public void spawn(float px, float py, float pvx, float pvy, float pfade, int rampIndex, int pixelSize) {
+        if (count == capacity) return;
+        int i = count++;
+        x[i] = px;
+        y[i] = py;
+        vx[i] = pvx;
+        vy[i] = pvy;
+        alpha[i] = 1f;
+        fade[i] = pfade;
+        ramp[i] = (byte) rampIndex;
+        size[i] = (byte) pixelSize;
+    }
+
+    /**
+     * Spawns particles flying out of a point in random directions.
+     *
+     * @param lift  added to every vertical speed, positive is downwards
+     * @param fade  opacity lost per update, plus up to 40% more at random
+     */
+    public void burst(float px, float py, int particles, float minSpeed, float maxSpeed, float lift,
+                      float pfade, int rampIndex, int pixelSize) {
+        for (int n = 0; n < particles; n++) {
+            double angle = random.nextDouble() * Math.PI * 2;
+            float speed = minSpeed + random.nextFloat() * (maxSpeed - minSpeed);
+            spawn(px, py, (float) Math.cos(angle) * speed, (float) Math.sin(angle) * speed + lift,
+                pfade * (1f + random.nextFloat() * 0.4f), rampIndex, pixelSize);
+        }
+    }
+
+    /**
+     * Advances every particle by one frame and drops the ones that have faded out.
+     */
+    public void update() {
+        int i = 0;
+        while (i < count) {
+            float a = alpha[i] - fade[i];
+            if (a <= 0f) {
+                int last = --count;
+                x[i] = x[last];
+                y[i] = y[last];
+                vx[i] = vx[last];
+                vy[i] = vy[last];
+                alpha[i] = alpha[last];
+                fade[i] = fade[last];
+                ramp[i] = ramp[last];
+                size[i] = size[last];
+                continue; // the moved particle has not been updated yet
+            }
+            alpha[i] = a;
+            x[i] += vx[i];
+            y[i] += vy[i];
+            vy[i] += gravity;
+            i++;
+        }
+    }
+
+    /**
+     * Blends the live particles over an area of the given size at the graphics origin.
+     */
+    public void draw(Graphics2D g2d, int width, int height) {
+        if (width <= 0 || height <= 0) return;
+        if (overlay == null || overlay.getWidth() < width || overlay.getHeight() < height) {
+            overlay = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            pixels = ((DataBufferInt) overlay.getRaster().getDataBuffer()).getData();
+            minX = minY = 0;
+            maxX = maxY = -1;
+        }
+        int stride = overlay.getWidth();
+        for (int row = minY; row <= maxY; row++) {
+            Arrays.fill(pixels, row * stride + minX, row * stride + maxX + 1, 0);
+        }
+        minX = minY = Integer.MAX_VALUE;
+        maxX = maxY = -1;
+        if (count == 0) return;
+
+        for (int i = 0; i < count; i++) {
+            int s = size[i];
+            int x0 = Math.max(0, (int) x[i] - s / 2);
+            int y0 = Math.max(0, (int) y[i] - s / 2);
+            int x1 = Math.min(width, (int) x[i] - s / 2 + s);
+            int y1 = Math.min(height, (int) y[i] - s / 2 + s);
+            if (x0 >= x1 || y0 >= y1) continue;
+            minX = Math.min(minX, x0);
+            minY = Math.min(minY, y0);
+            maxX = Math.max(maxX, x1 - 1);
+            maxY = Math.max(maxY, y1 - 1);
+
+            int a = (int) (alpha[i] * 255);
+            int src = ramps[ramp[i]][a];
+            int keep = 255 - a;
+            for (int py = y0; py < y1; py++) {
+                int o = py * stride + x0;
+                for (int px = x0; px < x1; px++, o++) {
+                    // Source-over on premultiplied pixels, two channels per multiply
+                    int d = pixels[o];
+                    int rb = ((d & 0xFF00FF) * keep >>> 8) & 0xFF00FF;
+                    int ag = (((d >>> 8) & 0xFF00FF) * keep) & 0xFF00FF00;
+                    pixels[o] = src + (rb | ag);
+                }
+            }
+        }
+        if (maxX < 0) {
+            minX = minY = 0;
+            return;
+        }
+        g2d.drawImage(overlay, minX, minY, maxX + 1, maxY + 1, minX, minY, maxX + 1, maxY + 1, null);
+    }
+}
@@ -0,0 +1,448 @@
+package com.virusvector;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * Client side of a predicting {@link GameServer} session. The game is simulated here as
+ * well, from the seed the server sends, so an input shows on screen the moment it is
+ * made instead of a round trip later.
+ *
+ * Every local tick is made with {@link GameState#makeTick(long)}, leaving a bounded
+ * history that can be unmade. When the server reports that an input took effect on a
+ * different tick than predicted, the state is rolled back to the earlier of the two and
+ * re-simulated to the present before the next frame is drawn. The server's periodic
+ * checksums confirm both copies agree; if they ever do not, or a correction reaches
+ * further back than the history, the session is restarted from a fresh seed.
+ *
+ * The client runs a few ticks ahead of the server so that its inputs normally arrive
+ * before the tick they are stamped with. The lead starts from the handshake round trip
+ * and follows how early or late the server says each input arrived.
+ */
+public final class PredictedGame implements NetworkGame {
+    /** Ticks of history kept; corrections further back than this force a resync. */
+    public static final int HISTORY_TICKS = 120;
+    private static final int TARGET_MARGIN = 2; // ticks early we want inputs to arrive
+    private static final int MAX_LEAD = 30;
+    private static final int MAX_CATCH_UP = 8; // ticks simulated per poll, besides re-simulation
+    private static final long TICK_NANOS = 1_000_000_000L / GameServer.TICK_RATE;
+
+    private final SocketChannel channel;
+    private final ByteBuffer output = ByteBuffer.allocate(7);
+    private final Thread reader;
+    private volatile boolean closed;
+
+    // Length-prefixed messages from the reader thread, guarded by inboxLock
+    private final Object inboxLock = new Object();
+    private ByteBuffer inbox = ByteBuffer.allocate(4096);
+    private ByteBuffer work = ByteBuffer.allocate(4096);
+
+    private GameState state;
+    private int localTick;
+    private long startNanos;
+    private int lead;
+    private int earlyStreak;
+    private boolean resyncing;
+    private long resyncSent;
+
+    // Per tick of history: absolute undo frame, hash and score when the tick began
+    private final long[] tickFrames = new long[HISTORY_TICKS];
+    private final long[] tickHashes = new long[HISTORY_TICKS];
+    private final int[] tickScores = new int[HISTORY_TICKS];
+    private long discardedFrames;
+
+    // Inputs still inside the history, oldest first; the first confirmedInputs are acknowledged
+    private int[] inputTicks = new int[32];
+    private byte[] inputCommands = new byte[32];
+    private byte[] inputArgs = new byte[32];
+    private int inputCount;
+    private int confirmedInputs;
+
+    private int checkTick = -1;
+    private long checkHash;
+    private int checkScore;
+
+    private long rollbacks;
+    private long rollbackTicks;
+    private int maxRollbackTicks;
+    private long rollbackNanos;
+    private long maxRollbackNanos;
+    private long checksPassed;
+    private long desyncs;
+
+    /**
+     * Connects and waits for the server to start a predicting session.
+     */
+    public PredictedGame(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        requestSession();
+        ByteBuffer length = ByteBuffer.allocate(4);
+        ByteBuffer body = ByteBuffer.allocate(64);
+        do {
+            // Frames of the ordinary stream may still be on their way
+            body = readMessage(length, body);
+        } while (body.get(0) != GameServer.MSG_SESSION);
+        body.get();
+        startSession(body.getLong());
+        reader = new Thread(this::readLoop, "predicted-game-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /** @return the predicted state, only to be used on the thread calling {@link #poll()} */
+    @Override
+    public GameState getState() { return state; }
+
+    @Override
+    public boolean isConnected() { return !closed; }
+
+    public int getLocalTick() { return localTick; }
+    public int getLeadTicks() { return lead; }
+    public long getRollbacks() { return rollbacks; }
+    public long getRollbackTicks() { return rollbackTicks; }
+    public int getMaxRollbackTicks() { return maxRollbackTicks; }
+    public long getRollbackNanos() { return rollbackNanos; }
+    public long getMaxRollbackNanos() { return maxRollbackNanos; }
+    public long getChecksPassed() { return checksPassed; }
+    public long getDesyncs() { return desyncs; }
+
+    /**
+     * Handles everything received since the previous poll, re-simulating if the server
+     * corrected a prediction, then advances the game to where it should be by now.
+     *
+     * @return true if the state changed
+     */
+    @Override
+    public boolean poll() {
+        synchronized (inboxLock) {
+            ByteBuffer swap = work;
+            work = inbox;
+            inbox = swap;
+            inbox.clear();
+        }
+        work.flip();
+        int rollbackTo = Integer.MAX_VALUE;
+        boolean changed = false;
+        while (work.hasRemaining()) {
+            int end = work.getInt() + work.position();
+            byte kind = work.get();
+            if (kind == GameServer.MSG_SESSION) {
+                if (resyncing) {
+                    startSession(work.getLong());
+                    rollbackTo = Integer.MAX_VALUE;
+                    changed = true;
+                }
+            } else if (!resyncing && kind == GameServer.MSG_ACK) {
+                int applied = StateDelta.getVarint(work);
+                rollbackTo = Math.min(rollbackTo, acknowledge(applied, StateDelta.getZigzag(work)));
+            } else if (!resyncing && kind == GameServer.MSG_CHECK) {
+                checkTick = StateDelta.getVarint(work);
+                checkHash = work.getLong();
+                checkScore = StateDelta.getVarint(work);
+            }
+            work.position(end);
+        }
+        if (resyncing) return changed;
+
+        if (rollbackTo <= localTick) {
+            if (rollbackTo < oldestTick()) {
+                resync();
+                return changed;
+            }
+            rollback(rollbackTo);
+            changed = true;
+        }
+
+        long target = (System.nanoTime() - startNanos) / TICK_NANOS + lead;
+        for (int i = 0; i < MAX_CATCH_UP && localTick < target; i++) {
+            advance();
+            changed = true;
+        }
+        verify();
+        trimHistory();
+        return changed;
+    }
+
+    @Override
+    public void sendMove(int dir) { input(GameServer.INPUT_MOVE, dir); }
+    @Override
+    public void sendNextLevel() { input(GameServer.INPUT_NEXT_LEVEL, 0); }
+    @Override
+    public void sendRestart() { input(GameServer.INPUT_RESTART, 0); }
+
+    /**
+     * Applies an input straight away and tells the server which tick it belongs to.
+     * Inputs queued behind a late one cannot take effect before it, so they are stamped
+     * no earlier.
+     */
+    private void input(byte command, int arg) {
+        if (closed || resyncing) return;
+        int tick = inputCount > 0 ? Math.max(localTick, inputTicks[inputCount - 1]) : localTick;
+        if (inputCount == inputTicks.length) {
+            inputTicks = Arrays.copyOf(inputTicks, inputCount * 2);
+            inputCommands = Arrays.copyOf(inputCommands, inputCount * 2);
+            inputArgs = Arrays.copyOf(inputArgs, inputCount * 2);
+        }
+        inputTicks[inputCount] = tick;
+        inputCommands[inputCount] = command;
+        inputArgs[inputCount] = (byte) arg;
+        inputCount++;
+        if (tick == localTick) {
+            apply(command, (byte) arg);
+        }
+        synchronized (output) {
+            output.clear();
+            output.put(GameServer.INPUT_TIMED).putInt(tick).put(command).put((byte) arg).flip();
+            write(output);
+        }
+    }
+
+    /**
+     * Confirms the oldest unacknowledged input and adjusts the lead.
+     *
+     * @return the earliest tick that has to be re-simulated, or {@link Integer#MAX_VALUE}
+     */
+    private int acknowledge(int applied, int margin) {
+        if (margin < TARGET_MARGIN) {
+            lead = Math.min(MAX_LEAD, lead + TARGET_MARGIN - margin);
+            earlyStreak = 0;
+        } else if (margin > TARGET_MARGIN + 2 && ++earlyStreak >= 8) {
+            lead = Math.max(0, lead - 1); // shrink slowly so jitter does not make it oscillate
+            earlyStreak = 0;
+        }
+        if (confirmedInputs == inputCount) {
+            return Integer.MAX_VALUE; // pruned already, nothing to correct
+        }
+        int i = confirmedInputs++;
+        int predicted = inputTicks[i];
+        if (predicted == applied) {
+            return Integer.MAX_VALUE;
+        }
+        int from = Math.min(predicted, applied);
+        inputTicks[i] = applied;
+        for (int j = i + 1; j < inputCount && inputTicks[j] < applied; j++) {
+            inputTicks[j] = applied;
+        }
+        return from;
+    }
+
+    /**
+     * Unmakes back to the start of the given tick and simulates forward again with the
+     * inputs as they are now known.
+     */
+    private void rollback(int tick) {
+        long start = System.nanoTime();
+        int present = localTick;
+        long frame = tickFrames[tick % HISTORY_TICKS];
+        while (discardedFrames + state.getUndoDepth() > frame) {
+            state.unmake();
+        }
+        localTick = tick;
+        applyInputsAt(tick);
+        while (localTick < present) {
+            advance();
+        }
+        long elapsed = System.nanoTime() - start;
+        int ticks = present - tick;
+        rollbacks++;
+        rollbackTicks += ticks;
+        maxRollbackTicks = Math.max(maxRollbackTicks, ticks);
+        rollbackNanos += elapsed;
+        maxRollbackNanos = Math.max(maxRollbackNanos, elapsed);
+    }
+
+    private void advance() {
+        state.makeTick(GameServer.tickMillis(localTick));
+        localTick++;
+        record();
+        applyInputsAt(localTick);
+    }
+
+    private void record() {
+        int slot = localTick % HISTORY_TICKS;
+        tickFrames[slot] = discardedFrames + state.getUndoDepth();
+        tickHashes[slot] = state.getHash();
+        tickScores[slot] = state.getScore();
+    }
+
+    private void applyInputsAt(int tick) {
+        for (int i = 0; i < inputCount; i++) {
+            if (inputTicks[i] == tick) {
+                apply(inputCommands[i], inputArgs[i]);
+            } else if (inputTicks[i] > tick) {
+                break;
+            }
+        }
+    }
+
+    // Mirrors GameServer.applyInput, recording each input so it can be unmade
+    private void apply(byte command, byte arg) {
+        switch (command) {
+            case GameServer.INPUT_MOVE -> {
+                if (arg >= 0 && arg < 4) {
+                    state.makeMove(LevelSolver.dx(arg), LevelSolver.dy(arg));
+                }
+            }
+            case GameServer.INPUT_NEXT_LEVEL -> state.makeNextLevel();
+            case GameServer.INPUT_RESTART -> {
+                if (state.isGameOver()) state.makeNewGame();
+            }
+            default -> { }
+        }
+    }
+
+    /**
+     * Compares the latest server checksum once every input before its tick is confirmed.
+     */
+    private void verify() {
+        if (checkTick < 0 || checkTick > localTick) return;
+        if (checkTick < oldestTick()) {
+            checkTick = -1;
+            return;
+        }
+        if (confirmedInputs < inputCount && inputTicks[confirmedInputs] < checkTick) return;
+        int slot = checkTick % HISTORY_TICKS;
+        checkTick = -1;
+        if (tickHashes[slot] == checkHash && tickScores[slot] == checkScore) {
+            checksPassed++;
+        } else {
+            desyncs++;
+            resync();
+        }
+    }
+
+    private int oldestTick() {
+        return Math.max(0, localTick - HISTORY_TICKS + 1);
+    }
+
+    /**
+     * Drops undo frames and confirmed inputs older than the history. Frames go in
+     * batches so the journal is compacted only now and then.
+     */
+    private void trimHistory() {
+        int oldest = oldestTick();
+        long keepFrom = tickFrames[oldest % HISTORY_TICKS];
+        if (keepFrom - discardedFrames >= HISTORY_TICKS) {
+            int count = (int) (keepFrom - discardedFrames);
+            state.discardOldestUndo(count);
+            discardedFrames += count;
+        }
+        int drop = 0;
+        while (drop < confirmedInputs && inputTicks[drop] < oldest) {
+            drop++;
+        }
+        if (drop > 0) {
+            inputCount -= drop;
+            confirmedInputs -= drop;
+            System.arraycopy(inputTicks, drop, inputTicks, 0, inputCount);
+            System.arraycopy(inputCommands, drop, inputCommands, 0, inputCount);
+            System.arraycopy(inputArgs, drop, inputArgs, 0, inputCount);
+        }
+    }
+
+    private void startSession(long seed) {
+        long now = System.nanoTime();
+        long roundTrip = now - resyncSent;
+        state = new GameState(seed);
+        localTick = 0;
+        discardedFrames = 0;
+        inputCount = 0;
+        confirmedInputs = 0;
+        checkTick = -1;
+        earlyStreak = 0;
+        resyncing = false;
+        record();
+        // The server is half a round trip in by now, and inputs take another half to get there
+        lead = (int) Math.min(MAX_LEAD, (roundTrip + TICK_NANOS - 1) / TICK_NANOS + TARGET_MARGIN);
+        startNanos = now;
+        while (localTick < lead) {
+            advance();
+        }
+    }
+
+    /**
+     * Asks the server for a new session; the game restarts when it arrives.
+     */
+    private void resync() {
+        resyncing = true;
+        requestSession();
+    }
+
+    private void requestSession() {
+        synchronized (output) {
+            resyncSent = System.nanoTime();
+            output.clear();
+            output.put(GameServer.INPUT_PREDICT).put((byte) 0).flip();
+            write(output);
+        }
+    }
+
+    private void write(ByteBuffer buffer) {
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void readLoop() {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        ByteBuffer body = ByteBuffer.allocate(64);
+        try {
+            while (!closed) {
+                body = readMessage(length, body);
+                byte kind = body.get(0);
+                if (kind == StateDelta.KEYFRAME || kind == StateDelta.DELTA) continue;
+                synchronized (inboxLock) {
+                    if (inbox.remaining() < 4 + body.remaining()) {
+                        ByteBuffer bigger = ByteBuffer.allocate(Math.max(inbox.capacity() * 2, inbox.position() + 4 + body.remaining()));
+                        inbox.flip();
+                        bigger.put(inbox);
+                        inbox = bigger;
+                    }
+                    inbox.putInt(body.remaining()).put(body);
+                }
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private ByteBuffer readMessage(ByteBuffer length, ByteBuffer body) throws IOException {
+        length.clear();
+        readFully(length);
+        int size = length.getInt(0);
+        if (body.capacity() < size) {
+            body = ByteBuffer.allocate(size);
+        }
+        body.clear().limit(size);
+        readFully(body);
+        body.flip();
+        return body;
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
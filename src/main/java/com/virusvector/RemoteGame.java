@@ -0,0 +1,157 @@
+package com.virusvector;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Client side of a {@link GameServer} session. A background thread decodes every
+ * {@link StateDelta} message into a mirror frame and remembers which cells changed;
+ * the game panel then copies just those cells to a local replica state once per frame,
+ * so rendering code is the same as for a local game.
+ */
+public final class RemoteGame implements NetworkGame {
+    private final SocketChannel channel;
+    private final ByteBuffer input = ByteBuffer.allocate(2);
+    private final StateDelta.Decoder decoder = new StateDelta.Decoder();
+    private final GameState replica;
+    private final Thread reader;
+    private ByteBuffer body = ByteBuffer.allocate(0);
+    private volatile boolean closed;
+
+    // Cells changed since the last poll, guarded by the decoder's lock
+    private boolean pendingAll;
+    private boolean pendingScalars;
+    private long[] pendingBits;
+    private int[] pendingCells;
+    private int pendingCount;
+
+    /**
+     * Connects and waits for the first keyframe so the replica has the server's board size.
+     */
+    public RemoteGame(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        readMessage(ByteBuffer.allocate(4));
+        StateFrame first = decoder.getFrame();
+        replica = new GameState(first.width, first.height, 0);
+        replica.setChangeTracking(true);
+        replica.applyFrame(first);
+        pendingBits = new long[(first.width * first.height + 63) >>> 6];
+        pendingCells = new int[first.width * first.height];
+        reader = new Thread(this::readLoop, "remote-game-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /** @return the local copy of the server's state, only to be used on the thread calling {@link #poll()} */
+    @Override
+    public GameState getState() { return replica; }
+
+    @Override
+    public boolean isConnected() { return !closed; }
+
+    /**
+     * Copies everything received since the previous poll to the replica.
+     *
+     * @return true if the replica changed
+     */
+    @Override
+    public boolean poll() {
+        synchronized (decoder) {
+            if (!pendingScalars) return false;
+            StateFrame frame = decoder.getFrame();
+            if (pendingAll) {
+                replica.applyFrame(frame);
+            } else {
+                replica.applyFrame(frame, pendingCells, pendingCount);
+            }
+            for (int i = 0; i < pendingCount; i++) {
+                pendingBits[pendingCells[i] >>> 6] = 0;
+            }
+            pendingCount = 0;
+            pendingAll = false;
+            pendingScalars = false;
+            return true;
+        }
+    }
+
+    @Override
+    public void sendMove(int dir) { send(GameServer.INPUT_MOVE, dir); }
+    @Override
+    public void sendNextLevel() { send(GameServer.INPUT_NEXT_LEVEL, 0); }
+    @Override
+    public void sendRestart() { send(GameServer.INPUT_RESTART, 0); }
+
+    private synchronized void send(byte command, int arg) {
+        if (closed) return;
+        input.clear();
+        input.put(command).put((byte) arg).flip();
+        try {
+            while (input.hasRemaining()) {
+                channel.write(input);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void readLoop() {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        try {
+            while (!closed) {
+                readMessage(length);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void readMessage(ByteBuffer length) throws IOException {
+        length.clear();
+        readFully(length);
+        int size = length.getInt(0);
+        if (body.capacity() < size) {
+            body = ByteBuffer.allocate(size);
+        }
+        body.clear().limit(size);
+        readFully(body);
+        body.flip();
+        synchronized (decoder) {
+            decoder.decode(body);
+            pendingScalars = true;
+            if (decoder.isKeyframe()) {
+                pendingAll = true;
+            } else if (!pendingAll && pendingCells != null) {
+                for (int i = 0; i < decoder.getChangedCellCount(); i++) {
+                    int cell = decoder.getChangedCell(i);
+                    long bit = 1L << cell;
+                    if ((pendingBits[cell >>> 6] & bit) == 0) {
+                        pendingBits[cell >>> 6] |= bit;
+                        pendingCells[pendingCount++] = cell;
+                    }
+                }
+            }
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
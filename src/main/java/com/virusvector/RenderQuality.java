@@ -0,0 +1,176 @@
+package com.virusvector;
+
+/**
+ * Picks how much a screen draws from how long its recent frames took. Frames are
+ * judged in windows: a window that overran the budget, by the time painting took or
+ * by frames arriving late, drops one tier straight away, while stepping back up takes
+ * a run of windows with plenty of headroom. The run needed doubles each time a step up
+ * had to be taken back soon after, so a machine that sits between two tiers settles on
+ * the lower one instead of flapping.
+ */
+public final class RenderQuality {
+    /**
+     * What each tier draws, from cheapest to full quality.
+     */
+    public enum Tier {
+        LOW(false, false, false, 0, false),
+        MEDIUM(false, false, true, 25, true),
+        HIGH(false, true, true, 50, true),
+        FULL(true, true, true, 100, true);
+
+        private final boolean antialiasing;
+        private final boolean glow;
+        private final boolean gridLines;
+        private final int particlePercent;
+        private final boolean enemyIcons;
+
+        Tier(boolean antialiasing, boolean glow, boolean gridLines, int particlePercent, boolean enemyIcons) {
+            this.antialiasing = antialiasing;
+            this.glow = glow;
+            this.gridLines = gridLines;
+            this.particlePercent = particlePercent;
+            this.enemyIcons = enemyIcons;
+        }
+
+        public boolean antialiasing() { return antialiasing; }
+        public boolean glow() { return glow; }
+        public boolean gridLines() { return gridLines; }
+        public boolean enemyIcons() { return enemyIcons; }
+
+        /** @return the share of a full-quality particle count to spawn */
+        public int particles(int count) {
+            return count * particlePercent / 100;
+        }
+    }
+
+    private static final Tier[] TIERS = Tier.values();
+    private static final int WINDOW_FRAMES = 30;
+    private static final int OVER_BUDGET_PERCENT = 80; // of the budget spent painting
+    private static final int LATE_PERCENT = 125; // of the frame interval
+    private static final int HEADROOM_PERCENT = 35;
+    private static final int MIN_STREAK = 4;
+    private static final int MAX_STREAK = 64;
+    static final String TIER_PROPERTY = "virusvector.quality";
+
+    private final long budgetNanos;
+    private final boolean fixed;
+    private Tier tier;
+
+    private long lastFrameStart;
+    private long paintStart;
+    private int frames;
+    private long workNanos;
+    private long intervalNanos;
+    private int intervals;
+    private int goodWindows;
+    private int streakNeeded = MIN_STREAK;
+    private boolean steppedUp; // the last change was a step up, not yet proven
+
+    // Last full window, for the profiler overlay
+    private double lastWorkMillis;
+    private double lastFps;
+    private String description;
+
+    /**
+     * @param frameMillis the interval the screen repaints at. A tier given with
+     * {@code -Dvirusvector.quality=LOW|MEDIUM|HIGH|FULL} is kept fixed.
+     */
+    public RenderQuality(int frameMillis) {
+        this.budgetNanos = frameMillis * 1_000_000L;
+        String forced = System.getProperty(TIER_PROPERTY);
+        Tier start = Tier.FULL;
+        if (forced != null) {
+            try {
+                start = Tier.valueOf(forced.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.out.println("Unknown quality " + forced + ", adapting instead");
+                forced = null;
+            }
+        }
+        this.tier = start;
+        this.fixed = forced != null;
+    }
+
+    public Tier getTier() { return tier; }
+
+    /** Call as painting starts. */
+    public void beginFrame() {
+        long now = System.nanoTime();
+        if (lastFrameStart != 0) {
+            long interval = now - lastFrameStart;
+            if (interval < budgetNanos * 4) { // longer gaps are pauses, not slow frames
+                intervalNanos += interval;
+                intervals++;
+            }
+        }
+        lastFrameStart = now;
+        paintStart = now;
+    }
+
+    /**
+     * Call as painting ends.
+     *
+     * @return whether the tier changed, in which case cached drawings should be redone
+     */
+    public boolean endFrame() {
+        workNanos += System.nanoTime() - paintStart;
+        if (++frames < WINDOW_FRAMES) return false;
+
+        long work = workNanos / frames;
+        long interval = intervals > 0 ? intervalNanos / intervals : budgetNanos;
+        lastWorkMillis = work / 1e6;
+        lastFps = 1e9 / Math.max(interval, 1);
+        description = null;
+        frames = 0;
+        workNanos = 0;
+        intervalNanos = 0;
+        intervals = 0;
+        if (fixed) return false;
+
+        boolean over = work * 100 > budgetNanos * OVER_BUDGET_PERCENT
+            || interval * 100 > budgetNanos * LATE_PERCENT;
+        if (over) {
+            goodWindows = 0;
+            if (steppedUp) {
+                streakNeeded = Math.min(MAX_STREAK, streakNeeded * 2); // that tier did not hold
+            }
+            steppedUp = false;
+            return step(-1);
+        }
+        if (steppedUp) {
+            steppedUp = ++goodWindows < MIN_STREAK; // the new tier has to hold before the next step
+            if (!steppedUp) goodWindows = 0;
+            return false;
+        }
+        if (work * 100 < budgetNanos * HEADROOM_PERCENT) {
+            if (++goodWindows >= streakNeeded && step(1)) {
+                goodWindows = 0;
+                steppedUp = true;
+                return true;
+            }
+        } else {
+            goodWindows = 0;
+        }
+        return false;
+    }
+
+    private boolean step(int direction) {
+        int next = tier.ordinal() + direction;
+        if (next < 0 || next >= TIERS.length) return false;
+        tier = TIERS[next];
+        description = null;
+        return true;
+    }
+
+    /**
+     * @return one line for the profiler overlay: frame rate, paint time and tier, built
+     * again only once per window
+     */
+    public String describe() {
+        if (description == null) {
+            description = String.format("%.0f fps | paint %.2f ms | %s%s", lastFps, lastWorkMillis, tier,
+                fixed ? " (fixed)" : "");
+        }
+        return description;
+    }
+}
@@ -0,0 +1,56 @@
+package com.virusvector;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Steps through a file written by {@link ReplayWriter}, one tick per {@link #next()}.
+ */
+public final class ReplayReader implements AutoCloseable {
+    private final DataInputStream in;
+    private final StateDelta.Decoder decoder = new StateDelta.Decoder();
+    private byte[] message = new byte[0];
+
+    public ReplayReader(Path file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+        if (in.readInt() != ReplayWriter.MAGIC) {
+            in.close();
+            throw new IOException(file + " is not a replay file");
+        }
+    }
+
+    /**
+     * Decodes the next tick.
+     *
+     * @return false at the end of the file
+     */
+    public boolean next() throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        if (message.length < length) {
+            message = new byte[length];
+        }
+        in.readFully(message, 0, length);
+        decoder.decode(ByteBuffer.wrap(message, 0, length));
+        return true;
+    }
+
+    /** @return the decoder holding the current tick's frame and changed cells */
+    public StateDelta.Decoder getDecoder() { return decoder; }
+
+    public StateFrame getFrame() { return decoder.getFrame(); }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,51 @@
+package com.virusvector;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Records a game as a replay file: the {@link #MAGIC} header followed by one
+ * length-prefixed {@link StateDelta} message per tick, exactly as the server streams them.
+ * Read back with {@link ReplayReader}.
+ */
+public final class ReplayWriter implements AutoCloseable {
+    public static final int MAGIC = 0x56565231; // "VVR1"
+
+    private final OutputStream out;
+    private final StateDelta.Encoder encoder = new StateDelta.Encoder();
+    private ByteBuffer buffer = ByteBuffer.allocate(0);
+    private int tick;
+
+    public ReplayWriter(Path file) throws IOException {
+        out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+        out.write(header.array());
+    }
+
+    /**
+     * Appends the state's tracked changes as the next tick. Clearing the changed
+     * cells afterwards is left to the caller.
+     */
+    public void record(GameState state) throws IOException {
+        int max = 4 + StateDelta.maxMessageSize(state.getWidth(), state.getHeight());
+        if (buffer.capacity() < max) {
+            buffer = ByteBuffer.allocate(max);
+        }
+        buffer.clear();
+        buffer.position(4);
+        encoder.encode(state, tick++, buffer);
+        buffer.putInt(0, buffer.position() - 4);
+        out.write(buffer.array(), 0, buffer.position());
+    }
+
+    public int getTickCount() { return tick; }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,472 @@
+package com.virusvector;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * The last stretch of a game's history, recorded tick by tick so any recorded tick can
+ * be restored. History is kept in segments that each start with a keyframe, the whole
+ * grid run-length encoded plus the state outside the grid, followed by one delta per
+ * tick: the cells that changed and the bytes of that outside state that differ from
+ * the tick before. Segments are reused in a ring, so once it has filled the oldest
+ * second of history makes room for the next and nothing is allocated per tick.
+ *
+ * Seeking decodes the nearest keyframe at or before the tick into a scratch board,
+ * applies the deltas up to it and then writes only the cells that differ into the
+ * state, so a seek costs one keyframe and at most a segment of deltas whatever the
+ * distance.
+ *
+ * A keyframe costs about a byte or two per cell while a delta costs only the cells
+ * that changed, so on boards larger than 256x256 the keyframe interval grows with the
+ * number of cells. History then takes a few megabytes even at 1024x1024, and seeks
+ * replay more deltas, which are cheap next to decoding a keyframe of that size.
+ */
+public final class RewindBuffer {
+    private static final EntityType[] TYPES = EntityType.values();
+    private static final int KEYFRAME_REFERENCE_CELLS = 256 * 256; // boards up to this size use the given interval
+
+    private static final class Segment {
+        long firstTick;
+        int ticks;
+        int[] ends; // end offset of each tick's record; the first is the keyframe
+        ByteBuffer data = ByteBuffer.allocate(4096);
+
+        Segment(int keyframeInterval) {
+            ends = new int[keyframeInterval];
+        }
+
+        void ensure(int bytes) {
+            if (data.remaining() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(data.capacity() * 3 / 2, data.position() + bytes));
+                data.flip();
+                bigger.put(data);
+                data = bigger;
+            }
+        }
+    }
+
+    private final int capacityTicks;
+    private final int baseInterval;
+    private int keyframeInterval;
+    private Segment[] ring = new Segment[0]; // sized for the board being recorded
+    private int boardCells = -1;
+    private int oldest; // ring index of the oldest segment
+    private int segments; // segments holding history
+    private long newestTick = -1;
+
+    // Recording side: the state of the last record and its outside-the-grid bytes
+    private GameState source;
+    private ByteBuffer core = ByteBuffer.allocate(256);
+    private ByteBuffer previousCore = ByteBuffer.allocate(256);
+    private ByteBuffer keyframe = ByteBuffer.allocate(0); // sized for the worst case, copied out at its real size
+
+    // Seeking side
+    private byte[] cells = new byte[0]; // ordinals indexed x * height + y
+    private ByteBuffer seekCore = ByteBuffer.allocate(256);
+
+    /**
+     * @param capacityTicks how many of the newest ticks are kept, at least, while one
+     * state is recorded without truncating
+     * @param keyframeInterval ticks per keyframe on boards up to 256x256, scaled up with
+     * the number of cells on larger ones; longer intervals take less memory and seek
+     * more slowly
+     */
+    public RewindBuffer(int capacityTicks, int keyframeInterval) {
+        if (capacityTicks < 1 || keyframeInterval < 1) {
+            throw new IllegalArgumentException("Capacity and keyframe interval must be positive");
+        }
+        this.capacityTicks = capacityTicks;
+        this.baseInterval = keyframeInterval;
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /** @return ticks per keyframe for the board being recorded */
+    public int getKeyframeInterval() { return keyframeInterval; }
+
+    // Sizes the segments for a board; history of another size is dropped
+    private void configure(int cells) {
+        boardCells = cells;
+        keyframeInterval = (int) Math.min(Math.max(capacityTicks, baseInterval),
+            (long) baseInterval * Math.max(1, cells / KEYFRAME_REFERENCE_CELLS));
+        ring = new Segment[(capacityTicks + keyframeInterval - 1) / keyframeInterval + 1];
+        clear();
+    }
+
+    /** @return the oldest tick that can be restored, or -1 when nothing is recorded */
+    public long getOldestTick() {
+        return segments == 0 ? -1 : ring[oldest].firstTick;
+    }
+
+    /** @return the newest recorded tick, or -1 when nothing is recorded; ticks count from 0 */
+    public long getNewestTick() {
+        return segments == 0 ? -1 : newestTick;
+    }
+
+    /** @return the bytes of history recorded */
+    public long getUsedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < segments; i++) {
+            bytes += ring[(oldest + i) % ring.length].data.position();
+        }
+        return bytes;
+    }
+
+    /** @return the bytes held by the buffer, recorded or not */
+    public long getAllocatedBytes() {
+        long bytes = (long) cells.length + keyframe.capacity() + core.capacity() + previousCore.capacity()
+            + seekCore.capacity();
+        for (Segment segment : ring) {
+            if (segment != null) {
+                bytes += segment.data.capacity() + 4L * segment.ends.length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Forgets all history. The next record starts from a keyframe.
+     */
+    public void clear() {
+        segments = 0;
+        newestTick = -1;
+        source = null;
+    }
+
+    /**
+     * Records the state as the next tick. Reads the cells the state tracks as changed,
+     * so call once per tick before they are cleared; a state seen for the first time,
+     * or one with change tracking off, is recorded with a keyframe.
+     */
+    public void record(GameState state) {
+        if (state.getUndoDepth() != 0) {
+            throw new IllegalStateException("Cannot record a state with moves to unmake");
+        }
+        if (state.getWidth() * state.getHeight() != boardCells) {
+            configure(state.getWidth() * state.getHeight());
+        }
+        int coreSize = state.coreSize();
+        if (core.capacity() < coreSize) {
+            core = ByteBuffer.allocate(coreSize * 2);
+        }
+        core.clear();
+        state.writeCore(core);
+        core.flip();
+
+        Segment current = segments == 0 ? null : ring[(oldest + segments - 1) % ring.length];
+        if (current == null || current.ticks == keyframeInterval || state != source || !state.isChangeTracking()) {
+            current = startSegment(newestTick + 1);
+            writeKeyframe(current, state);
+            source = state;
+        } else {
+            writeDelta(current, state);
+        }
+        current.ends[current.ticks++] = current.data.position();
+        newestTick++;
+        ByteBuffer swap = previousCore;
+        previousCore = core;
+        core = swap;
+    }
+
+    private Segment startSegment(long firstTick) {
+        int index;
+        if (segments == ring.length) {
+            index = oldest; // the oldest segment is reused for the newest
+            oldest = (oldest + 1) % ring.length;
+        } else {
+            index = (oldest + segments++) % ring.length;
+        }
+        if (ring[index] == null) {
+            ring[index] = new Segment(keyframeInterval);
+        }
+        Segment segment = ring[index];
+        segment.firstTick = firstTick;
+        segment.ticks = 0;
+        segment.data.clear();
+        return segment;
+    }
+
+    private void writeKeyframe(Segment segment, GameState state) {
+        int width = state.getWidth();
+        int height = state.getHeight();
+        int bound = 2 * width * height + core.remaining() + 16;
+        if (keyframe.capacity() < bound) {
+            keyframe = ByteBuffer.allocate(bound);
+        }
+        ByteBuffer out = keyframe;
+        out.clear();
+        StateDelta.putVarint(out, width);
+        StateDelta.putVarint(out, height);
+        StateDelta.putVarint(out, core.remaining());
+        out.put(core.array(), 0, core.limit());
+        EntityType[][] grid = state.getGrid();
+        int run = 0;
+        int runType = grid[0][0].ordinal();
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                int type = grid[x][y].ordinal();
+                if (type != runType) {
+                    StateDelta.putVarint(out, run);
+                    out.put((byte) runType);
+                    run = 0;
+                    runType = type;
+                }
+                run++;
+            }
+        }
+        StateDelta.putVarint(out, run);
+        out.put((byte) runType);
+        out.flip();
+        segment.ensure(out.remaining());
+        segment.data.put(out);
+    }
+
+    private void writeDelta(Segment segment, GameState state) {
+        int count = state.getChangedCellCount();
+        int width = state.getWidth();
+        segment.ensure(5 + count * 6 + 5 + 2 * core.remaining() + 10);
+        ByteBuffer out = segment.data;
+        EntityType[][] grid = state.getGrid();
+        StateDelta.putVarint(out, count);
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            int cell = state.getChangedCell(i);
+            StateDelta.putZigzag(out, cell - last); // nearby writes make short steps
+            out.put((byte) grid[cell % width][cell / width].ordinal());
+            last = cell;
+        }
+        // The outside state as runs of unchanged and changed bytes
+        byte[] now = core.array();
+        byte[] before = previousCore.array();
+        int length = core.limit();
+        int beforeLength = previousCore.limit();
+        StateDelta.putVarint(out, length);
+        int i = 0;
+        while (i < length) {
+            int same = i;
+            while (same < length && same < beforeLength && now[same] == before[same]) same++;
+            int differ = same;
+            while (differ < length && (differ >= beforeLength || now[differ] != before[differ])) differ++;
+            StateDelta.putVarint(out, same - i);
+            StateDelta.putVarint(out, differ - same);
+            for (int b = same; b < differ; b++) {
+                out.put((byte) (now[b] ^ (b < beforeLength ? before[b] : 0)));
+            }
+            i = differ;
+        }
+    }
+
+    /**
+     * Restores a recorded tick into a state of the same size. Only cells that differ are
+     * written, through the state's usual bookkeeping, so they show up as changed cells.
+     * History after the tick is kept, so seeking can go forwards again.
+     *
+     * @throws IllegalArgumentException if the tick is not held or was recorded from a
+     * board of another size
+     */
+    public void seek(long tick, GameState state) {
+        if (segments == 0 || tick < getOldestTick() || tick > newestTick) {
+            throw new IllegalArgumentException("Tick " + tick + " is not held, only "
+                + getOldestTick() + " to " + getNewestTick());
+        }
+        if (state.getUndoDepth() != 0) {
+            throw new IllegalStateException("Cannot seek a state with moves to unmake");
+        }
+        Segment segment = null;
+        for (int i = segments - 1; i >= 0; i--) {
+            segment = ring[(oldest + i) % ring.length];
+            if (segment.firstTick <= tick) break;
+        }
+        ByteBuffer in = segment.data.duplicate();
+        in.flip();
+        int width = StateDelta.getVarint(in);
+        int height = StateDelta.getVarint(in);
+        if (width != state.getWidth() || height != state.getHeight()) {
+            throw new IllegalArgumentException("Tick " + tick + " was recorded on a " + width + "x" + height + " board");
+        }
+        int coreLength = StateDelta.getVarint(in);
+        if (seekCore.capacity() < coreLength) {
+            seekCore = ByteBuffer.allocate(coreLength * 2);
+        }
+        seekCore.clear();
+        in.get(seekCore.array(), 0, coreLength);
+        seekCore.limit(coreLength);
+        if (cells.length != width * height) {
+            cells = new byte[width * height];
+        }
+        for (int cell = 0; cell < cells.length; ) {
+            int run = StateDelta.getVarint(in);
+            byte type = in.get();
+            for (int end = cell + run; cell < end; cell++) {
+                cells[cell] = type;
+            }
+        }
+        for (long t = segment.firstTick + 1; t <= tick; t++) {
+            applyDelta(in, width, height);
+        }
+
+        EntityType[][] grid = state.getGrid();
+        for (int x = 0; x < width; x++) {
+            EntityType[] column = grid[x];
+            for (int y = 0; y < height; y++) {
+                byte type = cells[x * height + y];
+                if (column[y].ordinal() != type) {
+                    state.restoreCell(x, y, TYPES[type]);
+                }
+            }
+        }
+        seekCore.position(0);
+        state.readCore(seekCore);
+    }
+
+    private void applyDelta(ByteBuffer in, int width, int height) {
+        int cell = 0;
+        for (int count = StateDelta.getVarint(in); count > 0; count--) {
+            cell += StateDelta.getZigzag(in);
+            cells[(cell % width) * height + cell / width] = in.get();
+        }
+        int length = StateDelta.getVarint(in);
+        if (seekCore.capacity() < length) {
+            ByteBuffer bigger = ByteBuffer.allocate(length * 2);
+            bigger.put(seekCore.array(), 0, seekCore.limit());
+            seekCore = bigger;
+        }
+        byte[] bytes = seekCore.array();
+        for (int i = seekCore.limit(); i < length; i++) {
+            bytes[i] = 0; // grown bytes were XORed against zero
+        }
+        seekCore.limit(length);
+        for (int i = 0; i < length; ) {
+            i += StateDelta.getVarint(in);
+            for (int n = StateDelta.getVarint(in); n > 0; n--, i++) {
+                bytes[i] ^= in.get();
+            }
+        }
+    }
+
+    /**
+     * Forgets the history after a tick, so that recording continues from it as the
+     * newest, typically after {@link #seek} to take play back there. The next record
+     * starts from a keyframe.
+     */
+    public void truncate(long tick) {
+        if (segments == 0 || tick >= newestTick) return;
+        if (tick < getOldestTick()) {
+            clear();
+            return;
+        }
+        while (ring[(oldest + segments - 1) % ring.length].firstTick > tick) {
+            segments--;
+        }
+        Segment segment = ring[(oldest + segments - 1) % ring.length];
+        segment.ticks = (int) (tick - segment.firstTick + 1);
+        segment.data.position(segment.ends[segment.ticks - 1]);
+        newestTick = tick;
+        source = null;
+    }
+
+    /**
+     * Records a minute of play at 60 ticks per second on a large board, then checks and
+     * times seeks to random ticks: every restored state must match the recorded one and
+     * play on from there exactly as it did the first time.
+     */
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        int rate = 60;
+        int ticks = seconds * rate;
+        RewindBuffer buffer = new RewindBuffer(ticks, rate);
+        GameState state = new GameState(size, size, 7);
+        state.setChangeTracking(true);
+        Random random = new Random(11);
+        int[] moves = new int[ticks + 1];
+        long[] hashes = new long[ticks + 1];
+        long[] clocks = new long[ticks + 1];
+        int[] scores = new int[ticks + 1];
+        long recordNanos = 0;
+        long changed = 0;
+        for (int t = 0; t <= ticks; t++) {
+            if (t > 0) {
+                step(state, moves[t] = random.nextInt(9));
+            }
+            hashes[t] = state.getHash();
+            clocks[t] = state.getClock();
+            scores[t] = state.getScore();
+            changed += state.getChangedCellCount();
+            long start = System.nanoTime();
+            buffer.record(state);
+            recordNanos += System.nanoTime() - start;
+            state.clearChangedCells();
+        }
+        System.out.printf("%dx%d board, %d ticks: %,d bytes recorded (%,d allocated), %.1f changed cells per tick, "
+                + "%.1f us per record%n", size, size, ticks + 1, buffer.getUsedBytes(), buffer.getAllocatedBytes(),
+            changed / (double) (ticks + 1), recordNanos / 1e3 / (ticks + 1));
+
+        GameState restored = new GameState(size, size, 1);
+        for (int i = 0; i < 500; i++) {
+            buffer.seek(random.nextInt(ticks + 1), restored); // warm up
+        }
+        int seeks = 2000;
+        long seekNanos = 0;
+        long worst = 0;
+        for (int i = 0; i < seeks; i++) {
+            int t = random.nextInt(ticks + 1);
+            long start = System.nanoTime();
+            buffer.seek(t, restored);
+            long nanos = System.nanoTime() - start;
+            seekNanos += nanos;
+            worst = Math.max(worst, nanos);
+            if (restored.getHash() != hashes[t] || restored.getClock() != clocks[t] || restored.getScore() != scores[t]) {
+                throw new IllegalStateException("Tick " + t + " restored wrong");
+            }
+        }
+        System.out.printf("seek: %.3f ms on average, %.3f ms at worst%n", seekNanos / 1e6 / seeks, worst / 1e6);
+
+        int from = ticks / 3;
+        buffer.seek(from, restored);
+        for (int t = from + 1; t <= ticks; t++) {
+            step(restored, moves[t]);
+            if (restored.getHash() != hashes[t] || restored.getClock() != clocks[t]) {
+                throw new IllegalStateException("Play from tick " + from + " diverged at " + t);
+            }
+        }
+        System.out.println("play resumed from tick " + from + " matches the recording");
+
+        // Take a checkpoint at the end of the recording, rewind past it and run the clock
+        // out: the respawn has to put back the rewound board, not the one checkpointed
+        restored.setCheckpoints(true);
+        buffer.seek(from, restored);
+        EntityType[][] rewound = new EntityType[size][];
+        for (int x = 0; x < size; x++) {
+            rewound[x] = restored.getGrid()[x].clone();
+        }
+        int lives = restored.getLives();
+        restored.tick(restored.getTimeLeftMillis());
+        if (restored.getLives() != lives - 1 || restored.isGameOver()) {
+            throw new IllegalStateException("Running the clock out at tick " + from + " did not cost one life");
+        }
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                EntityType was = rewound[x][y];
+                EntityType now = restored.getGrid()[x][y];
+                if (was != now && was != EntityType.PLAYER && now != EntityType.PLAYER
+                        && ThreatMap.weight(was) == 0 && ThreatMap.weight(now) == 0) { // the player and enemies move
+                    throw new IllegalStateException("Respawn after rewinding to tick " + from + " left " + now
+                        + " at " + x + "," + y + " instead of " + was);
+                }
+            }
+        }
+        System.out.println("a death after rewinding respawns on the rewound board");
+    }
+
+    private static void step(GameState state, int move) {
+        if (state.isGameOver()) {
+            state.startNewGame();
+        } else if (state.isLevelComplete()) {
+            state.nextLevel();
+        }
+        if (move < 4) {
+            state.movePlayer(move == 0 ? -1 : move == 1 ? 1 : 0, move == 2 ? -1 : move == 3 ? 1 : 0);
+        }
+        state.tick(1000 / 60);
+    }
+}
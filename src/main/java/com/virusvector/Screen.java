@@ -0,0 +1,31 @@
+package com.virusvector;
+
+/**
+ * Lifecycle of one screen shown by {@link GameWindow}. A screen owns every timer,
+ * thread, connection and cached image it creates: nothing may run before
+ * {@link #attach()}, and after {@link #dispose()} nothing it started is left running or
+ * holding a reference to it, so switching screens any number of times leaks nothing.
+ * All methods are called on the event dispatch thread.
+ */
+public interface Screen {
+    /**
+     * Called once, after the screen has been put in the window, to start its timers.
+     */
+    void attach();
+
+    /**
+     * Stops all work while the window is minimised. The screen must stay resumable.
+     */
+    void pause();
+
+    /**
+     * Restarts whatever {@link #pause()} stopped.
+     */
+    void resume();
+
+    /**
+     * Stops every timer and thread, closes connections and drops cached images. Called
+     * once, when the window switches away; the screen is not used again.
+     */
+    void dispose();
+}
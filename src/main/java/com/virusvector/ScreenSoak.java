@@ -0,0 +1,118 @@
+package com.virusvector;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import java.awt.Graphics2D;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Switches between the menu and a game over and over without a display, the way ESC
+ * and the start button do, to check that {@link Screen#dispose()} really releases what
+ * a screen started. Every report interval it prints the live thread count, the heap
+ * after a full collection and the CPU the process burns while idle; all three should
+ * stay flat however many cycles have run.
+ */
+public final class ScreenSoak {
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final int[] ARROWS = {KeyEvent.VK_LEFT, KeyEvent.VK_UP, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN};
+
+    private final BufferedImage frame = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    private final int framesPerScreen;
+    private int cycle;
+
+    private ScreenSoak(int framesPerScreen) {
+        this.framesPerScreen = framesPerScreen;
+    }
+
+    /**
+     * Shows the menu, then a game with a few moves, painting each for a number of frames.
+     * Runs on the event dispatch thread, like a real switch.
+     */
+    private void runCycle() {
+        HomeScreen home = new HomeScreen(null);
+        show(home);
+        paint(home);
+        home.dispose();
+
+        GamePanel game = new GamePanel(null, null, false); // level solving would swamp what is measured
+        show(game);
+        for (int i = 0; i < framesPerScreen; i++) {
+            game.keyPressed(new KeyEvent(game, KeyEvent.KEY_PRESSED, 0, 0, ARROWS[(cycle + i) % ARROWS.length],
+                KeyEvent.CHAR_UNDEFINED));
+            paint(game);
+        }
+        game.dispose();
+        cycle++;
+    }
+
+    private void show(JComponent screen) {
+        screen.setSize(WIDTH, HEIGHT);
+        screen.doLayout();
+        ((Screen) screen).attach();
+    }
+
+    private void paint(JComponent screen) {
+        for (int i = 0; i < framesPerScreen; i++) {
+            Graphics2D g = frame.createGraphics();
+            screen.paint(g);
+            g.dispose();
+        }
+    }
+
+    /**
+     * CPU used by the live threads while the caller sleeps. Threads that end meanwhile,
+     * such as idle compiler threads, are left out rather than counted as negative.
+     */
+    private static long idleCpuNanos(ThreadMXBean threads, long millis) throws InterruptedException {
+        long[] ids = threads.getAllThreadIds();
+        long[] before = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            before[i] = threads.getThreadCpuTime(ids[i]);
+        }
+        Thread.sleep(millis);
+        long total = 0;
+        for (int i = 0; i < ids.length; i++) {
+            long after = threads.getThreadCpuTime(ids[i]);
+            if (before[i] >= 0 && after >= before[i]) total += after - before[i];
+        }
+        return total;
+    }
+
+    /**
+     * Usage: {@code ScreenSoak [cycles] [report every] [frames per screen]}
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int every = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int frames = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        ScreenSoak soak = new ScreenSoak(frames);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.out.println("cycles  threads  heap MB  idle CPU ms/s  ms/cycle");
+        long start = System.nanoTime();
+        for (int done = 0; done < cycles; ) {
+            long batchStart = System.nanoTime();
+            int batch = Math.min(every, cycles - done);
+            for (int i = 0; i < batch; i++) {
+                SwingUtilities.invokeAndWait(soak::runCycle);
+            }
+            done += batch;
+            double perCycle = (System.nanoTime() - batchStart) / 1e6 / batch;
+
+            // Anything a disposed screen left running shows up as CPU spent while idle
+            long idleCpu = idleCpuNanos(threads, 1_000);
+            System.gc();
+            long heap = memory.getHeapMemoryUsage().getUsed();
+            System.out.printf("%6d  %7d  %7.1f  %13.1f  %8.2f%n", done, threads.getThreadCount(),
+                heap / 1048576.0, idleCpu / 1e6, perCycle);
+        }
+        System.out.printf("%d cycles in %.1f s%n", cycles, (System.nanoTime() - start) / 1e9);
+    }
+}
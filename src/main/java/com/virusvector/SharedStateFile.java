@@ -0,0 +1,462 @@
+package com.virusvector;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The live game mirrored into a memory-mapped file, so other processes (dashboards,
+ * visualisers, recorders) can watch it by reading memory, with nothing serialised and
+ * nothing waited for on the simulation thread.
+ *
+ * The file is little-endian: a header at {@link #HEADER_SIZE} bytes, the grid as one
+ * {@link EntityType} value byte per cell in row-major order from {@link #GRID_OFFSET},
+ * then, 8-byte aligned, an entity table of (x, y, type value) int triples for every
+ * moving enemy and spawner.
+ *
+ * <pre>
+ *  0 int  magic "VVSM"        32 long tick              64 int  infection range
+ *  4 int  version             40 long clock (ms)        68 int  flags (1 game over, 2 level complete,
+ *  8 long generation          48 int  score                      4 shield, 8 entities truncated)
+ * 16 int  width               52 int  level             72 int  player x
+ * 20 int  height              56 int  lives             76 int  player y
+ * 24 int  entity capacity     60 int  time left (ms)    80 int  infected cells
+ * 28 int  entity count
+ * </pre>
+ *
+ * The generation is a seqlock: the {@link Writer} makes it odd before changing anything
+ * and even again afterwards, so a {@link Reader} that sees the same even generation
+ * before and after copying has a consistent tick and otherwise copies again. The file
+ * only ever grows, so a reader mapped to an older size can remap without faulting.
+ */
+public final class SharedStateFile {
+    public static final int MAGIC = 0x4D535656; // "VVSM" in little-endian order
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 128;
+    public static final int GRID_OFFSET = HEADER_SIZE;
+    public static final int ENTITY_BYTES = 12;
+    static final int FLAG_GAME_OVER = 1;
+    static final int FLAG_LEVEL_COMPLETE = 2;
+    static final int FLAG_SHIELD = 4;
+    static final int FLAG_ENTITIES_TRUNCATED = 8;
+
+    private static final int GENERATION = 8;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final EntityType[] TRACKED = {EntityType.PATROLLING_ANTIVIRUS, EntityType.CHASING_ANTIVIRUS,
+        EntityType.RANDOM_ANTIVIRUS, EntityType.ENEMY_SPAWNER};
+
+    private SharedStateFile() {
+    }
+
+    static int entityOffset(int width, int height) {
+        return GRID_OFFSET + ((width * height + 7) & ~7);
+    }
+
+    static long fileSize(int width, int height, int entityCapacity) {
+        return entityOffset(width, height) + (long) entityCapacity * ENTITY_BYTES;
+    }
+
+    /**
+     * Mirrors a game into the file after every tick. Only the cells the state tracks as
+     * changed are rewritten, like {@link FrameExchange#publish}; a new state, a new board
+     * size or a state without change tracking is written whole.
+     */
+    public static final class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final int entityCapacity;
+        private MappedByteBuffer buffer;
+        private GameState source;
+        private int width;
+        private int height;
+        private long generation;
+        private long tick;
+
+        /**
+         * @param entityCapacity rows in the entity table; enemies beyond it are left out
+         * and the truncated flag is set
+         */
+        public Writer(Path file, int entityCapacity) throws IOException {
+            this.entityCapacity = entityCapacity;
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            if (channel.size() >= HEADER_SIZE) {
+                // Carry on from the generation a previous writer left, so readers see it move forwards
+                MappedByteBuffer old = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                old.order(ByteOrder.LITTLE_ENDIAN);
+                if (old.getInt(0) == MAGIC) {
+                    generation = (old.getLong(GENERATION) + 1) & ~1L;
+                }
+            }
+        }
+
+        public void publish(GameState state) throws IOException {
+            int w = state.getWidth();
+            int h = state.getHeight();
+            boolean whole = state != source || w != width || h != height || !state.isChangeTracking();
+            if (buffer == null || w != width || h != height) {
+                long size = Math.max(channel.size(), fileSize(w, h, entityCapacity));
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size); // extends the file if needed
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                width = w;
+                height = h;
+            }
+            source = state;
+            MappedByteBuffer b = buffer;
+
+            LONGS.setVolatile(b, GENERATION, ++generation); // odd: readers wait or retry
+            VarHandle.storeStoreFence();
+            b.putInt(0, MAGIC);
+            b.putInt(4, VERSION);
+            b.putInt(16, w);
+            b.putInt(20, h);
+            b.putInt(24, entityCapacity);
+            b.putLong(32, tick++);
+            b.putLong(40, state.getClock());
+            b.putInt(48, state.getScore());
+            b.putInt(52, state.getLevel());
+            b.putInt(56, state.getLives());
+            b.putInt(60, state.getTimeLeftMillis());
+            b.putInt(64, state.getInfectionRange());
+            Point player = state.getPlayerPos();
+            b.putInt(72, player.x);
+            b.putInt(76, player.y);
+            b.putInt(80, state.getInfectedCells());
+
+            EntityType[][] grid = state.getGrid();
+            if (whole) {
+                for (int y = 0; y < h; y++) {
+                    int row = GRID_OFFSET + y * w;
+                    for (int x = 0; x < w; x++) {
+                        b.put(row + x, (byte) grid[x][y].getValue());
+                    }
+                }
+            } else {
+                for (int i = state.getChangedCellCount() - 1; i >= 0; i--) {
+                    int cell = state.getChangedCell(i);
+                    b.put(GRID_OFFSET + cell, (byte) grid[cell % w][cell / w].getValue());
+                }
+            }
+
+            int entities = 0;
+            int at = entityOffset(w, h);
+            boolean truncated = false;
+            for (EntityType type : TRACKED) {
+                EnemyList list = state.getEnemies(type);
+                for (int i = 0; i < list.size(); i++) {
+                    if (entities == entityCapacity) {
+                        truncated = true;
+                        break;
+                    }
+                    b.putInt(at, list.x(i));
+                    b.putInt(at + 4, list.y(i));
+                    b.putInt(at + 8, type.getValue());
+                    at += ENTITY_BYTES;
+                    entities++;
+                }
+            }
+            b.putInt(28, entities);
+            b.putInt(68, (state.isGameOver() ? FLAG_GAME_OVER : 0)
+                | (state.isLevelComplete() ? FLAG_LEVEL_COMPLETE : 0)
+                | (state.hasShield() ? FLAG_SHIELD : 0)
+                | (truncated ? FLAG_ENTITIES_TRUNCATED : 0));
+            LONGS.setRelease(b, GENERATION, ++generation); // even: this tick is complete
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Takes consistent copies of the state a {@link Writer} keeps in a file, typically
+     * from another process.
+     */
+    public static final class Reader implements AutoCloseable {
+        private final FileChannel channel;
+        private MappedByteBuffer buffer;
+        private long retries;
+
+        // The last copy taken
+        final StateFrame frame = new StateFrame();
+        long generation;
+        long tick;
+        long clock;
+        int infectionRange;
+        int infectedCells;
+        int flags;
+        int entityCount;
+        int[] entities = new int[0]; // x, y, type value triples
+
+        public Reader(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        }
+
+        /**
+         * Copies the newest complete tick, unless it is the one already copied.
+         *
+         * @return whether a new tick was copied; false also while the file has not been
+         * written yet
+         */
+        public boolean poll() throws IOException {
+            for (;;) {
+                if (buffer == null || buffer.capacity() < HEADER_SIZE) {
+                    if (channel.size() < HEADER_SIZE) return false;
+                    map();
+                }
+                MappedByteBuffer b = buffer;
+                long before = (long) LONGS.getAcquire(b, GENERATION);
+                if (b.getInt(0) != MAGIC) return false;
+                if (before == generation) return false;
+                if ((before & 1) != 0) {
+                    // Mid-write: spin briefly, then give the writer the CPU if it shares ours
+                    if (++retries % 64 == 0) {
+                        Thread.yield();
+                    } else {
+                        Thread.onSpinWait();
+                    }
+                    continue;
+                }
+                if (b.getInt(4) != VERSION) {
+                    throw new IOException("Shared state version " + b.getInt(4) + ", expected " + VERSION);
+                }
+                int w = b.getInt(16);
+                int h = b.getInt(20);
+                int count = b.getInt(28);
+                if (w <= 0 || h <= 0 || count < 0 || count > b.getInt(24)) {
+                    retries++; // a torn header; the generation check below would reject it too
+                    continue;
+                }
+                long needed = entityOffset(w, h) + (long) count * ENTITY_BYTES;
+                if (needed > b.capacity()) {
+                    map(); // the writer grew the file for a larger board
+                    if (needed > buffer.capacity()) {
+                        retries++;
+                        continue;
+                    }
+                    b = buffer;
+                }
+
+                StateFrame f = frame;
+                if (f.cells == null || f.cells.length != w * h) {
+                    f.cells = new byte[w * h];
+                }
+                b.get(GRID_OFFSET, f.cells, 0, w * h);
+                if (entities.length < count * 3) {
+                    entities = new int[Math.max(count * 3, entities.length * 2)];
+                }
+                int at = entityOffset(w, h);
+                for (int i = 0; i < count * 3; i++, at += 4) {
+                    entities[i] = b.getInt(at);
+                }
+                f.width = w;
+                f.height = h;
+                long copiedTick = b.getLong(32);
+                long copiedClock = b.getLong(40);
+                f.score = b.getInt(48);
+                f.level = b.getInt(52);
+                f.lives = b.getInt(56);
+                f.timeLeftMillis = b.getInt(60);
+                int range = b.getInt(64);
+                int copiedFlags = b.getInt(68);
+                f.playerX = b.getInt(72);
+                f.playerY = b.getInt(76);
+                int infected = b.getInt(80);
+
+                VarHandle.loadLoadFence();
+                if ((long) LONGS.getVolatile(b, GENERATION) != before) {
+                    retries++; // the writer moved on while we copied
+                    continue;
+                }
+                generation = before;
+                tick = copiedTick;
+                clock = copiedClock;
+                infectionRange = range;
+                infectedCells = infected;
+                flags = copiedFlags;
+                entityCount = count;
+                f.tick = (int) copiedTick;
+                f.gameOver = (copiedFlags & FLAG_GAME_OVER) != 0;
+                f.levelComplete = (copiedFlags & FLAG_LEVEL_COMPLETE) != 0;
+                f.shield = (copiedFlags & FLAG_SHIELD) != 0;
+                f.boost = range > 1;
+                return true;
+            }
+        }
+
+        private void map() throws IOException {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        public StateFrame getFrame() { return frame; }
+
+        public long getTick() { return tick; }
+
+        public int getEntityCount() { return entityCount; }
+
+        public int getEntityX(int i) { return entities[i * 3]; }
+
+        public int getEntityY(int i) { return entities[i * 3 + 1]; }
+
+        public EntityType getEntityType(int i) { return EntityType.fromValue(entities[i * 3 + 2]); }
+
+        /** @return copies thrown away because the writer was changing the file meanwhile */
+        public long getRetries() { return retries; }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Usage:
+     * <pre>
+     * SharedStateFile watch &lt;file&gt; [interval ms]   the sample reader: prints the board and counters
+     * SharedStateFile write &lt;file&gt; [seconds] [size] [ticks/s, 0 for flat out]  plays a headless game into the file
+     * SharedStateFile check &lt;file&gt; [seconds]         reads as fast as it can, checking every copy
+     * </pre>
+     * A game run with {@code -Dvirusvector.sharedState=<file>} writes the file as it plays.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: SharedStateFile watch <file> [interval ms]");
+            System.out.println("       SharedStateFile write <file> [seconds] [size] [ticks/s]");
+            System.out.println("       SharedStateFile check <file> [seconds]");
+            return;
+        }
+        Path file = Path.of(args[1]);
+        switch (args[0]) {
+            case "watch" -> watch(file, args.length > 2 ? Long.parseLong(args[2]) : 250);
+            case "write" -> write(file, args.length > 2 ? Long.parseLong(args[2]) : 10,
+                args.length > 3 ? Integer.parseInt(args[3]) : 64,
+                args.length > 4 ? Integer.parseInt(args[4]) : GameServer.TICK_RATE);
+            case "check" -> check(file, args.length > 2 ? Long.parseLong(args[2]) : 10);
+            default -> System.out.println("Unknown command " + args[0]);
+        }
+    }
+
+    private static void watch(Path file, long intervalMillis) throws IOException, InterruptedException {
+        while (!Files.exists(file)) {
+            Thread.sleep(intervalMillis);
+        }
+        char[] glyphs = new char[16];
+        Arrays.fill(glyphs, '?');
+        glyphs[EntityType.EMPTY.getValue()] = '.';
+        glyphs[EntityType.WALL.getValue()] = '#';
+        glyphs[EntityType.PLAYER.getValue()] = '@';
+        glyphs[EntityType.INFECTED.getValue()] = '~';
+        glyphs[EntityType.FIREWALL.getValue()] = 'F';
+        glyphs[EntityType.ANTIVIRUS.getValue()] = 'A';
+        glyphs[EntityType.PATROLLING_ANTIVIRUS.getValue()] = 'P';
+        glyphs[EntityType.CHASING_ANTIVIRUS.getValue()] = 'C';
+        glyphs[EntityType.RANDOM_ANTIVIRUS.getValue()] = 'R';
+        glyphs[EntityType.ENEMY_SPAWNER.getValue()] = 'S';
+        glyphs[EntityType.INFECT_UPGRADE.getValue()] = '+';
+        glyphs[EntityType.SHIELD.getValue()] = 'o';
+        glyphs[EntityType.TIME_EXTENSION.getValue()] = 't';
+        StringBuilder out = new StringBuilder();
+        try (Reader reader = new Reader(file)) {
+            for (;;) {
+                if (reader.poll()) {
+                    StateFrame f = reader.getFrame();
+                    out.setLength(0);
+                    out.append("\033[H\033[2J"); // clear the terminal
+                    out.append(String.format("tick %d  score %d  level %d  lives %d  time %ds  entities %d%s  retries %d%n",
+                        reader.getTick(), f.score, f.level, f.lives, f.timeLeftMillis / 1000, reader.getEntityCount(),
+                        (reader.flags & FLAG_ENTITIES_TRUNCATED) != 0 ? "+" : "", reader.getRetries()));
+                    int rows = Math.min(f.height, 40);
+                    int columns = Math.min(f.width, 120);
+                    for (int y = 0; y < rows; y++) {
+                        for (int x = 0; x < columns; x++) {
+                            out.append(glyphs[f.getCell(x, y) & 15]);
+                        }
+                        out.append('\n');
+                    }
+                    if (f.gameOver) out.append("GAME OVER\n");
+                    if (f.levelComplete) out.append("LEVEL COMPLETE\n");
+                    System.out.print(out);
+                    System.out.flush();
+                }
+                Thread.sleep(intervalMillis);
+            }
+        }
+    }
+
+    private static void write(Path file, long seconds, int size, int rate) throws IOException, InterruptedException {
+        GameState state = new GameState(size, size, 5);
+        state.setChangeTracking(true);
+        Random random = new Random(5);
+        long ticks = 0;
+        long publishNanos = 0;
+        long start = System.nanoTime();
+        try (Writer writer = new Writer(file, 4096)) {
+            while (System.nanoTime() - start < seconds * 1_000_000_000L) {
+                if (state.isGameOver()) {
+                    state.startNewGame();
+                } else if (state.isLevelComplete()) {
+                    state.nextLevel();
+                }
+                int move = random.nextInt(5);
+                if (move < 4) {
+                    state.movePlayer(move == 0 ? -1 : move == 1 ? 1 : 0, move == 2 ? -1 : move == 3 ? 1 : 0);
+                }
+                state.tick(GameServer.tickMillis(ticks));
+                long publishStart = System.nanoTime();
+                writer.publish(state);
+                publishNanos += System.nanoTime() - publishStart;
+                state.clearChangedCells();
+                ticks++;
+                if (rate > 0) {
+                    long ahead = start + ticks * 1_000_000_000L / rate - System.nanoTime();
+                    if (ahead > 0) Thread.sleep(ahead / 1_000_000, (int) (ahead % 1_000_000));
+                }
+            }
+        }
+        System.out.printf("%,d ticks written, %.2f us per publish%n", ticks, publishNanos / 1e3 / ticks);
+    }
+
+    /**
+     * Reads as fast as possible and checks each copy is whole: exactly one player, in the
+     * cell the header names, and every entity on a cell of its own type.
+     */
+    private static void check(Path file, long seconds) throws IOException, InterruptedException {
+        while (!Files.exists(file)) {
+            Thread.sleep(50);
+        }
+        long copies = 0;
+        long torn = 0;
+        long start = System.nanoTime();
+        try (Reader reader = new Reader(file)) {
+            while (System.nanoTime() - start < seconds * 1_000_000_000L) {
+                if (!reader.poll()) {
+                    Thread.yield();
+                    continue;
+                }
+                copies++;
+                StateFrame f = reader.getFrame();
+                int players = 0;
+                for (byte cell : f.cells) {
+                    if (cell == EntityType.PLAYER.getValue()) players++;
+                }
+                boolean whole = players == 1 && f.getCell(f.playerX, f.playerY) == EntityType.PLAYER.getValue();
+                for (int i = 0; i < reader.getEntityCount() && whole; i++) {
+                    whole = f.getCell(reader.getEntityX(i), reader.getEntityY(i)) == reader.getEntityType(i).getValue();
+                }
+                if (!whole) torn++;
+            }
+            System.out.printf("%,d copies checked, %d torn, %,d retries, last tick %d%n",
+                copies, torn, reader.getRetries(), reader.getTick());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.virusvector;
+
+import javax.imageio.ImageIO;
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.Map;
+
+/**
+ * What happens between JVM start and the first frame: milestones timed from the start of
+ * the process, window icons read on background threads behind a drawn placeholder, and
+ * the game's classes loaded while the menu is up rather than when the first game starts.
+ *
+ * With {@code -Dvirusvector.startupTiming=true} every milestone is printed as it is
+ * reached; {@code -Dvirusvector.exitAfterFirstFrame=true} exits once the first game frame
+ * is painted, which makes a run suitable for recording an AppCDS archive.
+ */
+public final class Startup {
+    public static final String MENU_FRAME = "first menu frame";
+    public static final String GAME_FRAME = "first game frame";
+    static final String TIMING_PROPERTY = "virusvector.startupTiming";
+    static final String EXIT_PROPERTY = "virusvector.exitAfterFirstFrame";
+
+    private static final long JVM_START = ProcessHandle.current().info().startInstant()
+        .map(Instant::toEpochMilli).orElse(System.currentTimeMillis());
+    private static final Map<String, Long> MILESTONES = new ConcurrentHashMap<>();
+
+    // Loaded in the background so starting a game does not wait for them
+    private static final List<String> GAME_CLASSES = List.of(
+        "com.virusvector.GamePanel", "com.virusvector.GameState", "com.virusvector.LevelSolver",
+        "com.virusvector.BoardRenderer", "com.virusvector.FrameExchange", "com.virusvector.HudEvents",
+        "com.virusvector.ParticleSystem", "com.virusvector.OutbreakAutomaton", "com.virusvector.FieldOfView",
+        "com.virusvector.Leaderboard", "com.virusvector.StateDelta");
+
+    private Startup() {
+    }
+
+    /**
+     * Records the first time a milestone is reached.
+     *
+     * @return milliseconds from JVM start to the milestone
+     */
+    public static long mark(String milestone) {
+        Long first = MILESTONES.putIfAbsent(milestone, System.currentTimeMillis() - JVM_START);
+        if (first != null) return first;
+        long millis = MILESTONES.get(milestone);
+        if (Boolean.getBoolean(TIMING_PROPERTY)) {
+            System.out.println("startup: " + milestone + " after " + millis + " ms");
+        }
+        if (milestone.equals(GAME_FRAME) && Boolean.getBoolean(EXIT_PROPERTY)) {
+            SwingUtilities.invokeLater(() -> System.exit(0)); // after the frame is on screen
+        }
+        return millis;
+    }
+
+    /** @return milliseconds from JVM start to the milestone, or -1 if not reached yet */
+    public static long elapsed(String milestone) {
+        return MILESTONES.getOrDefault(milestone, -1L);
+    }
+
+    /**
+     * Shows a drawn placeholder icon straight away and replaces it with the bundled icon
+     * or the logo file, read in parallel off the event dispatch thread. The bundled
+     * {@code /icon.png} wins when both exist.
+     */
+    static void loadIcons(JFrame frame) {
+        frame.setIconImage(placeholderIcon());
+        ExecutorService readers = Executors.newFixedThreadPool(2, r -> {
+            Thread thread = new Thread(r, "icon-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletableFuture<BufferedImage> bundled = CompletableFuture.supplyAsync(() -> {
+            try (InputStream in = Startup.class.getResourceAsStream("/icon.png")) {
+                return in == null ? null : ImageIO.read(in);
+            } catch (IOException e) {
+                return null;
+            }
+        }, readers);
+        CompletableFuture<BufferedImage> logo = CompletableFuture.supplyAsync(() -> {
+            try {
+                File file = new File("virus logo-new.jpg");
+                return file.isFile() ? ImageIO.read(file) : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }, readers);
+        bundled.thenCombine(logo, (icon, fallback) -> icon != null ? icon : fallback)
+            .whenComplete((icon, error) -> {
+                readers.shutdown();
+                if (icon == null) {
+                    System.out.println("Could not load custom window icon");
+                    return;
+                }
+                SwingUtilities.invokeLater(() -> frame.setIconImage(icon));
+                mark("icon loaded");
+            });
+    }
+
+    private static BufferedImage placeholderIcon() {
+        BufferedImage icon = new BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = icon.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(EntityType.INFECTED.getColor());
+        g.fillOval(4, 4, 24, 24);
+        g.setColor(EntityType.PLAYER.getColor());
+        g.fillOval(11, 11, 10, 10);
+        g.dispose();
+        return icon;
+    }
+
+    /**
+     * Loads and initialises the game's classes on a low-priority daemon thread, so the
+     * menu is not held up by them and the first game does not wait for them either.
+     */
+    static void preloadGameClasses() {
+        Thread loader = new Thread(() -> {
+            ClassLoader classes = Startup.class.getClassLoader();
+            for (String name : GAME_CLASSES) {
+                try {
+                    Class.forName(name, true, classes);
+                } catch (ClassNotFoundException | LinkageError e) {
+                    System.out.println("Could not preload " + name + ": " + e);
+                }
+            }
+            mark("game classes loaded");
+        }, "class-preloader");
+        loader.setDaemon(true);
+        loader.setPriority(Thread.MIN_PRIORITY);
+        loader.start();
+    }
+
+    /**
+     * Paints the menu and then a game into offscreen images, the way the window would,
+     * and prints the time from JVM start to each first frame. Needs no display, so it
+     * can track startup, and record or use an AppCDS archive, anywhere.
+     */
+    public static void main(String[] args) throws Exception {
+        BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        SwingUtilities.invokeAndWait(() -> {
+            preloadGameClasses();
+            HomeScreen home = new HomeScreen(null);
+            home.setSize(image.getWidth(), image.getHeight());
+            home.doLayout();
+            Graphics2D g = image.createGraphics();
+            home.paint(g);
+            g.dispose();
+            home.dispose();
+        });
+        SwingUtilities.invokeAndWait(() -> {
+            GamePanel game = new GamePanel(null);
+            game.setSize(image.getWidth(), image.getHeight());
+            game.doLayout();
+            Graphics2D g = image.createGraphics();
+            game.paint(g);
+            g.dispose();
+            game.dispose();
+        });
+        System.out.printf("menu frame %d ms, game frame %d ms after JVM start%n",
+            elapsed(MENU_FRAME), elapsed(GAME_FRAME));
+    }
+}
@@ -0,0 +1,351 @@
+package com.virusvector;
+
+import java.awt.Point;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compact binary per-tick stream of a game, shared by the network server, replay files
+ * and the renderer's dirty tiles. Most ticks are deltas: only the cells that changed,
+ * as gap-encoded varint indices with a type byte each, plus the scalars that moved.
+ * A keyframe with the whole board, run-length encoded, is sent first, every
+ * {@link #KEYFRAME_INTERVAL} ticks, and whenever the encoder is asked for one.
+ *
+ * Message layout (the caller adds any length prefix):
+ * <pre>
+ *   keyframe: 'K', varint tick, varint width, varint height, runs of (varint length, byte type)
+ *             covering every cell, varint playerX, varint playerY, varint score, varint level,
+ *             varint lives, varint timeLeftMillis, byte flags
+ *   delta:    'D', varint tick, varint count, count x (varint gap to previous index, byte type),
+ *             byte mask, then for each bit set in the mask: zigzag varint change of
+ *             playerX and playerY, score, level, lives or timeLeftMillis, or the flags byte
+ * </pre>
+ * Cell indices are row-major ({@code y * width + x}) and types are {@link EntityType#getValue()}.
+ * Enemies are ordinary cell types, so their moves travel as cell changes.
+ * The encoder reads the cells tracked by {@link GameState#setChangeTracking(boolean)};
+ * clearing them after each tick is up to the caller, since the same set usually feeds
+ * the renderer as well.
+ */
+public final class StateDelta {
+    public static final byte KEYFRAME = 'K';
+    public static final byte DELTA = 'D';
+    public static final int KEYFRAME_INTERVAL = 300; // 5 seconds at 60 ticks per second
+
+    private static final int FLAG_GAME_OVER = 1;
+    private static final int FLAG_LEVEL_COMPLETE = 2;
+    private static final int FLAG_SHIELD = 4;
+    private static final int FLAG_BOOST = 8;
+
+    private static final int HAS_PLAYER = 1;
+    private static final int HAS_SCORE = 2;
+    private static final int HAS_LEVEL = 4;
+    private static final int HAS_LIVES = 8;
+    private static final int HAS_TIME = 16;
+    private static final int HAS_FLAGS = 32;
+
+    private StateDelta() {
+    }
+
+    /**
+     * @return an upper bound on the size of one message for a board of this size
+     */
+    public static int maxMessageSize(int width, int height) {
+        return 64 + width * height * 6;
+    }
+
+    /**
+     * Turns successive ticks of one game into messages.
+     */
+    public static final class Encoder {
+        private int sinceKeyframe = -1;
+        private int width, height;
+        private int playerX, playerY, score, level, lives, timeLeft, flags;
+        private int[] sorted = new int[0];
+
+        /** Makes the next message a keyframe, e.g. after a message was lost. */
+        public void requestKeyframe() {
+            sinceKeyframe = -1;
+        }
+
+        public void encode(GameState state, int tick, ByteBuffer out) {
+            if (sinceKeyframe < 0 || sinceKeyframe >= KEYFRAME_INTERVAL || !state.isChangeTracking()
+                    || state.getWidth() != width || state.getHeight() != height) {
+                encodeKeyframe(state, tick, out);
+                sinceKeyframe = 1;
+            } else {
+                encodeDelta(state, tick, out);
+                sinceKeyframe++;
+            }
+        }
+
+        private void encodeKeyframe(GameState state, int tick, ByteBuffer out) {
+            width = state.getWidth();
+            height = state.getHeight();
+            EntityType[][] grid = state.getGrid();
+            out.put(KEYFRAME);
+            putVarint(out, tick);
+            putVarint(out, width);
+            putVarint(out, height);
+            int run = 0;
+            int runType = -1;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int type = grid[x][y].getValue();
+                    if (type != runType && run > 0) {
+                        putVarint(out, run);
+                        out.put((byte) runType);
+                        run = 0;
+                    }
+                    runType = type;
+                    run++;
+                }
+            }
+            putVarint(out, run);
+            out.put((byte) runType);
+
+            capture(state);
+            putVarint(out, playerX);
+            putVarint(out, playerY);
+            putVarint(out, score);
+            putVarint(out, level);
+            putVarint(out, lives);
+            putVarint(out, timeLeft);
+            out.put((byte) flags);
+        }
+
+        private void encodeDelta(GameState state, int tick, ByteBuffer out) {
+            out.put(DELTA);
+            putVarint(out, tick);
+
+            int count = state.getChangedCellCount();
+            if (sorted.length < count) {
+                sorted = new int[Math.max(count, sorted.length * 2)];
+            }
+            for (int i = 0; i < count; i++) {
+                sorted[i] = state.getChangedCell(i);
+            }
+            Arrays.sort(sorted, 0, count);
+            putVarint(out, count);
+            EntityType[][] grid = state.getGrid();
+            int previous = -1;
+            for (int i = 0; i < count; i++) {
+                int index = sorted[i];
+                putVarint(out, index - previous - 1);
+                out.put((byte) grid[index % width][index / width].getValue());
+                previous = index;
+            }
+
+            int oldX = playerX, oldY = playerY, oldScore = score, oldLevel = level;
+            int oldLives = lives, oldTime = timeLeft, oldFlags = flags;
+            capture(state);
+            int mask = (playerX != oldX || playerY != oldY ? HAS_PLAYER : 0)
+                | (score != oldScore ? HAS_SCORE : 0)
+                | (level != oldLevel ? HAS_LEVEL : 0)
+                | (lives != oldLives ? HAS_LIVES : 0)
+                | (timeLeft != oldTime ? HAS_TIME : 0)
+                | (flags != oldFlags ? HAS_FLAGS : 0);
+            out.put((byte) mask);
+            if ((mask & HAS_PLAYER) != 0) {
+                putZigzag(out, playerX - oldX);
+                putZigzag(out, playerY - oldY);
+            }
+            if ((mask & HAS_SCORE) != 0) putZigzag(out, score - oldScore);
+            if ((mask & HAS_LEVEL) != 0) putZigzag(out, level - oldLevel);
+            if ((mask & HAS_LIVES) != 0) putZigzag(out, lives - oldLives);
+            if ((mask & HAS_TIME) != 0) putZigzag(out, timeLeft - oldTime);
+            if ((mask & HAS_FLAGS) != 0) out.put((byte) flags);
+        }
+
+        private void capture(GameState state) {
+            Point player = state.getPlayerPos();
+            playerX = player.x;
+            playerY = player.y;
+            score = state.getScore();
+            level = state.getLevel();
+            lives = state.getLives();
+            timeLeft = state.getTimeLeftMillis();
+            flags = (state.isGameOver() ? FLAG_GAME_OVER : 0)
+                | (state.isLevelComplete() ? FLAG_LEVEL_COMPLETE : 0)
+                | (state.hasShield() ? FLAG_SHIELD : 0)
+                | (state.getInfectionRange() > 1 ? FLAG_BOOST : 0);
+        }
+    }
+
+    /**
+     * Rebuilds a {@link StateFrame} from messages and reports which cells each one touched.
+     */
+    public static final class Decoder {
+        private final StateFrame frame = new StateFrame();
+        private boolean started;
+        private boolean keyframe;
+        private int[] changed = new int[0];
+        private int changedCount;
+
+        public StateFrame getFrame() { return frame; }
+        public boolean hasFrame() { return started; }
+
+        /** @return true if the last message was a keyframe, in which case every cell may have changed */
+        public boolean isKeyframe() { return keyframe; }
+
+        /** @return cells changed by the last delta message */
+        public int getChangedCellCount() { return changedCount; }
+        public int getChangedCell(int i) { return changed[i]; }
+
+        /**
+         * Applies one message to the frame.
+         *
+         * @throws IllegalStateException if a delta arrives before the first keyframe
+         */
+        public void decode(ByteBuffer in) {
+            byte kind = in.get();
+            frame.tick = getVarint(in);
+            changedCount = 0;
+            if (kind == KEYFRAME) {
+                keyframe = true;
+                decodeKeyframe(in);
+                started = true;
+            } else if (kind == DELTA) {
+                if (!started) {
+                    throw new IllegalStateException("Delta received before the first keyframe");
+                }
+                keyframe = false;
+                decodeDelta(in);
+            } else {
+                throw new IllegalStateException("Unknown message kind " + kind);
+            }
+        }
+
+        private void decodeKeyframe(ByteBuffer in) {
+            frame.width = getVarint(in);
+            frame.height = getVarint(in);
+            int cells = frame.width * frame.height;
+            if (frame.cells == null || frame.cells.length != cells) {
+                frame.cells = new byte[cells];
+            }
+            for (int i = 0; i < cells; ) {
+                int run = getVarint(in);
+                byte type = in.get();
+                Arrays.fill(frame.cells, i, i + run, type);
+                i += run;
+            }
+            if (changed.length < cells) {
+                changed = new int[cells];
+            }
+            frame.playerX = getVarint(in);
+            frame.playerY = getVarint(in);
+            frame.score = getVarint(in);
+            frame.level = getVarint(in);
+            frame.lives = getVarint(in);
+            frame.timeLeftMillis = getVarint(in);
+            setFlags(in.get());
+        }
+
+        private void decodeDelta(ByteBuffer in) {
+            int count = getVarint(in);
+            int index = -1;
+            for (int i = 0; i < count; i++) {
+                index += getVarint(in) + 1;
+                frame.cells[index] = in.get();
+                changed[i] = index;
+            }
+            changedCount = count;
+
+            int mask = in.get();
+            if ((mask & HAS_PLAYER) != 0) {
+                frame.playerX += getZigzag(in);
+                frame.playerY += getZigzag(in);
+            }
+            if ((mask & HAS_SCORE) != 0) frame.score += getZigzag(in);
+            if ((mask & HAS_LEVEL) != 0) frame.level += getZigzag(in);
+            if ((mask & HAS_LIVES) != 0) frame.lives += getZigzag(in);
+            if ((mask & HAS_TIME) != 0) frame.timeLeftMillis += getZigzag(in);
+            if ((mask & HAS_FLAGS) != 0) setFlags(in.get());
+        }
+
+        private void setFlags(int flags) {
+            frame.gameOver = (flags & FLAG_GAME_OVER) != 0;
+            frame.levelComplete = (flags & FLAG_LEVEL_COMPLETE) != 0;
+            frame.shield = (flags & FLAG_SHIELD) != 0;
+            frame.boost = (flags & FLAG_BOOST) != 0;
+        }
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    static void putZigzag(ByteBuffer out, int value) {
+        putVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int getZigzag(ByteBuffer in) {
+        int v = getVarint(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Plays a seeded game with random moves and reports bytes per tick and codec throughput.
+     * Usage: {@code StateDelta [ticks] [width] [height]}
+     */
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int height = args.length > 2 ? Integer.parseInt(args[2]) : 15;
+        GameState state = new GameState(width, height, 1);
+        state.setChangeTracking(true);
+        Encoder encoder = new Encoder();
+        Decoder decoder = new Decoder();
+        ByteBuffer buffer = ByteBuffer.allocate(maxMessageSize(width, height));
+        Random random = new Random(1);
+
+        long bytes = 0, keyframeBytes = 0, keyframes = 0, encodeNanos = 0, decodeNanos = 0;
+        for (int t = 0; t < ticks; t++) {
+            if (state.isGameOver() || state.isLevelComplete()) {
+                if (state.isLevelComplete()) state.nextLevel(); else state.startNewGame();
+            }
+            if (t % 5 == 0) {
+                int dir = random.nextInt(4);
+                state.movePlayer(LevelSolver.dx(dir), LevelSolver.dy(dir));
+            }
+            state.tick(16);
+
+            buffer.clear();
+            long start = System.nanoTime();
+            encoder.encode(state, t, buffer);
+            encodeNanos += System.nanoTime() - start;
+            state.clearChangedCells();
+            buffer.flip();
+            int size = buffer.remaining();
+            bytes += size;
+            if (buffer.get(0) == KEYFRAME) {
+                keyframes++;
+                keyframeBytes += size;
+            }
+            start = System.nanoTime();
+            decoder.decode(buffer);
+            decodeNanos += System.nanoTime() - start;
+        }
+        long deltaTicks = ticks - keyframes;
+        System.out.printf("%d ticks on %dx%d: %.1f bytes/tick overall, %.1f per delta, %.1f per keyframe "
+                + "(%d raw cell bytes)%n",
+            ticks, width, height, bytes / (double) ticks,
+            deltaTicks == 0 ? 0.0 : (bytes - keyframeBytes) / (double) deltaTicks,
+            keyframes == 0 ? 0.0 : keyframeBytes / (double) keyframes, width * height);
+        System.out.printf("encode %.0f ns/tick, decode %.0f ns/tick%n",
+            encodeNanos / (double) ticks, decodeNanos / (double) ticks);
+    }
+}
@@ -0,0 +1,30 @@
+package com.virusvector;
+
+/**
+ * What a client needs to render one tick of a game played elsewhere, as rebuilt by a
+ * {@link StateDelta.Decoder}. Cells are stored row by row ({@code y * width + x}) as
+ * {@link EntityType#getValue()}.
+ */
+public final class StateFrame {
+    int tick;
+    int width;
+    int height;
+    byte[] cells;
+    int playerX;
+    int playerY;
+    int score;
+    int level;
+    int lives;
+    int timeLeftMillis;
+    boolean gameOver;
+    boolean levelComplete;
+    boolean shield;
+    boolean boost;
+
+    public int getTick() { return tick; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /** @return the {@link EntityType} value of a cell */
+    public int getCell(int x, int y) { return cells[y * width + x]; }
+}
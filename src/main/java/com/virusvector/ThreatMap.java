@@ -0,0 +1,166 @@
+package com.virusvector;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * How dangerous each cell is, as the sum of what every antivirus and spawner within
+ * {@link #RADIUS} contributes: the source's weight times how many steps short of the
+ * radius the cell is, counting diagonal steps like the moves enemies make. Walls do
+ * not shield anything.
+ *
+ * The sum is kept per cell and follows every cell change, so an enemy that moves takes
+ * its share off the square around the cell it left and adds it around the cell it
+ * entered. The work per move is bounded by the size of that square, no matter how many
+ * enemies there are or how large the board is.
+ */
+public final class ThreatMap {
+    /** Cells further than this from a source, in king moves, get nothing from it */
+    public static final int RADIUS = 4;
+    private static final int SIDE = 2 * RADIUS + 1;
+    private static final int[] KERNEL = new int[SIDE * SIDE]; // steps short of the radius, row by row
+
+    static {
+        for (int dy = -RADIUS; dy <= RADIUS; dy++) {
+            for (int dx = -RADIUS; dx <= RADIUS; dx++) {
+                KERNEL[(dy + RADIUS) * SIDE + dx + RADIUS] = RADIUS + 1 - Math.max(Math.abs(dx), Math.abs(dy));
+            }
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int[] danger; // row-major
+
+    public ThreatMap(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.danger = new int[width * height];
+    }
+
+    /**
+     * @return how much a source of this type adds for each step a cell is short of the
+     * radius, so its own cell gets {@code weight * (RADIUS + 1)}; 0 for non-threats
+     */
+    public static int weight(EntityType type) {
+        return switch (type) {
+            case ANTIVIRUS -> 1;
+            case PATROLLING_ANTIVIRUS, RANDOM_ANTIVIRUS -> 2;
+            case CHASING_ANTIVIRUS, ENEMY_SPAWNER -> 3;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Reads every source from a whole grid, indexed {@code [x][y]}.
+     */
+    public void load(EntityType[][] grid) {
+        clear();
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                cellChanged(x, y, EntityType.EMPTY, grid[x][y]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(danger, 0);
+    }
+
+    /**
+     * Records that a cell went from one type to another.
+     *
+     * @return whether the danger of the square around the cell changed
+     */
+    public boolean cellChanged(int x, int y, EntityType old, EntityType type) {
+        int delta = weight(type) - weight(old);
+        if (delta == 0) return false;
+        int x0 = Math.max(0, x - RADIUS);
+        int x1 = Math.min(width - 1, x + RADIUS);
+        int y1 = Math.min(height - 1, y + RADIUS);
+        for (int cy = Math.max(0, y - RADIUS); cy <= y1; cy++) {
+            int k = (cy - y + RADIUS) * SIDE + RADIUS - x;
+            int row = cy * width;
+            for (int cx = x0; cx <= x1; cx++) {
+                danger[row + cx] += delta * KERNEL[k + cx];
+            }
+        }
+        return true;
+    }
+
+    /** @return the danger of a cell, 0 when nothing is within reach */
+    public int getDanger(int x, int y) {
+        return danger[y * width + x];
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /**
+     * Random-walks enemies on a large board, timing the incremental updates of each tick
+     * against rebuilding the whole map, and checks the two agree.
+     */
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int enemies = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 600;
+        Random random = new Random(5);
+        EntityType[][] grid = new EntityType[size][size];
+        for (EntityType[] column : grid) {
+            Arrays.fill(column, EntityType.EMPTY);
+        }
+        EntityType[] kinds = {EntityType.ANTIVIRUS, EntityType.PATROLLING_ANTIVIRUS, EntityType.CHASING_ANTIVIRUS,
+            EntityType.RANDOM_ANTIVIRUS, EntityType.ENEMY_SPAWNER};
+        int[] ex = new int[enemies];
+        int[] ey = new int[enemies];
+        for (int i = 0; i < enemies; i++) {
+            do {
+                ex[i] = random.nextInt(size);
+                ey[i] = random.nextInt(size);
+            } while (grid[ex[i]][ey[i]] != EntityType.EMPTY);
+            grid[ex[i]][ey[i]] = kinds[i % kinds.length];
+        }
+        ThreatMap map = new ThreatMap(size, size);
+        map.load(grid);
+        ThreatMap rebuilt = new ThreatMap(size, size);
+
+        long updateNanos = 0;
+        long rebuildNanos = 0;
+        long moves = 0;
+        for (int t = 0; t < ticks; t++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < enemies; i++) {
+                EntityType type = grid[ex[i]][ey[i]];
+                if (type == EntityType.ANTIVIRUS || type == EntityType.ENEMY_SPAWNER) continue; // they hold still
+                int nx = ex[i] + random.nextInt(3) - 1;
+                int ny = ey[i] + random.nextInt(3) - 1;
+                if (nx < 0 || ny < 0 || nx >= size || ny >= size || grid[nx][ny] != EntityType.EMPTY) continue;
+                grid[ex[i]][ey[i]] = EntityType.EMPTY;
+                map.cellChanged(ex[i], ey[i], type, EntityType.EMPTY);
+                grid[nx][ny] = type;
+                map.cellChanged(nx, ny, EntityType.EMPTY, type);
+                ex[i] = nx;
+                ey[i] = ny;
+                moves++;
+            }
+            updateNanos += System.nanoTime() - start;
+
+            if (t % 60 == 59) {
+                start = System.nanoTime();
+                rebuilt.load(grid);
+                rebuildNanos += System.nanoTime() - start;
+                for (int y = 0; y < size; y++) {
+                    for (int x = 0; x < size; x++) {
+                        if (map.getDanger(x, y) != rebuilt.getDanger(x, y)) {
+                            throw new AssertionError("danger differs at " + x + "," + y);
+                        }
+                    }
+                }
+            }
+        }
+        System.out.printf("%dx%d, %d enemies: %.1f moves/tick, %.3f ms/tick incremental (%.2f us/move), %.3f ms per rebuild%n",
+            size, size, enemies, (double) moves / ticks, updateNanos / 1e6 / ticks, updateNanos / 1e3 / Math.max(1, moves),
+            rebuildNanos / 1e6 / (ticks / 60));
+    }
+}
@@ -0,0 +1,263 @@
+package com.virusvector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Gym-style batch of independent games for training agents without the Swing UI.
+ * Observations for every environment live in one direct buffer laid out as
+ * [env][plane][y][x] with one byte per cell, so the whole batch can be handed to a
+ * socket or native code without copying. Rewards (float) and done flags (byte)
+ * have their own direct buffers, indexed by environment.
+ *
+ * Actions are 0 = stay, 1 = left, 2 = right, 3 = up, 4 = down. Each step applies the
+ * action and then the enemy ticks of one player move. Finished environments reset
+ * themselves; their done flag is set for that step and the observation is the new episode.
+ */
+public final class VectorEnv implements AutoCloseable {
+    public static final int PLANE_WALL = 0;
+    public static final int PLANE_FIREWALL = 1;
+    public static final int PLANE_INFECTED = 2;
+    public static final int PLANE_PLAYER = 3;
+    public static final int PLANE_THREAT = 4;
+    public static final int PLANE_POWER_UP = 5;
+    public static final int PLANES = 6;
+    public static final int ACTIONS = 5;
+
+    private static final int TICK_MILLIS = 16;
+    private static final float LIFE_LOST_PENALTY = 100f;
+    private static final byte[] PLANE_OF = planeTable();
+
+    private final GameState[] envs;
+    private final long baseSeed;
+    private long episodes;
+    private final int width;
+    private final int height;
+    private final int envBytes;
+    private final ByteBuffer observations;
+    private final ByteBuffer rewards;
+    private final ByteBuffer dones;
+    private final ExecutorService workers;
+    private final List<Callable<Void>> slices = new ArrayList<>();
+    private final int[] sliceOf; // slice that steps each environment
+    private GameAnalytics[] analytics; // one per slice, null when off
+    private int[] pendingActions;
+
+    public VectorEnv(int count, long seed) {
+        this(count, seed, Runtime.getRuntime().availableProcessors());
+    }
+
+    public VectorEnv(int count, long seed, int threads) {
+        if (count < 1 || threads < 1) {
+            throw new IllegalArgumentException("Need at least one environment and one thread");
+        }
+        this.baseSeed = seed;
+        envs = new GameState[count];
+        for (int i = 0; i < count; i++) {
+            envs[i] = new GameState(seed + i);
+        }
+        episodes = count;
+        width = envs[0].getWidth();
+        height = envs[0].getHeight();
+        envBytes = PLANES * width * height;
+        observations = ByteBuffer.allocateDirect(count * envBytes);
+        rewards = ByteBuffer.allocateDirect(count * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        dones = ByteBuffer.allocateDirect(count);
+
+        int sliceCount = Math.min(threads, count);
+        sliceOf = new int[count];
+        workers = sliceCount > 1 ? Executors.newFixedThreadPool(sliceCount, r -> {
+            Thread t = new Thread(r, "vector-env");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+        for (int s = 0; s < sliceCount; s++) {
+            int from = (int) ((long) count * s / sliceCount);
+            int to = (int) ((long) count * (s + 1) / sliceCount);
+            Arrays.fill(sliceOf, from, to, s);
+            byte[] scratch = new byte[envBytes];
+            slices.add(() -> {
+                for (int i = from; i < to; i++) {
+                    stepOne(i, pendingActions == null ? 0 : pendingActions[i], scratch);
+                }
+                return null;
+            });
+        }
+    }
+
+    public int getEnvCount() { return envs.length; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /** @return [env][plane][y][x] observation bytes, 0 or 1 per cell; do not modify position or limit */
+    public ByteBuffer getObservations() { return observations; }
+
+    /** @return little-endian float reward per environment for the last step */
+    public ByteBuffer getRewards() { return rewards; }
+
+    /** @return one byte per environment, 1 if its episode ended on the last step */
+    public ByteBuffer getDones() { return dones; }
+
+    /** Direct access to one environment, e.g. for rendering an agent's game. */
+    public GameState getEnv(int index) { return envs[index]; }
+
+    /**
+     * Starts aggregating gameplay events from every environment, with one
+     * {@link GameAnalytics} per worker so threads never share counters.
+     */
+    public void enableAnalytics() {
+        if (analytics != null) return;
+        analytics = new GameAnalytics[slices.size()];
+        for (int s = 0; s < analytics.length; s++) {
+            analytics[s] = new GameAnalytics(width, height);
+        }
+        for (int i = 0; i < envs.length; i++) {
+            envs[i].setEventListener(analytics[sliceOf[i]]);
+        }
+    }
+
+    /**
+     * Adds the events gathered since the last call into the target and starts over.
+     * Call between steps.
+     */
+    public void drainAnalytics(GameAnalytics target) {
+        if (analytics == null) return;
+        for (GameAnalytics slice : analytics) {
+            target.merge(slice);
+            slice.clear();
+        }
+    }
+
+    private GameState newEpisode(int env, long seed) {
+        GameState state = new GameState(seed);
+        if (analytics != null) {
+            state.setEventListener(analytics[sliceOf[env]]);
+        }
+        return state;
+    }
+
+    /**
+     * Starts a fresh episode in every environment and writes the first observations.
+     */
+    public void reset() {
+        for (int i = 0; i < envs.length; i++) {
+            envs[i] = newEpisode(i, baseSeed + episodes++);
+        }
+        pendingActions = null;
+        runSlices();
+        for (int i = 0; i < envs.length; i++) {
+            rewards.putFloat(i * Float.BYTES, 0f);
+            dones.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Steps every environment with its action, in parallel across the worker threads.
+     */
+    public void step(int[] actions) {
+        if (actions.length != envs.length) {
+            throw new IllegalArgumentException("Expected " + envs.length + " actions");
+        }
+        pendingActions = actions;
+        runSlices();
+        pendingActions = null;
+    }
+
+    private void runSlices() {
+        if (workers == null) {
+            try {
+                slices.get(0).call();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return;
+        }
+        try {
+            for (Future<Void> f : workers.invokeAll(slices)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while stepping", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void stepOne(int i, int action, byte[] scratch) {
+        GameState s = envs[i];
+        float reward = 0f;
+        boolean done = false;
+        if (pendingActions != null) {
+            int score = s.getScore();
+            int lives = s.getLives();
+            if (action > 0 && action <= 4) {
+                s.movePlayer(LevelSolver.dx(action - 1), LevelSolver.dy(action - 1));
+            }
+            for (int t = 0; t < LevelSolver.MOVE_MILLIS / TICK_MILLIS; t++) {
+                if (s.isGameOver() || s.isLevelComplete()) break;
+                s.tick(TICK_MILLIS);
+            }
+            reward = s.getScore() - score - LIFE_LOST_PENALTY * (lives - s.getLives());
+            done = s.isGameOver() || s.isLevelComplete();
+            if (done) {
+                s = envs[i] = newEpisode(i, baseSeed + nextEpisode());
+            }
+        }
+        writeObservation(s, i, scratch);
+        rewards.putFloat(i * Float.BYTES, reward);
+        dones.put(i, (byte) (done ? 1 : 0));
+    }
+
+    private synchronized long nextEpisode() {
+        return episodes++;
+    }
+
+    private void writeObservation(GameState s, int env, byte[] scratch) {
+        Arrays.fill(scratch, (byte) 0);
+        EntityType[][] grid = s.getGrid();
+        int planeSize = width * height;
+        for (int x = 0; x < width; x++) {
+            EntityType[] column = grid[x];
+            for (int y = 0; y < height; y++) {
+                int plane = PLANE_OF[column[y].ordinal()];
+                if (plane >= 0) {
+                    scratch[plane * planeSize + y * width + x] = 1;
+                }
+            }
+        }
+        observations.put(env * envBytes, scratch);
+    }
+
+    private static byte[] planeTable() {
+        EntityType[] types = EntityType.values();
+        byte[] table = new byte[types.length];
+        for (EntityType type : types) {
+            table[type.ordinal()] = (byte) switch (type) {
+                case WALL -> PLANE_WALL;
+                case FIREWALL -> PLANE_FIREWALL;
+                case INFECTED -> PLANE_INFECTED;
+                case PLAYER -> PLANE_PLAYER;
+                case ANTIVIRUS, PATROLLING_ANTIVIRUS, CHASING_ANTIVIRUS, RANDOM_ANTIVIRUS, ENEMY_SPAWNER -> PLANE_THREAT;
+                case INFECT_UPGRADE, SHIELD, TIME_EXTENSION -> PLANE_POWER_UP;
+                case EMPTY -> -1;
+            };
+        }
+        return table;
+    }
+
+    @Override
+    public void close() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+}